@@ -0,0 +1,121 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the extraction of zip files by {@link AssetExtractor}. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class AssetExtractorTest {
+
+  private File root;
+
+  @Before
+  public void setUp() {
+    root = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "asset_extractor");
+    ModelCache.deleteRecursively(root);
+    assertTrue(root.mkdirs());
+  }
+
+  @After
+  public void tearDown() {
+    ModelCache.deleteRecursively(root);
+  }
+
+  @Test
+  public void unzipsAndDigestsTheWholeArchive() throws IOException {
+    File zip = new File(root, "dataset.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      out.putNextEntry(new ZipEntry("images/"));
+      addEntry(out, "images/a.jpg", "aaaa");
+      addEntry(out, "labels.txt", "cat\ndog\n");
+      // A central directory larger than the read buffer, so that it is not read with the entries.
+      for (int i = 0; i < 4000; i++) {
+        addEntry(
+            out, String.format("annotations/%04d_with_a_long_name_to_grow_the_directory", i), "");
+      }
+    }
+
+    File dest = new File(root, "dataset");
+    String sha256;
+    try (InputStream in = new FileInputStream(zip)) {
+      sha256 = AssetExtractor.extractTo(in, true, dest);
+    }
+    assertEquals(ModelCache.digest(zip), sha256);
+    assertEquals(4, new File(dest, "images/a.jpg").length());
+    assertEquals(8, new File(dest, "labels.txt").length());
+    assertEquals(4000, new File(dest, "annotations").list().length);
+  }
+
+  @Test
+  public void copiesAndDigestsAFile() throws IOException {
+    File model = new File(root, "model.tflite");
+    try (FileOutputStream out = new FileOutputStream(model)) {
+      out.write(new byte[] {1, 2, 3, 4, 5});
+    }
+
+    File dest = new File(root, "copy.tflite");
+    String sha256;
+    try (InputStream in = new FileInputStream(model)) {
+      sha256 = AssetExtractor.extractTo(in, false, dest);
+    }
+    assertEquals(ModelCache.digest(model), sha256);
+    assertEquals(ModelCache.digest(model), ModelCache.digest(dest));
+  }
+
+  @Test
+  public void rejectsEntriesOutsideOfTheDestination() throws IOException {
+    File zip = new File(root, "evil.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      addEntry(out, "ok.txt", "ok");
+      addEntry(out, "../evil.txt", "evil");
+    }
+
+    File dest = new File(root, "dataset");
+    try (InputStream in = new FileInputStream(zip)) {
+      AssetExtractor.extractTo(in, true, dest);
+      fail("Extracted an entry outside of " + dest);
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertFalse(new File(root, "evil.txt").exists());
+  }
+
+  private static void addEntry(ZipOutputStream out, String name, String content)
+      throws IOException {
+    out.putNextEntry(new ZipEntry(name));
+    out.write(content.getBytes("UTF-8"));
+    out.closeEntry();
+  }
+}
@@ -0,0 +1,136 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests {@link AutoTuner} with fake probes. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class AutoTunerTest {
+
+  private SharedPreferences cache;
+  // Speed of each candidate, missing ones fail.
+  private final Map<AutoTuner.Candidate, Double> speeds = new HashMap<>();
+  // Number of probes of each candidate.
+  private final Map<AutoTuner.Candidate, Integer> probes = new HashMap<>();
+
+  @Before
+  public void setUp() {
+    cache =
+        InstrumentationRegistry.getTargetContext()
+            .getSharedPreferences("auto_tune_test", Context.MODE_PRIVATE);
+    cache.edit().clear().commit();
+  }
+
+  @Test
+  public void candidatesCoverThreadsAndAccelerators() {
+    List<AutoTuner.Candidate> candidates =
+        AutoTuner.getCandidates(6, "None", Arrays.asList("GPU (F16)", "NNAPI-dsp"), 4);
+    assertEquals(
+        Arrays.asList(
+            new AutoTuner.Candidate(1, "None"),
+            new AutoTuner.Candidate(2, "None"),
+            new AutoTuner.Candidate(4, "None"),
+            new AutoTuner.Candidate(6, "None"),
+            new AutoTuner.Candidate(4, "GPU (F16)"),
+            new AutoTuner.Candidate(4, "NNAPI-dsp")),
+        candidates);
+  }
+
+  @Test
+  public void picksFastestAndHalvesCandidates() {
+    List<AutoTuner.Candidate> candidates =
+        AutoTuner.getCandidates(8, "None", Collections.singletonList("GPU"), 4);
+    speeds.put(candidates.get(0), 10.0);
+    speeds.put(candidates.get(1), 18.0);
+    speeds.put(candidates.get(2), 20.0);
+    speeds.put(candidates.get(3), 19.0);
+    // The GPU fails.
+    AutoTuner.Candidate winner = newTuner("device").tune("model", candidates);
+    assertEquals(candidates.get(2), winner);
+    // 4 candidates ran, the 2 fastest ran again, then only one was left.
+    assertEquals(1, (int) probes.get(candidates.get(0)));
+    assertEquals(1, (int) probes.get(candidates.get(1)));
+    assertEquals(2, (int) probes.get(candidates.get(2)));
+    assertEquals(2, (int) probes.get(candidates.get(3)));
+    assertEquals(1, (int) probes.get(candidates.get(4)));
+  }
+
+  @Test
+  public void prunesClearlySlowerCandidates() {
+    List<AutoTuner.Candidate> candidates =
+        AutoTuner.getCandidates(4, "None", Collections.<String>emptyList(), 4);
+    speeds.put(candidates.get(0), 4.0);
+    speeds.put(candidates.get(1), 5.0);
+    speeds.put(candidates.get(2), 10.0);
+    assertEquals(candidates.get(2), newTuner("device").tune("model", candidates));
+    // The second best is too slow to get a second round.
+    assertEquals(1, (int) probes.get(candidates.get(1)));
+    assertEquals(1, (int) probes.get(candidates.get(2)));
+  }
+
+  @Test
+  public void cachesWinnerPerFingerprint() {
+    List<AutoTuner.Candidate> candidates =
+        AutoTuner.getCandidates(2, "None", Collections.<String>emptyList(), 2);
+    speeds.put(candidates.get(0), 1.0);
+    speeds.put(candidates.get(1), 2.0);
+    assertEquals(candidates.get(1), newTuner("device").tune("model", candidates));
+    probes.clear();
+    assertEquals(candidates.get(1), newTuner("device").tune("model", candidates));
+    assertEquals(0, probes.size());
+    // A new system build tunes again.
+    speeds.put(candidates.get(0), 3.0);
+    assertEquals(candidates.get(0), newTuner("device2").tune("model", candidates));
+  }
+
+  @Test
+  public void returnsNullWhenAllFail() {
+    List<AutoTuner.Candidate> candidates =
+        AutoTuner.getCandidates(2, "None", Collections.<String>emptyList(), 2);
+    assertNull(newTuner("device").tune("model", candidates));
+  }
+
+  private AutoTuner newTuner(String fingerprint) {
+    return new AutoTuner(
+        cache,
+        fingerprint,
+        (candidate, numQueries) -> {
+          Integer count = probes.get(candidate);
+          probes.put(candidate, count == null ? 1 : count + 1);
+          Double speed = speeds.get(candidate);
+          if (speed == null) {
+            throw new IllegalArgumentException("Unsupported");
+          }
+          return speed;
+        });
+  }
+}
@@ -0,0 +1,128 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the plan and the records of {@link HeadlessRunner}. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class HeadlessRunnerTest {
+
+  @Test
+  public void planColumnsDefaultToTheFlags() throws IOException {
+    List<HeadlessRunner.Run> plan =
+        readPlan("# model,backend,num_threads,delegate,mode,repeat\n\n*\nMobileBert,,2,GPU,,3\n");
+    assertEquals(2, plan.size());
+    HeadlessRunner.Run all = plan.get(0);
+    assertEquals("*", all.model);
+    assertEquals("tflite", all.backend);
+    assertEquals(4, all.numThreads);
+    assertEquals("None", all.delegate);
+    assertEquals("PerformanceOnly", all.mode);
+    assertEquals(1, all.repeat);
+    HeadlessRunner.Run bert = plan.get(1);
+    assertEquals("MobileBert", bert.model);
+    assertEquals("tflite", bert.backend);
+    assertEquals(2, bert.numThreads);
+    assertEquals("GPU", bert.delegate);
+    assertEquals("PerformanceOnly", bert.mode);
+    assertEquals(3, bert.repeat);
+  }
+
+  @Test
+  public void planRejectsInvalidLines() throws IOException {
+    assertRejected("model,tflite,4,None,PerformanceOnly,1,extra\n");
+    assertRejected("model,tflite,four\n");
+    assertRejected("model,tflite,4,None,PerformanceOnly,0\n");
+    assertRejected("model,tflite,4,None,PerformanceOnly,-1\n");
+  }
+
+  @Test
+  public void repeatFlagMustBePositive() throws IOException {
+    Map<String, String> flags = defaults();
+    flags.put("repeat", "0");
+    try {
+      HeadlessRunner.readPlan(new BufferedReader(new StringReader("*")), flags);
+      fail("A repeat count of 0 was accepted");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void jsonEscapesStringsAndWritesNumbers() {
+    Map<String, Object> record = new LinkedHashMap<>();
+    record.put("model", "a \"quoted\"\\name\n");
+    record.put("samples", 12L);
+    record.put("qps", 1.5);
+    record.put("accuracy", Double.NaN);
+    assertEquals(
+        "{\"model\":\"a \\\"quoted\\\"\\\\name\\u000a\",\"samples\":12,\"qps\":1.5000,"
+            + "\"accuracy\":null}",
+        HeadlessRunner.toJson(record));
+  }
+
+  @Test
+  public void csvFollowsTheColumnsAndQuotes() {
+    int numColumns = HeadlessRunner.toCsv(new HashMap<>()).length() + 1;
+    Map<String, Object> record = new LinkedHashMap<>();
+    record.put("error", "failed, \"badly\"");
+    record.put("model", "MobileBert");
+    record.put("num_threads", 4);
+    record.put("not_a_column", "ignored");
+    String csv = HeadlessRunner.toCsv(record);
+    assertEquals("MobileBert,,,4,", csv.substring(0, "MobileBert,,,4,".length()));
+    String error = ",\"failed, \"\"badly\"\"\"";
+    assertEquals(error, csv.substring(csv.length() - error.length()));
+    assertEquals(numColumns + 1, csv.split(",", -1).length);
+  }
+
+  private static List<HeadlessRunner.Run> readPlan(String plan) throws IOException {
+    return HeadlessRunner.readPlan(new BufferedReader(new StringReader(plan)), defaults());
+  }
+
+  private static void assertRejected(String plan) throws IOException {
+    try {
+      readPlan(plan);
+      fail("Accepted the plan " + plan);
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  private static Map<String, String> defaults() {
+    Map<String, String> flags = new HashMap<>();
+    flags.put("backend", "tflite");
+    flags.put("num_threads", "4");
+    flags.put("delegate", "None");
+    flags.put("mode", "PerformanceOnly");
+    flags.put("repeat", "1");
+    return flags;
+  }
+}
@@ -0,0 +1,146 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests {@link LatencyStats} on known distributions. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LatencyStatsTest {
+
+  @Test
+  public void percentilesOfAUniformDistribution() {
+    LatencyStats stats = new LatencyStats(shuffledRange(1, 100));
+    assertEquals(100, stats.getCount());
+    assertEquals(1, stats.getMin());
+    assertEquals(100, stats.getMax());
+    assertEquals(1, stats.getPercentile(0));
+    assertEquals(51, stats.getPercentile(0.5));
+    assertEquals(91, stats.getPercentile(0.9));
+    assertEquals(100, stats.getPercentile(0.99));
+    assertEquals(100, stats.getPercentile(1));
+  }
+
+  @Test
+  public void percentilesOfFewSamples() {
+    LatencyStats stats = new LatencyStats(new long[] {30, 10, 20});
+    assertEquals(10, stats.getPercentile(0.3));
+    assertEquals(20, stats.getPercentile(0.5));
+    assertEquals(30, stats.getPercentile(0.9));
+  }
+
+  @Test
+  public void meanAndSampleStddev() {
+    LatencyStats stats = new LatencyStats(new long[] {2, 4, 4, 4, 5, 5, 7, 9});
+    assertEquals(5.0, stats.getMean(), 1e-12);
+    assertEquals(Math.sqrt(32.0 / 7), stats.getStddev(), 1e-12);
+    assertEquals(0, new LatencyStats(new long[] {42}).getStddev(), 0);
+  }
+
+  @Test
+  public void stddevIsAccurateForLargeLatencies() {
+    long base = 1000L * 1000 * 1000 * 1000;
+    LatencyStats stats = new LatencyStats(new long[] {base + 1, base + 2, base + 3});
+    assertEquals(base + 2.0, stats.getMean(), 1e-3);
+    assertEquals(1.0, stats.getStddev(), 1e-6);
+  }
+
+  @Test
+  public void histogramOfAUniformDistribution() {
+    LatencyStats stats = new LatencyStats(shuffledRange(1, 100));
+    assertArrayEquals(new long[] {25, 25, 25, 25}, stats.getHistogram(4));
+    long[] tenBuckets = new long[10];
+    Arrays.fill(tenBuckets, 10);
+    assertArrayEquals(tenBuckets, stats.getHistogram(10));
+  }
+
+  @Test
+  public void histogramOfASkewedDistribution() {
+    LatencyStats stats = new LatencyStats(new long[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 99});
+    // The buckets are [0, 25), [25, 50), [50, 75) and [75, 99].
+    assertArrayEquals(new long[] {9, 0, 0, 1}, stats.getHistogram(4));
+    // The same latency everywhere falls in the first bucket.
+    assertArrayEquals(
+        new long[] {5, 0}, new LatencyStats(new long[] {7, 7, 7, 7, 7}).getHistogram(2));
+  }
+
+  @Test
+  public void emptyStats() {
+    LatencyStats stats = new LatencyStats(new long[0]);
+    assertEquals(0, stats.getCount());
+    assertEquals(0, stats.getMin());
+    assertEquals(0, stats.getMax());
+    assertEquals(0, stats.getPercentile(0.9));
+    assertEquals(0, stats.getMean(), 0);
+    assertEquals(0, stats.getStddev(), 0);
+    assertArrayEquals(new long[3], stats.getHistogram(3));
+  }
+
+  @Test
+  public void readsTheRemainingLatenciesOfABuffer() {
+    LongBuffer buffer = LongBuffer.wrap(new long[] {1000, 5, 3, 4});
+    buffer.position(1);
+    LatencyStats stats = LatencyStats.of(buffer);
+    assertEquals(3, stats.getCount());
+    assertEquals(3, stats.getMin());
+    assertEquals(5, stats.getMax());
+    assertEquals(1, buffer.position());
+  }
+
+  @Test
+  public void doesNotSortTheGivenLatencies() {
+    long[] latencies = {3, 1, 2};
+    new LatencyStats(latencies);
+    assertArrayEquals(new long[] {3, 1, 2}, latencies);
+  }
+
+  @Test
+  public void rejectsInvalidArguments() {
+    LatencyStats stats = new LatencyStats(new long[] {1, 2, 3});
+    try {
+      stats.getPercentile(1.5);
+      fail("Accepted a percentile above 1");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      stats.getHistogram(0);
+      fail("Accepted 0 buckets");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  // Returns the latencies from first to last in a fixed shuffled order.
+  private static long[] shuffledRange(int first, int last) {
+    int count = last - first + 1;
+    long[] latencies = new long[count];
+    for (int i = 0; i < count; ++i) {
+      // A permutation as long as count is coprime with 37.
+      latencies[i] = first + (i * 37L) % count;
+    }
+    return latencies;
+  }
+}
@@ -0,0 +1,126 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests {@link LoadGenLog} with excerpts of LoadGen logs. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LoadGenLogTest {
+
+  private static final String SUMMARY =
+      "================================================\n"
+          + "MLPerf Results Summary\n"
+          + "================================================\n"
+          + "SUT name : TFLite\n"
+          + "Scenario : SingleStream\n"
+          + "Mode     : PerformanceOnly\n"
+          + "90th percentile latency (ns) : 12000000\n"
+          + "Result is : VALID\n"
+          + "  Min duration satisfied : Yes\n"
+          + "  Min queries satisfied : Yes\n"
+          + "  Early stopping satisfied: Yes\n"
+          + "Early Stopping Result:\n"
+          + " * Processed at least 64 queries (1024).\n"
+          + " * Early stopping 90th percentile estimate: 12500000\n"
+          + "\n"
+          + "================================================\n"
+          + "Additional Stats\n"
+          + "================================================\n"
+          + "QPS w/ loadgen overhead         : 85.12\n"
+          + "QPS w/o loadgen overhead        : 86.00\n"
+          + "\n"
+          + "Min latency (ns)                : 10000000\n"
+          + "Max latency (ns)                : 30000000\n"
+          + "Mean latency (ns)               : 11500000\n";
+
+  private static final String DETAIL =
+      ":::MLLOG {\"key\": \"loadgen_version\", \"value\": \"1.1\", \"time_ms\": 0.01,"
+          + " \"namespace\": \"mlperf::logging\", \"event_type\": \"POINT_IN_TIME\"}\n"
+          + "not a MLLOG line with \"key\": \"result_validity\", \"value\": \"INVALID\"\n"
+          + ":::MLLOG {\"key\": \"result_validity\", \"value\": \"INVALID\", \"time_ms\": 9.5,"
+          + " \"namespace\": \"mlperf::logging\", \"event_type\": \"POINT_IN_TIME\"}\n"
+          + ":::MLLOG {\"key\": \"result_samples_per_second\", \"value\": 412.5, \"time_ms\": 9.5,"
+          + " \"namespace\": \"mlperf::logging\", \"event_type\": \"POINT_IN_TIME\"}\r\n"
+          + ":::MLLOG {\"key\": \"result_min_latency_ns\", \"value\": 2000, \"time_ms\": 9.5,"
+          + " \"namespace\": \"mlperf::logging\", \"event_type\": \"POINT_IN_TIME\"}\n"
+          + ":::MLLOG {\"key\": \"error_invalid_config\", \"value\": \"Multiple conf files\","
+          + " \"time_ms\": 1.0, \"namespace\": \"mlperf::logging\", \"event_type\": \"ERROR\"}\n"
+          + ":::MLLOG {\"key\": \"warning_generic_message\", \"value\": \"Slow\", \"time_ms\": 1.0,"
+          + " \"namespace\": \"mlperf::logging\", \"event_type\": \"WARNING\"}";
+
+  @Test
+  public void readsSummary() throws IOException {
+    LoadGenLog log = LoadGenLog.parse(stream(SUMMARY), null);
+    assertTrue(log.isValid());
+    assertEquals(85.12, log.getQps(), 1e-9);
+    assertEquals(10000000, log.getMinLatencyNs());
+    assertEquals(11500000, log.getMeanLatencyNs());
+    assertEquals(30000000, log.getMaxLatencyNs());
+    assertEquals(12000000, log.getP90LatencyNs());
+    assertEquals("Yes", log.getEarlyStopping());
+    assertEquals(12500000, log.getEarlyStoppingLatencyNs());
+  }
+
+  @Test
+  public void readsDetail() throws IOException {
+    LoadGenLog log = LoadGenLog.parse(null, stream(DETAIL));
+    assertEquals("INVALID", log.getValidity());
+    assertFalse(log.isValid());
+    assertEquals(412.5, log.getQps(), 1e-9);
+    assertEquals(2000, log.getMinLatencyNs());
+    assertEquals(-1, log.getMaxLatencyNs());
+    assertEquals("", log.getEarlyStopping());
+    assertEquals(1, log.getErrorCount());
+    assertEquals(1, log.getWarningCount());
+    assertEquals("error_invalid_config: Multiple conf files", log.getFirstError());
+  }
+
+  @Test
+  public void summaryTakesPrecedence() throws IOException {
+    LoadGenLog log = LoadGenLog.parse(stream(SUMMARY), stream(DETAIL));
+    assertEquals("VALID", log.getValidity());
+    assertEquals(10000000, log.getMinLatencyNs());
+    assertEquals(1, log.getErrorCount());
+  }
+
+  @Test
+  public void skipsLongLines() throws IOException {
+    StringBuilder detail = new StringBuilder();
+    for (int i = 0; i < 100000; ++i) {
+      detail.append("0123456789");
+    }
+    detail.append('\n').append(DETAIL);
+    LoadGenLog log = LoadGenLog.parse(null, stream(detail.toString()));
+    assertEquals("INVALID", log.getValidity());
+    assertEquals(1, log.getErrorCount());
+  }
+
+  private static InputStream stream(String text) {
+    return new ByteArrayInputStream(text.getBytes(Charset.forName("UTF-8")));
+  }
+}
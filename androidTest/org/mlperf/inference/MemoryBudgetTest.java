@@ -0,0 +1,154 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentCallbacks2;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests {@link MemoryBudget} with a fake meminfo file. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class MemoryBudgetTest {
+  private static final long MB = 1L << 20;
+
+  private File root;
+  private File meminfo;
+  private final List<Long> loweredBudgets = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    root = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "fake_meminfo");
+    deleteRecursively(root);
+    assertTrue(root.mkdirs());
+    meminfo = new File(root, "meminfo");
+  }
+
+  @After
+  public void tearDown() {
+    deleteRecursively(root);
+  }
+
+  @Test
+  public void readsMemAvailable() throws IOException {
+    writeMeminfo(
+        "MemTotal:        3809036 kB\n"
+            + "MemFree:          282012 kB\n"
+            + "MemAvailable:    1577660 kB\n"
+            + "Buffers:           73248 kB\n"
+            + "Cached:          1379492 kB\n");
+    assertEquals(1577660L * 1024, MemoryBudget.readMemAvailable(meminfo));
+  }
+
+  @Test
+  public void estimatesMemAvailableOnOldKernels() throws IOException {
+    writeMeminfo("MemTotal: 3809036 kB\nMemFree: 282012 kB\nCached: 1379492 kB\n");
+    assertEquals((282012L + 1379492) * 1024, MemoryBudget.readMemAvailable(meminfo));
+  }
+
+  @Test
+  public void unknownMemAvailable() throws IOException {
+    assertEquals(-1, MemoryBudget.readMemAvailable(meminfo));
+    writeMeminfo("MemTotal: 3809036 kB\nMemFree: 282012 kB\n");
+    assertEquals(-1, MemoryBudget.readMemAvailable(meminfo));
+    writeMeminfo("MemTotal: lots kB\nMemAvailable: 1577660 kB\n");
+    assertEquals(-1, MemoryBudget.readMemAvailable(meminfo));
+  }
+
+  @Test
+  public void budgetIsHalfOfTheAvailableMemoryWithinBounds() throws IOException {
+    MemoryBudget budget = newBudget();
+    writeMemAvailable(1024 * MB);
+    assertEquals(512 * MB, budget.getBudgetBytes());
+    assertEquals(128 * MB, budget.getBackendCacheBytes());
+    writeMemAvailable(16 * MB);
+    assertEquals(32 * MB, budget.getBudgetBytes());
+    writeMemAvailable(16384 * MB);
+    assertEquals(4096 * MB, budget.getBudgetBytes());
+    meminfo.delete();
+    assertEquals(500L * 1000 * 1000, budget.getBudgetBytes());
+  }
+
+  @Test
+  public void pressureHalvesTheBudgetUpToEightTimes() throws IOException {
+    MemoryBudget budget = newBudget();
+    writeMemAvailable(2048 * MB);
+    assertEquals(1024 * MB, budget.getBudgetBytes());
+
+    budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+    budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+    assertEquals(1024 * MB, budget.getBudgetBytes());
+    budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+    assertEquals(512 * MB, budget.getBudgetBytes());
+    // The shift is clamped to 3 rather than going to 1 + 2 + 2.
+    budget.onLowMemory();
+    assertEquals(128 * MB, budget.getBudgetBytes());
+    budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    assertEquals(128 * MB, budget.getBudgetBytes());
+    budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+    budget.onLowMemory();
+    assertEquals(128 * MB, budget.getBudgetBytes());
+    // The listener is not told once the shift is clamped.
+    assertEquals(Arrays.asList(512 * MB, 128 * MB), loweredBudgets);
+  }
+
+  @Test
+  public void loweredBudgetKeepsItsMinimum() throws IOException {
+    MemoryBudget budget = newBudget();
+    writeMemAvailable(128 * MB);
+    budget.onLowMemory();
+    budget.onLowMemory();
+    assertEquals(32 * MB, budget.getBudgetBytes());
+    assertEquals(Arrays.asList(32 * MB, 32 * MB), loweredBudgets);
+  }
+
+  private MemoryBudget newBudget() {
+    return new MemoryBudget(null, meminfo, loweredBudgets::add);
+  }
+
+  private void writeMemAvailable(long bytes) throws IOException {
+    writeMeminfo("MemTotal: 8000000 kB\nMemAvailable: " + bytes / 1024 + " kB\n");
+  }
+
+  private void writeMeminfo(String content) throws IOException {
+    try (FileWriter writer = new FileWriter(meminfo)) {
+      writer.write(content);
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,229 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests {@link ModelCache} in a directory of the app cache. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ModelCacheTest {
+  private static final String MODEL = "https://example.com/v1/model.tflite";
+  private static final String OTHER_MODEL = "https://example.com/v2/model.tflite";
+  private static final String DATASET = "https://example.com/dataset.zip";
+
+  private File root;
+  private ModelCache cache;
+
+  @Before
+  public void setUp() {
+    root = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "model_cache");
+    ModelCache.deleteRecursively(root);
+    cache = new ModelCache(root);
+  }
+
+  @After
+  public void tearDown() {
+    ModelCache.deleteRecursively(root);
+  }
+
+  @Test
+  public void committedSourceIsAvailable() throws IOException {
+    assertFalse(cache.isAvailable(MODEL));
+    File extracted = cache.newTempFile(MODEL);
+    write(extracted, "weights");
+    cache.commit(MODEL, extracted, ModelCache.digest(extracted));
+
+    assertFalse(extracted.exists());
+    File entry = new File(cache.getPath(MODEL));
+    assertEquals("weights", read(entry));
+    assertTrue(cache.isAvailable(MODEL));
+    assertTrue(new ModelCache(root).isAvailable(MODEL));
+    // The same file name from another URL is another entry.
+    assertNotEquals(cache.getPath(MODEL), cache.getPath(OTHER_MODEL));
+    assertFalse(cache.isAvailable(OTHER_MODEL));
+  }
+
+  @Test
+  public void localSourcesAreUsedInPlace() throws IOException {
+    assertTrue(root.mkdirs());
+    File local = new File(root, "local.tflite");
+    assertFalse(ModelCache.isCacheable(local.getPath()));
+    assertEquals(local.getPath(), cache.getPath(local.getPath()));
+    assertFalse(cache.isAvailable(local.getPath()));
+    write(local, "weights");
+    assertTrue(cache.isAvailable(local.getPath()));
+  }
+
+  @Test
+  public void detectsCorruptedFile() throws IOException {
+    File entry = commitFile(MODEL, "weights");
+    write(entry, "WEIGHTS");
+    assertTrue(entry.setLastModified(entry.lastModified() + 10000));
+    assertFalse(cache.isAvailable(MODEL));
+  }
+
+  @Test
+  public void touchedFileIsAvailable() throws IOException {
+    File entry = commitFile(MODEL, "weights");
+    assertTrue(entry.setLastModified(entry.lastModified() + 10000));
+    assertTrue(cache.isAvailable(MODEL));
+    // The new stat is recorded once the digest matched.
+    assertEquals(Long.toString(entry.lastModified()), readMeta(MODEL).getProperty("last_modified"));
+  }
+
+  @Test
+  public void checksDirectoriesByStat() throws IOException {
+    File extracted = cache.newTempFile(DATASET);
+    assertTrue(extracted.mkdirs());
+    write(new File(extracted, "a.jpg"), "aaaa");
+    write(new File(extracted, "b.jpg"), "bbbb");
+    cache.commit(DATASET, extracted, "0123");
+    assertTrue(cache.isAvailable(DATASET));
+
+    File entry = new File(cache.getPath(DATASET));
+    write(new File(entry, "c.jpg"), "cccc");
+    assertFalse(cache.isAvailable(DATASET));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedUnpinnedEntries() throws IOException {
+    String a = "https://example.com/a.tflite";
+    String b = "https://example.com/b.tflite";
+    String c = "https://example.com/c.tflite";
+    String content = new String(new char[100]).replace('\0', 'x');
+    commitFile(a, content);
+    commitFile(b, content);
+    commitFile(c, content);
+    setLastAccess(a, 1);
+    setLastAccess(b, 2);
+    setLastAccess(c, 3);
+    // A leftover without metadata is evicted first.
+    File leftover = new File(root, "leftover");
+    write(leftover, content.substring(50));
+
+    cache.evict(200, Arrays.asList(a));
+    assertFalse(leftover.exists());
+    assertTrue(cache.isAvailable(a));
+    assertFalse(new File(cache.getPath(b)).exists());
+    assertFalse(cache.isAvailable(b));
+    assertTrue(cache.isAvailable(c));
+
+    // Pinned entries are kept even over the budget.
+    cache.evict(0, Arrays.asList(a, c));
+    assertTrue(cache.isAvailable(a));
+    assertTrue(cache.isAvailable(c));
+    cache.evict(0, Arrays.asList(c));
+    assertFalse(cache.isAvailable(a));
+    assertTrue(cache.isAvailable(c));
+  }
+
+  @Test
+  public void derivedFilesGoWithTheirEntry() throws IOException {
+    String squad = "@assets/squad_eval_mini.tfrecord";
+    String other = "https://example.com/other.tflite";
+    String content = new String(new char[100]).replace('\0', 'x');
+    commitFile(squad, content);
+    commitFile(other, content);
+    setLastAccess(squad, 1);
+    setLastAccess(other, 2);
+    File derived = new File(cache.getPath(squad) + ".mlperf_cache");
+    File derivedTmp = new File(cache.getPath(squad) + ".mlperf_cache.tmp1234");
+    write(derived, content);
+    write(derivedTmp, content);
+
+    // The derived files count in the size of their pinned entry instead of being leftovers.
+    cache.evict(300, Arrays.asList(squad));
+    assertTrue(derived.exists());
+    assertTrue(derivedTmp.exists());
+    assertTrue(cache.isAvailable(squad));
+    assertFalse(cache.isAvailable(other));
+
+    cache.evict(0, Arrays.<String>asList());
+    assertFalse(derived.exists());
+    assertFalse(derivedTmp.exists());
+    assertFalse(cache.isAvailable(squad));
+  }
+
+  @Test
+  public void commitDeletesTheFilesDerivedFromThePreviousContent() throws IOException {
+    commitFile(MODEL, "weights");
+    File derived = new File(cache.getPath(MODEL) + ".mlperf_cache");
+    write(derived, "index");
+    commitFile(MODEL, "new weights");
+    assertFalse(derived.exists());
+    assertEquals("new weights", read(new File(cache.getPath(MODEL))));
+    assertTrue(cache.isAvailable(MODEL));
+  }
+
+  private File commitFile(String src, String content) throws IOException {
+    File extracted = cache.newTempFile(src);
+    write(extracted, content);
+    cache.commit(src, extracted, ModelCache.digest(extracted));
+    return new File(cache.getPath(src));
+  }
+
+  private Properties readMeta(String src) throws IOException {
+    Properties meta = new Properties();
+    try (InputStream in = new FileInputStream(cache.getPath(src) + ".meta")) {
+      meta.load(in);
+    }
+    return meta;
+  }
+
+  private void setLastAccess(String src, long lastAccessMs) throws IOException {
+    Properties meta = readMeta(src);
+    meta.setProperty("last_access", Long.toString(lastAccessMs));
+    try (OutputStream out = new FileOutputStream(cache.getPath(src) + ".meta")) {
+      meta.store(out, null);
+    }
+  }
+
+  private static void write(File file, String content) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(content.getBytes("UTF-8"));
+    }
+  }
+
+  private static String read(File file) throws IOException {
+    byte[] bytes = new byte[(int) file.length()];
+    try (InputStream in = new FileInputStream(file)) {
+      int offset = 0;
+      while (offset < bytes.length) {
+        offset += in.read(bytes, offset, bytes.length - offset);
+      }
+    }
+    return new String(bytes, "UTF-8");
+  }
+}
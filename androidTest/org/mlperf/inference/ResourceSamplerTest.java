@@ -0,0 +1,173 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.system.Os;
+import android.system.OsConstants;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests {@link ResourceSampler} against a fake procfs tree. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ResourceSamplerTest {
+  // Long enough that only the first and last samples are taken.
+  private static final long INTERVAL_MS = 3600 * 1000;
+
+  private File root;
+
+  @Before
+  public void setUp() {
+    root = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "fake_proc_self");
+    deleteRecursively(root);
+    assertTrue(new File(root, "task").mkdirs());
+  }
+
+  @After
+  public void tearDown() {
+    deleteRecursively(root);
+  }
+
+  @Test
+  public void readsFaultsFromTheStatFields() throws IOException {
+    writeStat(root, "mlperf", 100, 20, 0, 0);
+    writeFile(new File(root, "status"), "Name:\tmlperf\nVmHWM:\t  2000 kB\nVmRSS:\t  1500 kB\n");
+    ResourceSampler sampler = new ResourceSampler(root, INTERVAL_MS);
+    sampler.start();
+    writeStat(root, "mlperf", 175, 23, 0, 0);
+    writeFile(new File(root, "status"), "Name:\tmlperf\nVmHWM:\t  2500 kB\nVmRSS:\t  1800 kB\n");
+    ResourceSampler.Usage usage = sampler.stop();
+
+    assertEquals(75, usage.getMinorFaults());
+    assertEquals(3, usage.getMajorFaults());
+    // The high water mark was raised by the run.
+    assertEquals(2500, usage.getPeakRssKb());
+  }
+
+  @Test
+  public void readsCommandNamesWithParentheses() throws IOException {
+    writeStat(root, "a (b) c)", 10, 1, 0, 0);
+    File task = newTask("100", "MLPerf (worker) 1", 0, 0);
+    ResourceSampler sampler = new ResourceSampler(root, INTERVAL_MS);
+    sampler.start();
+    writeStat(root, "a (b) c)", 15, 2, 0, 0);
+    writeStat(task, "MLPerf (worker) 1", 0, 0, 30, 20);
+    ResourceSampler.Usage usage = sampler.stop();
+
+    assertEquals(5, usage.getMinorFaults());
+    assertEquals(1, usage.getMajorFaults());
+    assertEquals(Long.valueOf(50 * nsPerTick()), usage.getThreadCpuNs().get("MLPerf (worker) 1"));
+  }
+
+  @Test
+  public void diffsTheCountersOfEachThread() throws IOException {
+    writeStat(root, "mlperf", 0, 0, 0, 0);
+    // Running all along, with and without schedstat.
+    File main = newTask("100", "mlperf", 10, 5);
+    writeFile(new File(main, "schedstat"), "1000000 200000 30\n");
+    writeSwitches(main, 10, 2);
+    File worker = newTask("101", "worker", 10, 10);
+    writeSwitches(worker, 100, 20);
+    // Exits during the run.
+    File exiting = newTask("102", "exiting", 40, 10);
+    ResourceSampler sampler = new ResourceSampler(root, INTERVAL_MS);
+    sampler.start();
+
+    writeFile(new File(main, "schedstat"), "4000000 500000 60\n");
+    writeSwitches(main, 15, 3);
+    writeStat(worker, "worker", 0, 0, 30, 15);
+    writeSwitches(worker, 130, 25);
+    deleteRecursively(exiting);
+    // Starts during the run.
+    File started = newTask("103", "worker", 2, 3);
+    writeSwitches(started, 7, 1);
+    ResourceSampler.Usage usage = sampler.stop();
+
+    long workerNs = 25 * nsPerTick();
+    long startedNs = 5 * nsPerTick();
+    assertEquals(3000000 + workerNs + startedNs, usage.getCpuTimeNs());
+    assertEquals(300000, usage.getRunQueueWaitNs());
+    assertEquals(5 + 30 + 7, usage.getVoluntarySwitches());
+    assertEquals(1 + 5 + 1, usage.getInvoluntarySwitches());
+    Map<String, Long> threadCpuNs = usage.getThreadCpuNs();
+    assertEquals(Long.valueOf(3000000), threadCpuNs.get("mlperf"));
+    // Threads of the same name are summed.
+    assertEquals(Long.valueOf(workerNs + startedNs), threadCpuNs.get("worker"));
+    // Accounted up to its last sample.
+    assertEquals(Long.valueOf(0), threadCpuNs.get("exiting"));
+  }
+
+  private static long nsPerTick() {
+    long ticksPerSecond = Os.sysconf(OsConstants._SC_CLK_TCK);
+    return 1000000000L / (ticksPerSecond > 0 ? ticksPerSecond : 100);
+  }
+
+  private File newTask(String tid, String name, long utime, long stime) throws IOException {
+    File task = new File(root, "task/" + tid);
+    assertTrue(task.mkdirs());
+    writeStat(task, name, 0, 0, utime, stime);
+    return task;
+  }
+
+  // Writes a stat file of proc(5) with the given command name, minflt, majflt, utime and stime.
+  private static void writeStat(
+      File dir, String name, long minorFaults, long majorFaults, long utime, long stime)
+      throws IOException {
+    writeFile(
+        new File(dir, "stat"),
+        String.format(
+            "1234 (%s) R 1 1234 0 0 -1 4194560 %d 7 %d 8 %d %d 0 0 20 0 12 0 500 10000 200\n",
+            name, minorFaults, majorFaults, utime, stime));
+  }
+
+  private static void writeSwitches(File task, long voluntary, long involuntary)
+      throws IOException {
+    writeFile(
+        new File(task, "status"),
+        "Name:\tthread\nvoluntary_ctxt_switches:\t"
+            + voluntary
+            + "\nnonvoluntary_ctxt_switches:\t"
+            + involuntary
+            + "\n");
+  }
+
+  private static void writeFile(File file, String content) throws IOException {
+    try (FileWriter writer = new FileWriter(file)) {
+      writer.write(content);
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,257 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests {@link ResultStore} on files in the cache directory. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ResultStoreTest {
+  private static final int MAGIC = 0x4d4c5052;
+
+  private File root;
+  private File file;
+
+  @Before
+  public void setUp() {
+    root = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "result_store");
+    deleteRecursively(root);
+    assertTrue(root.mkdirs());
+    file = new File(root, "results.bin");
+  }
+
+  @After
+  public void tearDown() {
+    deleteRecursively(root);
+  }
+
+  @Test
+  public void readsBackWhatWasAppended() throws IOException {
+    ResultStore store = new ResultStore(file);
+    store.append(newResult("MobileNet", "GPU", 1000));
+    store.append(newResult("MobileBert", "None", 2000));
+    store.append(newResult("MobileNet", "None", 3000));
+
+    List<ResultHolder> results = new ResultStore(file).query(null, null, 0, Long.MAX_VALUE);
+    assertEquals(3, results.size());
+    assertEquals("MobileNet", results.get(0).getModel());
+    assertEquals("MobileBert", results.get(1).getModel());
+    assertEquals("MobileNet", results.get(2).getModel());
+    ResultHolder result = results.get(1);
+    assertEquals(2000, result.getTimestampMs());
+    assertEquals("None", result.getDelegate());
+    assertEquals("tflite", result.getBackend());
+    assertEquals("TFLite", result.getRuntime());
+    assertEquals(4, result.getNumThreads());
+    assertEquals(100, result.getNumSamples());
+    assertEquals(10, result.getLatencyP50Ns());
+    assertEquals(20, result.getLatencyP90Ns());
+    assertEquals(30, result.getLatencyP99Ns());
+    assertEquals(40, result.getLatencyMaxNs());
+    assertEquals(15.5, result.getLatencyMeanNs(), 0);
+    assertEquals(64.5, result.getQps(), 0);
+    assertEquals(0.75, result.getAccuracy(), 0);
+    assertEquals("75.00%", result.getAccuracyString());
+    assertEquals(35.0, result.getStartTemperatureC(), 0);
+    assertEquals(41.5, result.getEndTemperatureC(), 0);
+    assertEquals(1, result.getCpuTimeNs());
+    assertEquals(2, result.getPeakRssKb());
+    assertEquals(3, result.getMinorFaults());
+    assertEquals(4, result.getMajorFaults());
+    assertEquals(5, result.getVoluntarySwitches());
+    assertEquals(6, result.getInvoluntarySwitches());
+    assertEquals(7, result.getNativeHeapGrowthBytes());
+    assertEquals("VALID", result.getLogValidity());
+    assertEquals(63.5, result.getLogQps(), 0);
+    assertEquals(8, result.getLogMinLatencyNs());
+    assertEquals(16, result.getLogMeanLatencyNs());
+    assertEquals(41, result.getLogMaxLatencyNs());
+    assertEquals("Processed", result.getEarlyStopping());
+    assertEquals(25, result.getEarlyStoppingLatencyNs());
+    assertEquals(1, result.getLogErrorCount());
+    assertEquals(32, result.getWarmupQueries());
+    assertEquals(1000, result.getWarmupDurationNs());
+    assertEquals(20, result.getIntervalEstimateNs());
+    assertEquals(19, result.getIntervalLowNs());
+    assertEquals(21, result.getIntervalHighNs());
+    assertEquals(3, result.getPerformanceRounds());
+  }
+
+  @Test
+  public void queriesByModelDelegateAndDate() throws IOException {
+    ResultStore store = new ResultStore(file);
+    store.append(newResult("MobileNet", "GPU", 1000));
+    store.append(newResult("MobileBert", "None", 2000));
+    store.append(newResult("MobileNet", "None", 3000));
+
+    assertEquals(2, store.query("MobileNet", null, 0, Long.MAX_VALUE).size());
+    assertEquals(2, store.query(null, "None", 0, Long.MAX_VALUE).size());
+    List<ResultHolder> results = store.query("MobileNet", "None", 0, Long.MAX_VALUE);
+    assertEquals(1, results.size());
+    assertEquals(3000, results.get(0).getTimestampMs());
+    results = store.query(null, null, 1000, 3000);
+    assertEquals(2, results.size());
+    assertEquals(1000, results.get(0).getTimestampMs());
+    assertEquals(2000, results.get(1).getTimestampMs());
+    assertEquals(0, store.query("SSD", null, 0, Long.MAX_VALUE).size());
+  }
+
+  @Test
+  public void dropsATornRecord() throws IOException {
+    new ResultStore(file).append(newResult("MobileNet", "GPU", 1000));
+    long length = file.length();
+    // A record whose write was interrupted.
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(length);
+      raf.writeInt(100);
+      raf.writeLong(2000);
+    }
+
+    ResultStore store = new ResultStore(file);
+    assertEquals(1, store.query(null, null, 0, Long.MAX_VALUE).size());
+    // A record of the same size as the first.
+    store.append(newResult("MobileNet", "GPU", 3000));
+    assertEquals(2 * length - 6, file.length());
+    List<ResultHolder> results = new ResultStore(file).query(null, null, 0, Long.MAX_VALUE);
+    assertEquals(2, results.size());
+    assertEquals(3000, results.get(1).getTimestampMs());
+  }
+
+  @Test
+  public void upgradesAnOldFile() throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeInt(MAGIC);
+      out.writeShort(1);
+      writeVersion1Record(out, "MobileNet", 1000);
+      writeVersion1Record(out, "MobileBert", 2000);
+    }
+
+    ResultStore store = new ResultStore(file);
+    store.append(newResult("SSD", "GPU", 3000));
+    assertEquals(2, readVersion());
+    List<ResultHolder> results = new ResultStore(file).query(null, null, 0, Long.MAX_VALUE);
+    assertEquals(3, results.size());
+    ResultHolder result = results.get(1);
+    assertEquals("MobileBert", result.getModel());
+    assertEquals(2000, result.getTimestampMs());
+    assertEquals("NNAPI", result.getDelegate());
+    assertEquals(2, result.getNumThreads());
+    assertEquals(5, result.getNumSamples());
+    assertEquals(0.5, result.getAccuracy(), 0);
+    assertEquals("50%", result.getAccuracyString());
+    // The fields added later keep their defaults.
+    assertTrue(Double.isNaN(result.getStartTemperatureC()));
+    assertEquals("", result.getLogValidity());
+    assertEquals(-1, result.getIntervalEstimateNs());
+    assertEquals("SSD", results.get(2).getModel());
+    assertEquals(32, results.get(2).getWarmupQueries());
+  }
+
+  @Test
+  public void movesAsideAnUnknownFile() throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeInt(MAGIC);
+      out.writeShort(99);
+      out.writeInt(12);
+    }
+    long unknownLength = file.length();
+
+    ResultStore store = new ResultStore(file);
+    store.append(newResult("MobileNet", "GPU", 1000));
+    assertEquals(1, store.query(null, null, 0, Long.MAX_VALUE).size());
+    File[] files = root.listFiles();
+    assertEquals(2, files.length);
+    File aside = files[0].equals(file) ? files[1] : files[0];
+    assertTrue(aside.getName().startsWith("results.bin."));
+    assertEquals(unknownLength, aside.length());
+  }
+
+  private static ResultHolder newResult(String model, String delegate, long timestampMs) {
+    ResultHolder result = new ResultHolder(model);
+    result.setTimestampMs(timestampMs);
+    result.setDelegate(delegate);
+    result.setBackend("tflite");
+    result.setRuntime("TFLite");
+    result.setNumThreads(4);
+    result.setLatencies(100, 10, 20, 30, 40, 15.5);
+    result.setQps(64.5);
+    result.setAccuracy(0.75, "75.00%");
+    result.setTemperatures(35.0, 41.5);
+    result.setResourceUsage(1, 2, 3, 4, 5, 6, 7);
+    result.setLoadGenResults("VALID", 63.5, 8, 16, 41, "Processed", 25, 1);
+    result.setWarmup(32, 1000);
+    result.setLatencyInterval(20, 19, 21, 3);
+    return result;
+  }
+
+  private static void writeVersion1Record(DataOutputStream file, String model, long timestampMs)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(timestampMs);
+    out.writeUTF(model);
+    out.writeUTF("NNAPI");
+    out.writeUTF("tflite");
+    out.writeUTF("TFLite");
+    out.writeInt(2);
+    out.writeInt(5);
+    out.writeLong(1);
+    out.writeLong(2);
+    out.writeLong(3);
+    out.writeLong(4);
+    out.writeDouble(2.5);
+    out.writeDouble(10);
+    out.writeDouble(0.5);
+    out.writeUTF("50%");
+    file.writeInt(bytes.size());
+    bytes.writeTo(file);
+  }
+
+  private short readVersion() throws IOException {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      assertEquals(MAGIC, in.readInt());
+      return in.readShort();
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests {@link ThermalGovernor} against a fake sysfs tree. */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class ThermalGovernorTest {
+
+  private File root;
+
+  @Before
+  public void setUp() {
+    root = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "fake_thermal");
+    deleteRecursively(root);
+    assertTrue(root.mkdirs());
+  }
+
+  @After
+  public void tearDown() {
+    deleteRecursively(root);
+  }
+
+  @Test
+  public void readsHighestZone() throws IOException {
+    writeZone("thermal_zone0", "35000");
+    writeZone("thermal_zone1", "42500\n");
+    writeZone("thermal_zone2", "38000");
+    ThermalGovernor governor = new ThermalGovernor(root, null);
+    assertEquals(42.5, governor.readTemperature(), 1e-9);
+  }
+
+  @Test
+  public void ignoresInvalidZones() throws IOException {
+    writeZone("thermal_zone0", "36000");
+    // Not a number, out of range and a cooling device rather than a zone.
+    writeZone("thermal_zone1", "error");
+    writeZone("thermal_zone2", "-273000");
+    writeZone("cooling_device0", "90000");
+    // A zone whose sensor can't be read.
+    assertTrue(new File(root, "thermal_zone3").mkdirs());
+    ThermalGovernor governor = new ThermalGovernor(root, null);
+    assertEquals(36.0, governor.readTemperature(), 1e-9);
+  }
+
+  @Test
+  public void readsDegreesOfOldDrivers() throws IOException {
+    writeZone("thermal_zone0", "45");
+    ThermalGovernor governor = new ThermalGovernor(root, null);
+    assertEquals(45.0, governor.readTemperature(), 1e-9);
+  }
+
+  @Test
+  public void unknownTemperatureIsCool() {
+    ThermalGovernor governor = new ThermalGovernor(new File(root, "missing"), null);
+    assertTrue(Double.isNaN(governor.readTemperature()));
+    assertEquals(-1, governor.readThermalStatus());
+    assertTrue(governor.isCool(30));
+  }
+
+  @Test
+  public void waitsUntilCooledDown() throws Exception {
+    writeZone("thermal_zone0", "50000");
+    final ThermalGovernor governor = new ThermalGovernor(root, null);
+    assertFalse(governor.isCool(40));
+    assertFalse(governor.waitForCooldown(40, 100));
+
+    Thread cooler =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(500);
+                writeZone("thermal_zone0", "39000");
+              } catch (InterruptedException | IOException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    cooler.start();
+    assertTrue(governor.waitForCooldown(40, 10000));
+    cooler.join();
+  }
+
+  private void writeZone(String name, String temp) throws IOException {
+    File zone = new File(root, name);
+    zone.mkdirs();
+    try (FileWriter writer = new FileWriter(new File(zone, "temp"))) {
+      writer.write(temp);
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
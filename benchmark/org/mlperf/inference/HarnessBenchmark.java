@@ -0,0 +1,178 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.mlperf.inference;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.mlperf.proto.DatasetConfig;
+import org.mlperf.proto.ScenarioConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the harness with the dummy backend and the dummy dataset, whose own work
+ * is negligible.
+ *
+ * <p>The per query overhead is the slope of {@link #runTest} between its query counts. It covers
+ * LoadGen, MlperfDriver::IssueQuery and the response path. The intercept is the fixed cost of a
+ * test, including loading the samples.
+ *
+ * <p>Run with: bazel run -c opt --cxxopt='--std=c++14' //benchmark:harness_benchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HarnessBenchmark {
+  private static final String MODEL_PATH = "dummy.tflite";
+  private static final int NUM_LATENCIES = 1024;
+
+  /** Holds a driver that has not run yet. */
+  @State(Scope.Thread)
+  public static class DriverState {
+    MLPerfDriverWrapper driver;
+    File outputDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      driver = buildDriver();
+      outputDir = Files.createTempDirectory("mlperf_benchmark").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      driver.close();
+      deleteRecursively(outputDir);
+    }
+  }
+
+  /** Holds a driver that has run NUM_LATENCIES queries. */
+  @State(Scope.Thread)
+  public static class FinishedDriverState extends DriverState {
+    @Setup(Level.Trial)
+    public void run() {
+      driver.runMLPerf(
+          "PerformanceOnly",
+          ScenarioConfig.getDefaultInstance(),
+          NUM_LATENCIES,
+          /*minDurationMs=*/ 0,
+          outputDir.getPath());
+    }
+  }
+
+  /** Holds the parameters of a test. */
+  @State(Scope.Thread)
+  public static class TestState extends DriverState {
+    @Param({"1", "1024"})
+    public int queryCount;
+  }
+
+  // A new driver is used for each test, like the app does.
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void runTest(TestState state) {
+    try (MLPerfDriverWrapper driver = buildDriver()) {
+      driver.runMLPerf(
+          "PerformanceOnly",
+          ScenarioConfig.getDefaultInstance(),
+          state.queryCount,
+          /*minDurationMs=*/ 0,
+          state.outputDir.getPath());
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void buildAndClose() {
+    buildDriver().close();
+  }
+
+  // Replaces the native handles held by the builder without building a driver.
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void builderChurn() {
+    try (MLPerfDriverWrapper.Builder builder = new MLPerfDriverWrapper.Builder()) {
+      builder.useDummyBackend(MODEL_PATH);
+      builder.useDummy(DatasetConfig.DatasetType.IMAGENET);
+      builder.useDummyBackend(MODEL_PATH);
+      builder.useDummy(DatasetConfig.DatasetType.IMAGENET);
+    }
+  }
+
+  // A JNI call doing almost no work in native code.
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public double jniTransition(DriverState state) {
+    return state.driver.getAccuracyValue();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String latencyString(FinishedDriverState state) {
+    return state.driver.getLatency();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public long[] latencyArray(FinishedDriverState state) {
+    return state.driver.getLatenciesNs();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public LongBuffer latencyBuffer(FinishedDriverState state) {
+    return state.driver.getLatencyBuffer();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public LatencyStats latencyStats(FinishedDriverState state) {
+    return state.driver.getLatencyStats();
+  }
+
+  private static MLPerfDriverWrapper buildDriver() {
+    try (MLPerfDriverWrapper.Builder builder = new MLPerfDriverWrapper.Builder()) {
+      return builder
+          .useDummyBackend(MODEL_PATH)
+          .useDummy(DatasetConfig.DatasetType.IMAGENET)
+          .build();
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -49,11 +49,31 @@ class Backend {
   // Returns the result after inferencing.
   virtual std::vector<void*> GetPredictedOutputs() = 0;
 
+  // Returns the number of samples run by each call to IssueQuery.
+  virtual int GetBatchSize() const { return 1; }
+
+  // Sets inputs for the sample at batch_idx of the next batch. Backends with a
+  // batch size larger than 1 must override it.
+  virtual void SetBatchInputs(int batch_idx, const std::vector<void*>& inputs) {
+    SetInputs(inputs);
+  }
+
+  // Returns the result of the sample at batch_idx after inferencing. The
+  // reference is valid until the next call. Backends with a batch size larger
+  // than 1 must override it.
+  virtual const std::vector<void*>& GetBatchOutputs(int batch_idx) {
+    outputs_ = GetPredictedOutputs();
+    return outputs_;
+  }
+
   // Returns the input format required by the model.
   virtual const DataFormat& GetInputFormat() = 0;
 
   // Returns the output format produced by the model.
   virtual const DataFormat& GetOutputFormat() = 0;
+
+ private:
+  std::vector<void*> outputs_;
 };
 
 }  // namespace mobile
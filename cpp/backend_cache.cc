@@ -0,0 +1,109 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "cpp/backend_cache.h"
+
+#include <sys/stat.h>
+
+#include <cstdint>
+#include <memory>
+#include <mutex>  // NOLINT(build/c++11)
+#include <string>
+#include <utility>
+#include <vector>
+
+#include "cpp/utils.h"
+
+namespace mlperf {
+namespace mobile {
+
+BackendCache& BackendCache::Get() {
+  static BackendCache* cache = new BackendCache(0);
+  return *cache;
+}
+
+std::string BackendCache::Key(const std::string& model_path, int num_threads,
+                              const std::string& delegate, int batch_size) {
+  struct stat model_stat;
+  if (stat(model_path.c_str(), &model_stat) != 0) {
+    return "";
+  }
+  return model_path + ":" + std::to_string(model_stat.st_size) + ":" +
+         std::to_string(model_stat.st_mtime) + ":" +
+         std::to_string(num_threads) + ":" + delegate + ":" +
+         std::to_string(batch_size);
+}
+
+std::unique_ptr<Backend> BackendCache::Take(const std::string& key,
+                                           int64_t* size_bytes) {
+  std::lock_guard<std::mutex> lock(mutex_);
+  for (auto it = entries_.begin(); it != entries_.end(); ++it) {
+    if (it->key == key) {
+      std::unique_ptr<Backend> backend = std::move(it->backend);
+      *size_bytes = it->size_bytes;
+      size_bytes_ -= it->size_bytes;
+      entries_.erase(it);
+      return backend;
+    }
+  }
+  return nullptr;
+}
+
+void BackendCache::Put(const std::string& key, std::unique_ptr<Backend> backend,
+                       int64_t size_bytes) {
+  if (!backend) {
+    return;
+  }
+  std::vector<Entry> evicted;
+  {
+    std::lock_guard<std::mutex> lock(mutex_);
+    entries_.push_front(Entry{key, std::move(backend), size_bytes});
+    size_bytes_ += size_bytes;
+    evicted = EvictLocked();
+  }
+}
+
+void BackendCache::SetBudget(int64_t budget_bytes) {
+  std::vector<Entry> evicted;
+  {
+    std::lock_guard<std::mutex> lock(mutex_);
+    budget_bytes_ = budget_bytes;
+    evicted = EvictLocked();
+  }
+}
+
+int64_t BackendCache::SizeBytes() const {
+  std::lock_guard<std::mutex> lock(mutex_);
+  return size_bytes_;
+}
+
+int BackendCache::Count() const {
+  std::lock_guard<std::mutex> lock(mutex_);
+  return entries_.size();
+}
+
+std::vector<BackendCache::Entry> BackendCache::EvictLocked() {
+  std::vector<Entry> evicted;
+  while (!entries_.empty() && size_bytes_ > budget_bytes_) {
+    LOG(INFO) << "Evicting backend " << entries_.back().key << " of "
+              << entries_.back().size_bytes << " bytes";
+    size_bytes_ -= entries_.back().size_bytes;
+    evicted.push_back(std::move(entries_.back()));
+    entries_.pop_back();
+  }
+  return evicted;
+}
+
+}  // namespace mobile
+}  // namespace mlperf
@@ -0,0 +1,144 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#ifndef MLPERF_BACKEND_CACHE_H_
+#define MLPERF_BACKEND_CACHE_H_
+
+#include <cstdint>
+#include <list>
+#include <memory>
+#include <mutex>  // NOLINT(build/c++11)
+#include <string>
+#include <vector>
+
+#include "cpp/backend.h"
+
+namespace mlperf {
+namespace mobile {
+
+// BackendCache keeps initialized backends that no driver uses anymore, so
+// that a later run with the same model and runtime skips loading the model and
+// applying the delegate, which takes seconds with some delegates. The least
+// recently used backends are deleted once the estimated memory of all of them
+// exceeds the budget. It is thread-safe.
+class BackendCache {
+ public:
+  explicit BackendCache(int64_t budget_bytes) : budget_bytes_(budget_bytes) {}
+
+  // The cache shared by the process. Its budget is 0 until it is set, so it
+  // keeps nothing by default.
+  static BackendCache& Get();
+
+  // Returns the key of a model and its runtime. The model file is identified
+  // by its path, size and modification time, so a replaced model is not
+  // reused. Returns an empty key if the model can't be read.
+  static std::string Key(const std::string& model_path, int num_threads,
+                         const std::string& delegate, int batch_size);
+
+  // Removes an idle backend with key from the cache and returns it with its
+  // estimated memory in size_bytes, or null if there is none.
+  std::unique_ptr<Backend> Take(const std::string& key, int64_t* size_bytes);
+
+  // Keeps backend for a later Take with the same key. size_bytes is its
+  // estimated memory. The backend is deleted right away if it doesn't fit the
+  // budget.
+  void Put(const std::string& key, std::unique_ptr<Backend> backend,
+           int64_t size_bytes);
+
+  // Sets the budget and deletes the least recently used backends to fit it.
+  void SetBudget(int64_t budget_bytes);
+
+  // The estimated memory of the idle backends.
+  int64_t SizeBytes() const;
+
+  // Number of idle backends.
+  int Count() const;
+
+ private:
+  struct Entry {
+    std::string key;
+    std::unique_ptr<Backend> backend;
+    int64_t size_bytes;
+  };
+
+  // Moves the least recently used entries out of the cache until they fit
+  // the budget. The caller deletes them outside the lock, as deleting a
+  // backend may wait for its delegate.
+  std::vector<Entry> EvictLocked();
+
+  mutable std::mutex mutex_;
+  int64_t budget_bytes_;
+  int64_t size_bytes_ = 0;
+  // The most recently used entry first.
+  std::list<Entry> entries_;
+};
+
+// CachedBackend runs the samples with a backend that it returns to a cache
+// when it is deleted, instead of deleting it.
+class CachedBackend : public Backend {
+ public:
+  CachedBackend(BackendCache* cache, const std::string& key,
+                std::unique_ptr<Backend> backend, int64_t size_bytes)
+      : cache_(cache),
+        key_(key),
+        backend_(std::move(backend)),
+        size_bytes_(size_bytes) {}
+
+  ~CachedBackend() override {
+    cache_->Put(key_, std::move(backend_), size_bytes_);
+  }
+
+  const std::string& Name() const override { return backend_->Name(); }
+
+  void IssueQuery() override { backend_->IssueQuery(); }
+
+  void FlushQueries() override { backend_->FlushQueries(); }
+
+  void SetInputs(const std::vector<void*>& inputs) override {
+    backend_->SetInputs(inputs);
+  }
+
+  std::vector<void*> GetPredictedOutputs() override {
+    return backend_->GetPredictedOutputs();
+  }
+
+  int GetBatchSize() const override { return backend_->GetBatchSize(); }
+
+  void SetBatchInputs(int batch_idx,
+                      const std::vector<void*>& inputs) override {
+    backend_->SetBatchInputs(batch_idx, inputs);
+  }
+
+  const std::vector<void*>& GetBatchOutputs(int batch_idx) override {
+    return backend_->GetBatchOutputs(batch_idx);
+  }
+
+  const DataFormat& GetInputFormat() override {
+    return backend_->GetInputFormat();
+  }
+
+  const DataFormat& GetOutputFormat() override {
+    return backend_->GetOutputFormat();
+  }
+
+ private:
+  BackendCache* const cache_;
+  const std::string key_;
+  std::unique_ptr<Backend> backend_;
+  const int64_t size_bytes_;
+};
+
+}  // namespace mobile
+}  // namespace mlperf
+#endif  // MLPERF_BACKEND_CACHE_H_
@@ -0,0 +1,145 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "backend_cache.h"
+
+#include <gmock/gmock.h>
+#include <gtest/gtest.h>
+
+#include <cstdint>
+#include <memory>
+#include <string>
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+namespace {
+
+// Counts its deletions in deleted.
+class FakeBackend : public Backend {
+ public:
+  explicit FakeBackend(int* deleted) : deleted_(deleted) {}
+  ~FakeBackend() override { ++*deleted_; }
+
+  const std::string& Name() const override { return name_; }
+  void IssueQuery() override {}
+  void FlushQueries() override {}
+  void SetInputs(const std::vector<void*>& inputs) override {}
+  std::vector<void*> GetPredictedOutputs() override { return {}; }
+  const DataFormat& GetInputFormat() override { return format_; }
+  const DataFormat& GetOutputFormat() override { return format_; }
+
+ private:
+  const std::string name_ = "Fake";
+  DataFormat format_;
+  int* deleted_;
+};
+
+TEST(BackendCache, TakesWhatWasPut) {
+  int deleted = 0;
+  int64_t size = 0;
+  BackendCache cache(100);
+  EXPECT_EQ(cache.Take("a", &size).get(), nullptr);
+  std::unique_ptr<Backend> backend(new FakeBackend(&deleted));
+  Backend* raw = backend.get();
+  cache.Put("a", std::move(backend), 10);
+  EXPECT_EQ(cache.Count(), 1);
+  EXPECT_EQ(cache.SizeBytes(), 10);
+  EXPECT_EQ(cache.Take("b", &size).get(), nullptr);
+  std::unique_ptr<Backend> taken = cache.Take("a", &size);
+  EXPECT_EQ(taken.get(), raw);
+  EXPECT_EQ(size, 10);
+  EXPECT_EQ(cache.Count(), 0);
+  EXPECT_EQ(cache.SizeBytes(), 0);
+  EXPECT_EQ(deleted, 0);
+}
+
+TEST(BackendCache, KeepsSeveralBackendsPerKey) {
+  int deleted = 0;
+  int64_t size = 0;
+  BackendCache cache(100);
+  cache.Put("a", std::unique_ptr<Backend>(new FakeBackend(&deleted)), 10);
+  cache.Put("a", std::unique_ptr<Backend>(new FakeBackend(&deleted)), 10);
+  EXPECT_NE(cache.Take("a", &size).get(), nullptr);
+  EXPECT_NE(cache.Take("a", &size).get(), nullptr);
+  EXPECT_EQ(cache.Take("a", &size).get(), nullptr);
+  EXPECT_EQ(deleted, 2);
+}
+
+TEST(BackendCache, EvictsTheLeastRecentlyUsed) {
+  int deleted_a = 0;
+  int deleted_b = 0;
+  int deleted_c = 0;
+  int64_t size = 0;
+  BackendCache cache(25);
+  cache.Put("a", std::unique_ptr<Backend>(new FakeBackend(&deleted_a)), 10);
+  cache.Put("b", std::unique_ptr<Backend>(new FakeBackend(&deleted_b)), 10);
+  // Using a makes b the least recently used one.
+  cache.Put("a", cache.Take("a", &size), 10);
+  cache.Put("c", std::unique_ptr<Backend>(new FakeBackend(&deleted_c)), 10);
+  EXPECT_EQ(deleted_a, 0);
+  EXPECT_EQ(deleted_b, 1);
+  EXPECT_EQ(deleted_c, 0);
+  EXPECT_EQ(cache.Count(), 2);
+  EXPECT_EQ(cache.SizeBytes(), 20);
+}
+
+TEST(BackendCache, DeletesWhatDoesNotFit) {
+  int deleted = 0;
+  int64_t size = 0;
+  BackendCache cache(5);
+  cache.Put("a", std::unique_ptr<Backend>(new FakeBackend(&deleted)), 10);
+  EXPECT_EQ(deleted, 1);
+  EXPECT_EQ(cache.Count(), 0);
+  EXPECT_EQ(cache.Take("a", &size).get(), nullptr);
+}
+
+TEST(BackendCache, LoweringTheBudgetEvicts) {
+  int deleted = 0;
+  int64_t size = 0;
+  BackendCache cache(100);
+  cache.Put("a", std::unique_ptr<Backend>(new FakeBackend(&deleted)), 10);
+  cache.Put("b", std::unique_ptr<Backend>(new FakeBackend(&deleted)), 10);
+  cache.SetBudget(10);
+  EXPECT_EQ(deleted, 1);
+  EXPECT_EQ(cache.Take("a", &size).get(), nullptr);
+  cache.SetBudget(0);
+  EXPECT_EQ(deleted, 2);
+  EXPECT_EQ(cache.Count(), 0);
+}
+
+TEST(CachedBackend, ReturnsItsBackendWhenDeleted) {
+  int deleted = 0;
+  int64_t size = 0;
+  BackendCache cache(100);
+  std::unique_ptr<Backend> backend(new FakeBackend(&deleted));
+  Backend* raw = backend.get();
+  {
+    CachedBackend cached(&cache, "a", std::move(backend), 10);
+    EXPECT_EQ(cached.Name(), "Fake");
+    EXPECT_EQ(cache.Count(), 0);
+  }
+  EXPECT_EQ(deleted, 0);
+  EXPECT_EQ(cache.Take("a", &size).get(), raw);
+  EXPECT_EQ(deleted, 1);
+}
+
+}  // namespace
+}  // namespace mobile
+}  // namespace mlperf
+
+int main(int argc, char** argv) {
+  ::testing::InitGoogleTest(&argc, argv);
+  return RUN_ALL_TESTS();
+}
@@ -42,10 +42,11 @@ void DummyBackend::SetInputs(const std::vector<void*>& inputs) {
 }
 
 std::vector<void*> DummyBackend::GetPredictedOutputs() {
+  // The outputs are kept so that the returned pointers stay valid.
+  outputs_ = dummyapi::GetOutputs();
   std::vector<void*> outputs;
-  std::vector<std::vector<uint8_t>> predicted_outputs = dummyapi::GetOutputs();
-  for (int i = 0; i < predicted_outputs.size(); ++i) {
-    outputs.push_back(predicted_outputs[i].data());
+  for (int i = 0; i < outputs_.size(); ++i) {
+    outputs.push_back(outputs_[i].data());
   }
   return outputs;
 }
@@ -15,6 +15,9 @@ limitations under the License.
 #ifndef MLPERF_BACKENDS_DUMMY_BACKEND_H_
 #define MLPERF_BACKENDS_DUMMY_BACKEND_H_
 
+#include <cstdint>
+#include <vector>
+
 #include "cpp/backend.h"
 #include "cpp/utils.h"
 
@@ -51,6 +54,8 @@ class DummyBackend : public Backend {
   const std::string name_ = "DummyBackend";
   DataFormat input_format_;
   DataFormat output_format_;
+  // The outputs of the last inference.
+  std::vector<std::vector<uint8_t>> outputs_;
 };
 
 }  // namespace mobile
@@ -14,6 +14,8 @@ limitations under the License.
 ==============================================================================*/
 #include "cpp/backends/tflite.h"
 
+#include <cstdint>
+#include <cstring>
 #include <memory>
 #include <string>
 #include <vector>
@@ -22,13 +24,15 @@ limitations under the License.
 #include "cpp/backend.h"
 #include "cpp/utils.h"
 #include "tensorflow/lite/kernels/kernel_util.h"
-#include "tensorflow/lite/tools/evaluation/proto/evaluation_stages.pb.h"
-#include "tensorflow/lite/tools/evaluation/stages/tflite_inference_stage.h"
+#include "tensorflow/lite/kernels/register.h"
 #include "tensorflow/lite/tools/evaluation/utils.h"
 
 namespace mlperf {
 namespace mobile {
 namespace {
+// TFLite aligns the tensors in its arena to 64 bytes.
+constexpr uintptr_t kTensorAlignment = 64;
+
 // Convert TfLiteType to DataType.
 inline DataType::Type TfType2DataType(TfLiteType type) {
   switch (type) {
@@ -53,32 +57,58 @@ inline DataType::Type TfType2DataType(TfLiteType type) {
 }  // namespace
 
 TfliteBackend::TfliteBackend(const std::string& model_file_path,
-                             int num_threads) {
-  tflite::evaluation::EvaluationStageConfig inference_config;
-  inference_config.set_name("inference_stage");
-  auto* inference_params = inference_config.mutable_specification()
-                               ->mutable_tflite_inference_params();
-  inference_params->set_invocations_per_run(1);
-  inference_params->set_model_file_path(model_file_path);
-  inference_params->set_num_threads(num_threads);
-
-  inference_stage_.reset(
-      new tflite::evaluation::TfliteInferenceStage(inference_config));
-  if (inference_stage_->Init() != kTfLiteOk) {
-    LOG(FATAL) << "Init inference stage failed";
-  }
-
-  // Collect input and output formats.
-  const tflite::evaluation::TfLiteModelInfo* model_info =
-      inference_stage_->GetModelInfo();
-  for (const TfLiteTensor* input : model_info->inputs) {
-    input_format_.emplace_back(TfType2DataType(input->type),
-                               tflite::NumElements(input));
-  }
-  for (const TfLiteTensor* output : model_info->outputs) {
-    output_format_.emplace_back(TfType2DataType(output->type),
-                                tflite::NumElements(output));
+                             int num_threads, int batch_size)
+    : batch_size_(batch_size), delegate_(nullptr, [](TfLiteDelegate*) {}) {
+  if (batch_size_ < 1) {
+    LOG(FATAL) << "Batch size must be positive, got " << batch_size_;
+  }
+  model_ = tflite::FlatBufferModel::BuildFromFile(model_file_path.c_str());
+  if (!model_) {
+    LOG(FATAL) << "Failed to load model " << model_file_path;
+  }
+  tflite::ops::builtin::BuiltinOpResolver resolver;
+  tflite::InterpreterBuilder(*model_, resolver)(&interpreter_);
+  if (!interpreter_) {
+    LOG(FATAL) << "Failed to build the interpreter";
+  }
+  interpreter_->SetNumThreads(num_threads);
+
+  // Resize the inputs so a batch is run by each invocation.
+  if (batch_size_ > 1) {
+    for (int input : interpreter_->inputs()) {
+      const TfLiteIntArray* dims = interpreter_->tensor(input)->dims;
+      if (dims->size == 0 || dims->data[0] != 1) {
+        LOG(FATAL) << "Batching requires the first dimension of all inputs "
+                      "to be 1";
+      }
+      std::vector<int> batch_dims(dims->data, dims->data + dims->size);
+      batch_dims[0] = batch_size_;
+      if (interpreter_->ResizeInputTensor(input, batch_dims) != kTfLiteOk) {
+        LOG(FATAL) << "Failed to resize input " << input;
+      }
+    }
+  }
+  if (interpreter_->AllocateTensors() != kTfLiteOk) {
+    LOG(FATAL) << "Failed to allocate tensors";
   }
+
+  // Collect input and output formats of a single sample.
+  for (int input : interpreter_->inputs()) {
+    const TfLiteTensor* tensor = interpreter_->tensor(input);
+    input_format_.emplace_back(TfType2DataType(tensor->type),
+                               tflite::NumElements(tensor) / batch_size_);
+  }
+  for (int output : interpreter_->outputs()) {
+    const TfLiteTensor* tensor = interpreter_->tensor(output);
+    if (tflite::NumElements(tensor) % batch_size_ != 0) {
+      LOG(FATAL) << "Output " << output << " has no batch dimension";
+    }
+    output_format_.emplace_back(TfType2DataType(tensor->type),
+                                tflite::NumElements(tensor) / batch_size_);
+  }
+  batch_outputs_.assign(batch_size_,
+                        std::vector<void*>(output_format_.size(), nullptr));
+  ResetInputBuffers();
 }
 
 TfLiteStatus TfliteBackend::ApplyDelegate(const std::string& delegate) {
@@ -111,41 +141,79 @@ TfLiteStatus TfliteBackend::ApplyDelegate(const std::string& delegate) {
   }
 #endif
 
-  if (inference_stage_->ApplyCustomDelegate(std::move(delegate_ptr)) !=
-      kTfLiteOk) {
+  // Skip if there is no delegate.
+  if (!delegate_ptr) {
+    return kTfLiteOk;
+  }
+  delegate_ = std::move(delegate_ptr);
+  if (interpreter_->ModifyGraphWithDelegate(delegate_.get()) != kTfLiteOk) {
     LOG(ERROR) << "Applying delegate failed";
     return kTfLiteError;
   }
+  ResetInputBuffers();
   return kTfLiteOk;
 }
 
-std::vector<void*> TfliteBackend::GetPredictedOutputs() {
-  std::vector<void*> outputs;
-  for (const TfLiteTensor* output_tensor :
-       inference_stage_->GetModelInfo()->outputs) {
-    switch (output_tensor->type) {
-      case kTfLiteFloat32:
-        outputs.push_back(output_tensor->data.f);
-        break;
-      case kTfLiteUInt8:
-        outputs.push_back(output_tensor->data.uint8);
-        break;
-      case kTfLiteInt8:
-        outputs.push_back(output_tensor->data.int8);
-        break;
-      case kTfLiteFloat16:
-        outputs.push_back(output_tensor->data.f16);
-        break;
-      case kTfLiteInt32:
-        outputs.push_back(output_tensor->data.i32);
-        break;
-      case kTfLiteInt64:
-        outputs.push_back(output_tensor->data.i64);
-        break;
-      default:
-        LOG(FATAL) << "Data type not yet supported";
-        break;
+void TfliteBackend::ResetInputBuffers() {
+  input_buffers_.clear();
+  for (int i = 0; i < interpreter_->inputs().size(); ++i) {
+    input_buffers_.push_back(interpreter_->input_tensor(i)->data.raw);
+  }
+  // The interpreter re-resolves the buffers of all tensors before running a
+  // graph with dynamic tensors, which would drop the bound inputs.
+  can_bind_inputs_ = input_binding_ && batch_size_ == 1;
+  for (int i = 0; i < interpreter_->tensors_size(); ++i) {
+    if (interpreter_->tensor(i)->allocation_type == kTfLiteDynamic) {
+      can_bind_inputs_ = false;
+    }
+  }
+  for (int i = 0; i < interpreter_->inputs().size(); ++i) {
+    if (interpreter_->input_tensor(i)->buffer_handle !=
+        kTfLiteNullBufferHandle) {
+      can_bind_inputs_ = false;
+    }
+  }
+}
+
+void TfliteBackend::SetInputBinding(bool enabled) {
+  input_binding_ = enabled;
+  // The inputs may point to a bound sample, which must not be recorded as the
+  // buffers of the interpreter.
+  for (int i = 0; i < input_buffers_.size(); ++i) {
+    interpreter_->input_tensor(i)->data.raw = input_buffers_[i];
+  }
+  ResetInputBuffers();
+}
+
+void TfliteBackend::SetBatchInputs(int batch_idx,
+                                   const std::vector<void*>& inputs) {
+  if (inputs.size() != interpreter_->inputs().size()) {
+    LOG(FATAL) << "Expected " << interpreter_->inputs().size()
+               << " inputs, got " << inputs.size();
+  }
+  for (int i = 0; i < inputs.size(); ++i) {
+    TfLiteTensor* tensor = interpreter_->input_tensor(i);
+    if (can_bind_inputs_ &&
+        reinterpret_cast<uintptr_t>(inputs[i]) % kTensorAlignment == 0) {
+      tensor->data.raw = static_cast<char*>(inputs[i]);
+      continue;
     }
+    // The input may still point to the data of a previous sample.
+    tensor->data.raw = input_buffers_[i];
+    const size_t sample_bytes = tensor->bytes / batch_size_;
+    std::memcpy(tensor->data.raw + batch_idx * sample_bytes, inputs[i],
+                sample_bytes);
+  }
+}
+
+const std::vector<void*>& TfliteBackend::GetBatchOutputs(int batch_idx) {
+  // The buffers of the outputs may move when the graph has dynamic tensors, so
+  // they are read again after each inference.
+  std::vector<void*>& outputs = batch_outputs_.at(batch_idx);
+  for (int i = 0; i < outputs.size(); ++i) {
+    TfLiteTensor* tensor = interpreter_->output_tensor(i);
+    const size_t sample_bytes = tensor->bytes / batch_size_;
+    outputs[i] = tensor->data.raw + batch_idx * sample_bytes;
   }
   return outputs;
 }
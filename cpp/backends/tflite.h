@@ -15,9 +15,14 @@ limitations under the License.
 #ifndef MLPERF_BACKENDS_TFLITE_H_
 #define MLPERF_BACKENDS_TFLITE_H_
 
+#include <memory>
+#include <string>
+#include <vector>
+
 #include "cpp/backend.h"
 #include "cpp/utils.h"
-#include "tensorflow/lite/tools/evaluation/stages/tflite_inference_stage.h"
+#include "tensorflow/lite/interpreter.h"
+#include "tensorflow/lite/model.h"
 
 namespace mlperf {
 namespace mobile {
@@ -25,7 +30,10 @@ namespace mobile {
 // TfliteBackend runs ML inferences with TFLite.
 class TfliteBackend : public Backend {
  public:
-  TfliteBackend(const std::string& model_file_path, int num_threads);
+  // If batch_size is larger than 1, the first dimension of the inputs is
+  // resized to it.
+  TfliteBackend(const std::string& model_file_path, int num_threads,
+                int batch_size = 1);
 
   // A human-readable string for logging purposes.
   const std::string& Name() const override { return name_; }
@@ -33,9 +41,9 @@ class TfliteBackend : public Backend {
   // Apply the delegate, return error if failed.
   TfLiteStatus ApplyDelegate(const std::string& delegate);
 
-  // Run inference for a sample.
+  // Run inference for a batch.
   void IssueQuery() override {
-    if (inference_stage_->Run() != kTfLiteOk) {
+    if (interpreter_->Invoke() != kTfLiteOk) {
       LOG(FATAL) << "Error while inferencing model";
     }
   }
@@ -45,23 +53,66 @@ class TfliteBackend : public Backend {
 
   // Sets inputs for a sample before inferencing.
   void SetInputs(const std::vector<void*>& inputs) override {
-    inference_stage_->SetInputs(inputs);
+    SetBatchInputs(0, inputs);
   }
 
   // Returns the result after inferencing.
-  std::vector<void*> GetPredictedOutputs() override;
+  std::vector<void*> GetPredictedOutputs() override {
+    return GetBatchOutputs(0);
+  }
 
-  // Returns the input format required by the model.
+  // Returns the number of samples run by each call to IssueQuery.
+  int GetBatchSize() const override { return batch_size_; }
+
+  // Sets inputs for the sample at batch_idx of the next batch. Without
+  // batching, inputs aligned like the tensors of TFLite are used in place
+  // instead of being copied, so they must stay valid until IssueQuery.
+  //
+  // Binding points data.raw of the input tensors to the samples, so it relies
+  // on the graph reading its inputs from data.raw at each invocation. The CPU
+  // kernels do, and so do the GPU and NNAPI delegates, which copy the inputs to
+  // their own memory when invoked. Inputs with a buffer handle are read from
+  // the delegate's buffer instead, so they are never bound.
+  void SetBatchInputs(int batch_idx,
+                      const std::vector<void*>& inputs) override;
+
+  // Turns the binding of the inputs on or off. It is on by default. When off,
+  // every input is copied into the buffers of the interpreter.
+  void SetInputBinding(bool enabled);
+
+  // Returns the result of the sample at batch_idx after inferencing.
+  const std::vector<void*>& GetBatchOutputs(int batch_idx) override;
+
+  // Returns the input format of a single sample.
   const DataFormat& GetInputFormat() override { return input_format_; }
 
-  // Returns the output format produced by the model.
+  // Returns the output format of a single sample.
   const DataFormat& GetOutputFormat() override { return output_format_; }
 
  private:
+  // Records the buffers allocated for the inputs by the interpreter and
+  // whether the inputs can point to other buffers. Must be called after the
+  // tensors are (re)allocated, before any input is bound: AllocateTensors and
+  // ModifyGraphWithDelegate may move the buffers, and input_buffers_ would then
+  // point to freed memory of the old arena.
+  void ResetInputBuffers();
+
   const std::string name_ = "TFLite";
+  const int batch_size_;
   DataFormat input_format_;
   DataFormat output_format_;
-  std::unique_ptr<tflite::evaluation::TfliteInferenceStage> inference_stage_;
+  // The model and the delegate must outlive the interpreter, so they are
+  // declared before it.
+  std::unique_ptr<tflite::FlatBufferModel> model_;
+  tflite::Interpreter::TfLiteDelegatePtr delegate_;
+  std::unique_ptr<tflite::Interpreter> interpreter_;
+  // The buffers of the inputs allocated by the interpreter. They are only
+  // valid until the tensors are allocated again.
+  std::vector<char*> input_buffers_;
+  // The outputs of each sample of a batch, reused by GetBatchOutputs.
+  std::vector<std::vector<void*>> batch_outputs_;
+  bool input_binding_ = true;
+  bool can_bind_inputs_ = false;
 };
 
 }  // namespace mobile
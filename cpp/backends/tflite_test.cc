@@ -0,0 +1,122 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "tflite.h"
+
+#include <gmock/gmock.h>
+#include <gtest/gtest.h>
+
+#include <cstdint>
+#include <string>
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+namespace {
+
+// A float model of the TFLite test data, set by main.
+std::string model_path;
+
+// A float sample at a given offset from a 64 byte boundary, which is how
+// TFLite aligns its tensors.
+class Sample {
+ public:
+  Sample(int size, float first, size_t misalignment)
+      : storage_(size * sizeof(float) + 64 + misalignment) {
+    const uintptr_t base = reinterpret_cast<uintptr_t>(storage_.data());
+    data_ = reinterpret_cast<float*>(storage_.data() + (64 - base % 64) % 64 +
+                                     misalignment);
+    for (int i = 0; i < size; ++i) {
+      data_[i] = first + i;
+    }
+  }
+
+  std::vector<void*> Inputs() const { return {data_}; }
+  float* data() const { return data_; }
+
+ private:
+  std::vector<char> storage_;
+  float* data_;
+};
+
+std::vector<float> Run(TfliteBackend* backend, const Sample& sample) {
+  backend->SetInputs(sample.Inputs());
+  backend->IssueQuery();
+  const float* output =
+      static_cast<const float*>(backend->GetPredictedOutputs()[0]);
+  return std::vector<float>(output,
+                            output + backend->GetOutputFormat()[0].size);
+}
+
+TEST(TfliteBackend, BoundInputsGiveTheOutputsOfCopiedInputs) {
+  TfliteBackend bound(model_path, 1);
+  TfliteBackend copied(model_path, 1);
+  copied.SetInputBinding(false);
+  ASSERT_EQ(bound.GetInputFormat().size(), 1);
+  ASSERT_EQ(bound.GetInputFormat()[0].type, DataType::Float32);
+  ASSERT_EQ(bound.GetOutputFormat()[0].type, DataType::Float32);
+  const int size = bound.GetInputFormat()[0].size;
+
+  // Aligned samples are bound, the misaligned one is copied, and the first
+  // one is bound again after it.
+  const std::vector<Sample> samples = {
+      Sample(size, 1, 0), Sample(size, 100, 4), Sample(size, -5, 0)};
+  std::vector<float> previous;
+  for (int i : {0, 1, 2, 0}) {
+    const std::vector<float> expected = Run(&copied, samples[i]);
+    EXPECT_THAT(Run(&bound, samples[i]), ::testing::ElementsAreArray(expected))
+        << "Sample " << i;
+    EXPECT_NE(expected, previous);
+    previous = expected;
+  }
+}
+
+TEST(TfliteBackend, CopiesDontOverwriteTheBoundSample) {
+  TfliteBackend backend(model_path, 1);
+  const int size = backend.GetInputFormat()[0].size;
+  Sample bound_sample(size, 1, 0);
+  Sample copied_sample(size, 100, 4);
+  Run(&backend, bound_sample);
+  Run(&backend, copied_sample);
+  for (int i = 0; i < size; ++i) {
+    ASSERT_EQ(bound_sample.data()[i], 1 + i);
+  }
+}
+
+TEST(TfliteBackend, TurningBindingOffKeepsTheInterpreterBuffers) {
+  TfliteBackend backend(model_path, 1);
+  const int size = backend.GetInputFormat()[0].size;
+  Sample bound_sample(size, 1, 0);
+  Sample copied_sample(size, 100, 0);
+  const std::vector<float> expected = Run(&backend, copied_sample);
+  Run(&backend, bound_sample);
+  backend.SetInputBinding(false);
+  EXPECT_EQ(Run(&backend, copied_sample), expected);
+  for (int i = 0; i < size; ++i) {
+    ASSERT_EQ(bound_sample.data()[i], 1 + i);
+  }
+}
+
+}  // namespace
+}  // namespace mobile
+}  // namespace mlperf
+
+int main(int argc, char** argv) {
+  ::testing::InitGoogleTest(&argc, argv);
+  if (argc < 2) {
+    LOG(FATAL) << "Usage: " << argv[0] << " <model.tflite>";
+  }
+  mlperf::mobile::model_path = argv[1];
+  return RUN_ALL_TESTS();
+}
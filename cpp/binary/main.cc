@@ -15,6 +15,7 @@ limitations under the License.
 #include <fstream>
 #include <iostream>
 #include <string>
+#include <thread>  // NOLINT(build/c++11)
 #include <utility>
 #include <vector>
 
@@ -64,6 +65,19 @@ DatasetConfig::DatasetType Str2DatasetType(absl::string_view name) {
   }
 }
 
+ScenarioConfig::Scenario Str2Scenario(absl::string_view name) {
+  if (absl::EqualsIgnoreCase(name, "SingleStream")) {
+    return ScenarioConfig::SINGLE_STREAM;
+  } else if (absl::EqualsIgnoreCase(name, "Offline")) {
+    return ScenarioConfig::OFFLINE;
+  } else if (absl::EqualsIgnoreCase(name, "MultiStream")) {
+    return ScenarioConfig::MULTI_STREAM;
+  } else {
+    LOG(FATAL) << "Unregconized scenario: " << name;
+    return ScenarioConfig::SINGLE_STREAM;
+  }
+}
+
 }  // namespace
 
 int Main(int argc, char* argv[]) {
@@ -93,8 +107,23 @@ int Main(int argc, char* argv[]) {
   command_line += " " + backend_name + " " + dataset_name;
 
   // Command Line Flags for mlperf.
-  std::string mode, scenario, output_dir;
+  std::string mode, scenario_name = "SingleStream", output_dir;
   int min_query_count = 100, min_duration = 100;
+  int preprocessing_threads = std::thread::hardware_concurrency();
+  int memory_budget_mb = 500;
+  ScenarioConfig scenario;
+  int performance_sample_count = scenario.performance_sample_count();
+  float offline_expected_qps = scenario.offline_expected_qps();
+  int multi_stream_samples_per_query =
+      scenario.multi_stream_samples_per_query();
+  float multi_stream_target_qps = scenario.multi_stream_target_qps();
+  int64_t multi_stream_target_latency_ns =
+      scenario.multi_stream_target_latency_ns();
+  int max_duration_ms = scenario.max_duration_ms();
+  int warmup_max_queries = scenario.warmup().max_queries();
+  int warmup_window = scenario.warmup().window();
+  float warmup_max_cv = scenario.warmup().max_cv();
+  float adaptive_max_relative_width = scenario.adaptive().max_relative_width();
   flag_list.clear();
   flag_list.insert(
       flag_list.end(),
@@ -109,7 +138,51 @@ int Main(int argc, char* argv[]) {
                         "The test will guarantee to run at least this "
                         "duration in performance mode. The duration is in ms."),
        Flag::CreateFlag("output_dir", &output_dir,
-                        "The output directory of mlperf.", Flag::kRequired)});
+                        "The output directory of mlperf.", Flag::kRequired),
+       Flag::CreateFlag("preprocessing_threads", &preprocessing_threads,
+                        "The number of threads preprocessing the samples "
+                        "when they are loaded."),
+       Flag::CreateFlag("memory_budget_mb", &memory_budget_mb,
+                        "The memory in MB that the samples loaded in "
+                        "performance mode may use."),
+       Flag::CreateFlag("scenario", &scenario_name,
+                        "Scenario is one among SingleStream, Offline, "
+                        "MultiStream."),
+       Flag::CreateFlag("performance_sample_count", &performance_sample_count,
+                        "The number of samples loaded in performance mode. "
+                        "0 means as many as fit in the memory budget."),
+       Flag::CreateFlag("offline_expected_qps", &offline_expected_qps,
+                        "The expected samples per second in the Offline "
+                        "scenario."),
+       Flag::CreateFlag("multi_stream_samples_per_query",
+                        &multi_stream_samples_per_query,
+                        "The number of samples per query in the MultiStream "
+                        "scenario."),
+       Flag::CreateFlag("multi_stream_target_qps", &multi_stream_target_qps,
+                        "The rate at which queries are issued in the "
+                        "MultiStream scenario."),
+       Flag::CreateFlag("multi_stream_target_latency_ns",
+                        &multi_stream_target_latency_ns,
+                        "The latency each query should meet in the "
+                        "MultiStream scenario."),
+       Flag::CreateFlag("max_duration_ms", &max_duration_ms,
+                        "The run stops after this duration in ms and "
+                        "reports the samples run until then. 0 means no "
+                        "limit."),
+       Flag::CreateFlag("warmup_max_queries", &warmup_max_queries,
+                        "The maximum number of untimed inferences run to "
+                        "warm up each backend. 0 disables the warm-up."),
+       Flag::CreateFlag("warmup_window", &warmup_window,
+                        "The number of latencies the warm-up checks for a "
+                        "steady state."),
+       Flag::CreateFlag("warmup_max_cv", &warmup_max_cv,
+                        "The warm-up ends once the coefficient of variation "
+                        "of the last latencies is at most this."),
+       Flag::CreateFlag("adaptive_max_relative_width",
+                        &adaptive_max_relative_width,
+                        "Performance tests are extended until the confidence "
+                        "interval of the latency percentile is at most this "
+                        "wide relative to it. 0 disables it.")});
 
   // Command Line Flags for backend.
   std::unique_ptr<Backend> backend;
@@ -118,6 +191,7 @@ int Main(int argc, char* argv[]) {
       LOG(INFO) << "Using TFLite backend";
       std::string model_file_path;
       int num_threads = 1;
+      int batch_size = 1;
       std::string delegate = "none";
       flag_list.insert(
           flag_list.end(),
@@ -125,13 +199,17 @@ int Main(int argc, char* argv[]) {
                             "Path to TFLite model file.", Flag::kRequired),
            Flag::CreateFlag("num_threads", &num_threads,
                             "Number of interpreter threads for inference."),
+           Flag::CreateFlag("batch_size", &batch_size,
+                            "Number of samples run by each inference. Only "
+                            "the Offline scenario issues more than one "
+                            "sample at a time."),
            Flag::CreateFlag("delegate", &delegate,
                             "Delegate for inference, if available. "
                             "Can be one value of {'nnapi', 'nnapi-{accelerator "
                             "name}', 'gpu', 'gpu (f16)', 'none'}.")});
       if (Flags::Parse(&argc, const_cast<const char**>(argv), flag_list)) {
         TfliteBackend* tflite_backend =
-            new TfliteBackend(model_file_path, num_threads);
+            new TfliteBackend(model_file_path, num_threads, batch_size);
         if (tflite_backend->ApplyDelegate(delegate) != kTfLiteOk) {
           LOG(INFO) << "Cannot apply the delegate.";
           delete tflite_backend;
@@ -170,7 +248,7 @@ int Main(int argc, char* argv[]) {
         dataset.reset(new Imagenet(backend->GetInputFormat(),
                                    backend->GetOutputFormat(), images_directory,
                                    groundtruth_file, offset, image_width,
-                                   image_height, scenario));
+                                   image_height));
       }
       // Adds to flag_list for showing help.
       flag_list.insert(flag_list.end(), dataset_flags.begin(),
@@ -276,11 +354,26 @@ int Main(int argc, char* argv[]) {
     LOG(FATAL) << Flags::Usage(command_line, flag_list);
     return 1;
   }
+  dataset->SetNumThreads(preprocessing_threads);
+  dataset->SetMemoryBudget(static_cast<size_t>(memory_budget_mb) * 1000 * 1000);
   // If using the dummy dataset, only run the performance mode.
   if (dataset_type == DatasetConfig::NONE) {
     mode = "PerformanceOnly";
   }
 
+  scenario.set_scenario(Str2Scenario(scenario_name));
+  scenario.set_performance_sample_count(performance_sample_count);
+  scenario.set_offline_expected_qps(offline_expected_qps);
+  scenario.set_multi_stream_samples_per_query(multi_stream_samples_per_query);
+  scenario.set_multi_stream_target_qps(multi_stream_target_qps);
+  scenario.set_multi_stream_target_latency_ns(multi_stream_target_latency_ns);
+  scenario.set_max_duration_ms(max_duration_ms);
+  scenario.mutable_warmup()->set_max_queries(warmup_max_queries);
+  scenario.mutable_warmup()->set_window(warmup_window);
+  scenario.mutable_warmup()->set_max_cv(warmup_max_cv);
+  scenario.mutable_adaptive()->set_max_relative_width(
+      adaptive_max_relative_width);
+
   // Running mlperf.
   MlperfDriver driver(std::move(dataset), std::move(backend));
   driver.RunMLPerfTest(mode, scenario, min_query_count, min_duration,
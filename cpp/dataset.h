@@ -15,6 +15,8 @@ limitations under the License.
 #ifndef MLPERF_DATASET_H_
 #define MLPERF_DATASET_H_
 
+#include <algorithm>
+#include <atomic>
 #include <cstddef>
 #include <cstdint>
 #include <string>
@@ -36,18 +38,29 @@ class Dataset : public ::mlperf::QuerySampleLibrary {
 
   ~Dataset() override {}
 
+  // Sets the number of threads used to load samples. Datasets that preprocess
+  // their samples use one thread per sample.
+  void SetNumThreads(int num_threads) {
+    num_threads_ = std::max(1, num_threads);
+  }
+
+  // Sets the memory in bytes that the samples loaded at once may use. It is
+  // read when a test starts, so it may be changed between tests.
+  void SetMemoryBudget(size_t bytes) { memory_budget_ = bytes; }
+
   // The number of samples that are guaranteed to fit in RAM.
   size_t PerformanceSampleCount() override {
-    int sample_size = 0;
+    size_t sample_size = 0;
     for (const DataType& data_type : input_format_) {
       sample_size += data_type.size * data_type.GetByte();
     }
-    // Since it runs on mobile device, use 500MB at most.
-    return 500 * 1e6 / sample_size;
+    size_t count = memory_budget_ / std::max<size_t>(sample_size, 1);
+    return std::max<size_t>(1, std::min(count, TotalSampleCount()));
   }
 
-  // GetData returns the data of a specific input.
-  virtual std::vector<void*> GetData(int sample_idx) = 0;
+  // GetData returns the data of a specific input. The reference is valid
+  // until the sample is unloaded.
+  virtual const std::vector<void*>& GetData(int sample_idx) = 0;
 
   // ProcessOutput processes the output data before sending to mlperf. This
   // function only get called on Accuracy mode so we don't need to care about
@@ -69,6 +82,9 @@ class Dataset : public ::mlperf::QuerySampleLibrary {
  protected:
   const DataFormat input_format_;
   const DataFormat output_format_;
+  int num_threads_ = 1;
+  // Since it runs on mobile device, use 500MB at most by default.
+  std::atomic<size_t> memory_budget_{500 * 1000 * 1000};
 };
 
 }  // namespace mobile
@@ -21,6 +21,7 @@ limitations under the License.
 #include <vector>
 
 #include "cpp/dataset.h"
+#include "cpp/sample_arena.h"
 #include "tensorflow/lite/tools/evaluation/stages/image_preprocessing_stage.h"
 
 namespace mlperf {
@@ -41,7 +42,7 @@ class ADE20K : public Dataset {
   const std::string& Name() const override { return name_; }
 
   // Total number of samples in library.
-  size_t TotalSampleCount() override { return samples_.size(); }
+  size_t TotalSampleCount() override { return image_list_.size(); }
 
   // Loads the requested query samples into memory.
   void LoadSamplesToRam(const std::vector<QuerySampleIndex>& samples) override;
@@ -51,12 +52,8 @@ class ADE20K : public Dataset {
       const std::vector<QuerySampleIndex>& samples) override;
 
   // GetData returns the data of a specific input.
-  std::vector<void*> GetData(int sample_idx) override {
-    std::vector<void*> data;
-    for (std::vector<uint8_t>* v : samples_.at(sample_idx)) {
-      data.push_back(v->data());
-    }
-    return data;
+  const std::vector<void*>& GetData(int sample_idx) override {
+    return arena_->Get(sample_idx);
   }
 
   // ProcessOutput processes the output data before sending to mlperf.
@@ -76,11 +73,14 @@ class ADE20K : public Dataset {
   // List of the fullpath of groun dtruth file.
   std::vector<std::string> ground_truth_list_;
   // Loaded samples in RAM.
-  std::vector<std::vector<std::vector<uint8_t>*>> samples_;
-
-  // preprocessing_stage_ conducts preprocessing of images.
-  std::unique_ptr<tflite::evaluation::ImagePreprocessingStage>
-      preprocessing_stage_;
+  std::unique_ptr<SampleArena> arena_;
+
+  // Config of the stages preprocessing images.
+  tflite::evaluation::EvaluationStageConfig preprocessing_config_;
+  // One preprocessing stage for each thread loading samples, since the stages
+  // hold the image being processed.
+  std::vector<std::unique_ptr<tflite::evaluation::ImagePreprocessingStage>>
+      preprocessing_stages_;
 
   // Number of classes in the output of the model.
   int num_classes_;
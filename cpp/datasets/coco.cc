@@ -16,6 +16,7 @@ limitations under the License.
 
 #include <algorithm>
 #include <cstdint>
+#include <cstring>
 #include <fstream>
 #include <iomanip>
 #include <iterator>
@@ -79,50 +80,49 @@ Coco::Coco(const DataFormat& input_format, const DataFormat& output_format,
     filename.replace(filename.find_last_of("."), std::string::npos, ".jpg");
     name_list_.push_back(filename);
   }
-  samples_ =
-      std::vector<std::vector<std::vector<uint8_t>*>>(image_list_.size());
+  arena_.reset(new SampleArena(input_format_, image_list_.size()));
   // Prepares the preprocessing stage.
   tflite::evaluation::ImagePreprocessingConfigBuilder builder(
       "image_preprocessing", DataType2TfType(input_format_.at(0).type));
   builder.AddResizingStep(image_width, image_height, false);
   builder.AddDefaultNormalizationStep();
-  preprocessing_stage_.reset(
-      new tflite::evaluation::ImagePreprocessingStage(builder.build()));
-  if (preprocessing_stage_->Init() != kTfLiteOk) {
-    LOG(FATAL) << "Failed to init preprocessing stage";
-  }
+  preprocessing_config_ = builder.build();
 }
 
 void Coco::LoadSamplesToRam(const std::vector<QuerySampleIndex>& samples) {
-  for (QuerySampleIndex sample_idx : samples) {
+  // Adds the missing preprocessing stages.
+  while (preprocessing_stages_.size() < num_threads_) {
+    preprocessing_stages_.emplace_back(
+        new tflite::evaluation::ImagePreprocessingStage(preprocessing_config_));
+    if (preprocessing_stages_.back()->Init() != kTfLiteOk) {
+      LOG(FATAL) << "Failed to init preprocessing stage";
+    }
+  }
+  arena_->Allocate(samples);
+  auto load_sample = [this, &samples](int worker, int i) {
+    QuerySampleIndex sample_idx = samples[i];
     // Preprocessing.
     if (sample_idx >= image_list_.size()) {
       LOG(FATAL) << "Sample index out of bound";
     }
+    tflite::evaluation::ImagePreprocessingStage* preprocessing_stage =
+        preprocessing_stages_[worker].get();
     std::string filename = image_list_.at(sample_idx);
-    preprocessing_stage_->SetImagePath(&filename);
-    if (preprocessing_stage_->Run() != kTfLiteOk) {
+    preprocessing_stage->SetImagePath(&filename);
+    if (preprocessing_stage->Run() != kTfLiteOk) {
       LOG(FATAL) << "Failed to run preprocessing stage";
     }
 
-    // Move data out of preprocessing_stage_ so it can be reused.
-    int total_byte = input_format_[0].size * input_format_[0].GetByte();
-    void* data_void = preprocessing_stage_->GetPreprocessedImageData();
-    std::vector<uint8_t>* data_uint8 = new std::vector<uint8_t>(total_byte);
-    std::copy(static_cast<uint8_t*>(data_void),
-              static_cast<uint8_t*>(data_void) + total_byte,
-              data_uint8->begin());
-    samples_.at(sample_idx).push_back(data_uint8);
-  }
+    // Move data out of the preprocessing stage so it can be reused.
+    std::memcpy(arena_->Get(sample_idx)[0],
+                preprocessing_stage->GetPreprocessedImageData(),
+                arena_->GetInputBytes(0));
+  };
+  ParallelFor(samples.size(), num_threads_, load_sample);
 }
 
 void Coco::UnloadSamplesFromRam(const std::vector<QuerySampleIndex>& samples) {
-  for (QuerySampleIndex sample_idx : samples) {
-    for (std::vector<uint8_t>* v : samples_.at(sample_idx)) {
-      delete v;
-    }
-    samples_.at(sample_idx).clear();
-  }
+  arena_->Release(samples);
 }
 
 std::vector<uint8_t> Coco::ProcessOutput(const int sample_idx,
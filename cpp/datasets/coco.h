@@ -24,6 +24,7 @@ limitations under the License.
 
 #include "absl/container/flat_hash_map.h"
 #include "cpp/dataset.h"
+#include "cpp/sample_arena.h"
 #include "tensorflow/lite/tools/evaluation/proto/evaluation_stages.pb.h"
 #include "tensorflow/lite/tools/evaluation/stages/image_preprocessing_stage.h"
 
@@ -45,7 +46,7 @@ class Coco : public Dataset {
   const std::string& Name() const override { return name_; }
 
   // Total number of samples in library.
-  size_t TotalSampleCount() override { return samples_.size(); }
+  size_t TotalSampleCount() override { return image_list_.size(); }
 
   // Loads the requested query samples into memory.
   void LoadSamplesToRam(const std::vector<QuerySampleIndex>& samples) override;
@@ -55,12 +56,8 @@ class Coco : public Dataset {
       const std::vector<QuerySampleIndex>& samples) override;
 
   // GetData returns the data of a specific input.
-  std::vector<void*> GetData(int sample_idx) override {
-    std::vector<void*> data;
-    for (std::vector<uint8_t>* v : samples_.at(sample_idx)) {
-      data.push_back(v->data());
-    }
-    return data;
+  const std::vector<void*>& GetData(int sample_idx) override {
+    return arena_->Get(sample_idx);
   }
 
   // ProcessOutput processes the output data before sending to mlperf.
@@ -87,13 +84,16 @@ class Coco : public Dataset {
   // List of the name of images under image_dir.
   std::vector<std::string> name_list_;
   // Loaded samples in RAM.
-  std::vector<std::vector<std::vector<uint8_t>*>> samples_;
+  std::unique_ptr<SampleArena> arena_;
   // Groundtruth and predicted results.
   absl::flat_hash_map<std::string, tflite::evaluation::ObjectDetectionResult>
       predicted_objects_;
-  // preprocessing_stage_ conducts preprocessing of images.
-  std::unique_ptr<tflite::evaluation::ImagePreprocessingStage>
-      preprocessing_stage_;
+  // Config of the stages preprocessing images.
+  tflite::evaluation::EvaluationStageConfig preprocessing_config_;
+  // One preprocessing stage for each thread loading samples, since the stages
+  // hold the image being processed.
+  std::vector<std::unique_ptr<tflite::evaluation::ImagePreprocessingStage>>
+      preprocessing_stages_;
 };
 
 }  // namespace mobile
@@ -26,37 +26,25 @@ namespace mobile {
 
 void DummyDataset::LoadSamplesToRam(
     const std::vector<QuerySampleIndex>& samples) {
+  arena_.Allocate(samples);
   for (QuerySampleIndex sample_idx : samples) {
+    const std::vector<void*>& inputs = arena_.Get(sample_idx);
     switch (dataset_type_) {
       case DatasetConfig::SQUAD: {
         // Input_ids is in range [0, 30000).
-        std::vector<uint8_t>* input_ids =
-            new std::vector<uint8_t>(input_format_[0].size * 4);
-        std::generate_n(reinterpret_cast<int32_t*>(input_ids->data()),
-                        input_format_[0].size, [] { return random() % 30000; });
-        samples_.at(sample_idx).push_back(input_ids);
+        std::generate_n(static_cast<int32_t*>(inputs[0]), input_format_[0].size,
+                        [] { return random() % 30000; });
         // Input_mask is in range [0,1].
-        std::vector<uint8_t>* input_mask =
-            new std::vector<uint8_t>(input_format_[0].size * 4);
-        std::generate_n(reinterpret_cast<int32_t*>(input_mask->data()),
-                        input_format_[0].size, [] { return random() % 2; });
-        samples_.at(sample_idx).push_back(input_mask);
+        std::generate_n(static_cast<int32_t*>(inputs[1]), input_format_[1].size,
+                        [] { return random() % 2; });
         // Segment_ids is in range [0,1].
-        std::vector<uint8_t>* segment_ids =
-            new std::vector<uint8_t>(input_format_[0].size * 4);
-        std::generate_n(reinterpret_cast<int32_t*>(segment_ids->data()),
-                        input_format_[0].size, [] { return random() % 2; });
-        samples_.at(sample_idx).push_back(segment_ids);
+        std::generate_n(static_cast<int32_t*>(inputs[2]), input_format_[2].size,
+                        [] { return random() % 2; });
       } break;
       default: {
-        for (const DataType& data_type : input_format_) {
-          int type_size = data_type.GetByte();
-          std::vector<uint8_t>* data =
-              new std::vector<uint8_t>(data_type.size * type_size);
-          for (auto it = data->begin(); it != data->end(); ++it) {
-            *it = random();
-          }
-          samples_.at(sample_idx).push_back(data);
+        for (int i = 0; i < input_format_.size(); ++i) {
+          std::generate_n(static_cast<uint8_t*>(inputs[i]),
+                          arena_.GetInputBytes(i), [] { return random(); });
         }
       } break;
     }
@@ -65,12 +53,7 @@ void DummyDataset::LoadSamplesToRam(
 
 void DummyDataset::UnloadSamplesFromRam(
     const std::vector<QuerySampleIndex>& samples) {
-  for (QuerySampleIndex sample_idx : samples) {
-    for (std::vector<uint8_t>* v : samples_.at(sample_idx)) {
-      delete v;
-    }
-    samples_.at(sample_idx).clear();
-  }
+  arena_.Release(samples);
 }
 
 }  // namespace mobile
@@ -19,6 +19,7 @@ limitations under the License.
 
 #include "cpp/dataset.h"
 #include "cpp/proto/mlperf_task.pb.h"
+#include "cpp/sample_arena.h"
 #include "cpp/utils.h"
 
 namespace mlperf {
@@ -31,7 +32,10 @@ class DummyDataset : public Dataset {
  public:
   DummyDataset(const DataFormat& input_format, const DataFormat& output_format,
                DatasetConfig::DatasetType dataset_type)
-      : Dataset(input_format, output_format), dataset_type_(dataset_type) {
+      : Dataset(input_format, output_format),
+        dataset_type_(dataset_type),
+        // The number of samples only affects the randomness. Fix it to 1024.
+        arena_(input_format, 1024) {
     // MobileBert expects to take 3 inputs in following order: input_ids,
     // input_mask and segment_ids.
     if (dataset_type_ == DatasetConfig::SQUAD &&
@@ -43,15 +47,13 @@ class DummyDataset : public Dataset {
                     "input_mask, segment_ids";
       return;
     }
-    // The number of samples only affects the randomness. Fix it to 1024.
-    samples_ = std::vector<std::vector<std::vector<uint8_t>*>>(1024);
   }
 
   // Returns the name of the dataset.
   const std::string& Name() const override { return name_; }
 
   // Total number of samples in library.
-  size_t TotalSampleCount() override { return samples_.size(); }
+  size_t TotalSampleCount() override { return 1024; }
 
   // Loads the requested query samples into memory.
   void LoadSamplesToRam(const std::vector<QuerySampleIndex>& samples) override;
@@ -61,12 +63,8 @@ class DummyDataset : public Dataset {
       const std::vector<QuerySampleIndex>& samples) override;
 
   // GetData returns the data of a specific input.
-  std::vector<void*> GetData(int sample_idx) override {
-    std::vector<void*> data;
-    for (std::vector<uint8_t>* v : samples_.at(sample_idx)) {
-      data.push_back(v->data());
-    }
-    return data;
+  const std::vector<void*>& GetData(int sample_idx) override {
+    return arena_.Get(sample_idx);
   }
 
   // DummyDataset has nothing to process.
@@ -79,7 +77,7 @@ class DummyDataset : public Dataset {
   const std::string name_ = "DummyDataset";
   const DatasetConfig::DatasetType dataset_type_;
   // Loaded samples in RAM.
-  std::vector<std::vector<std::vector<uint8_t>*>> samples_;
+  SampleArena arena_;
 };
 
 }  // namespace mobile
@@ -21,6 +21,7 @@ limitations under the License.
 #include <vector>
 
 #include "cpp/dataset.h"
+#include "cpp/sample_arena.h"
 #include "tensorflow/lite/tools/evaluation/stages/image_preprocessing_stage.h"
 
 namespace mlperf {
@@ -35,14 +36,13 @@ class Imagenet : public Dataset {
   // LSVRC2012 dataset.
   Imagenet(const DataFormat& input_format, const DataFormat& output_format,
            const std::string& image_dir, const std::string& groundtruth_file,
-           int offset, int image_width, int image_height,
-           const std::string& scenario);
+           int offset, int image_width, int image_height);
 
   // Returns the name of the dataset.
   const std::string& Name() const override { return name_; }
 
   // Total number of samples in library.
-  size_t TotalSampleCount() override { return samples_.size(); }
+  size_t TotalSampleCount() override { return image_list_.size(); }
 
   // Loads the requested query samples into memory.
   void LoadSamplesToRam(const std::vector<QuerySampleIndex>& samples) override;
@@ -52,12 +52,8 @@ class Imagenet : public Dataset {
       const std::vector<QuerySampleIndex>& samples) override;
 
   // GetData returns the data of a specific input.
-  std::vector<void*> GetData(int sample_idx) override {
-    std::vector<void*> data;
-    for (std::vector<uint8_t>* v : samples_.at(sample_idx)) {
-      data.push_back(v->data());
-    }
-    return data;
+  const std::vector<void*>& GetData(int sample_idx) override {
+    return arena_->Get(sample_idx);
   }
 
   // ProcessOutput processes the output data before sending to mlperf.
@@ -70,14 +66,6 @@ class Imagenet : public Dataset {
   // ComputeAccuracyString returns a string representing the accuracy.
   std::string ComputeAccuracyString() override;
 
-  // The number of samples that are guaranteed to fit in RAM.
-  size_t PerformanceSampleCount() override {
-    if (performance_sample_count_override_ > 0) {
-      return performance_sample_count_override_;
-    }
-    return Dataset::PerformanceSampleCount();
-  }
-
  private:
   const std::string name_ = "Imagenet";
   // The ground truth file contains class indexes of each image.
@@ -89,13 +77,15 @@ class Imagenet : public Dataset {
   // List of the fullpath of images.
   std::vector<std::string> image_list_;
   // Loaded samples in RAM.
-  std::vector<std::vector<std::vector<uint8_t>*>> samples_;
+  std::unique_ptr<SampleArena> arena_;
   // Predictions from sample_idex to class_index (offset is subtracted).
   std::unordered_map<int32_t, int32_t> predictions_;
-  // preprocessing_stage_ conducts preprocessing of images.
-  std::unique_ptr<tflite::evaluation::ImagePreprocessingStage>
-      preprocessing_stage_;
-  size_t performance_sample_count_override_;
+  // Config of the stages preprocessing images.
+  tflite::evaluation::EvaluationStageConfig preprocessing_config_;
+  // One preprocessing stage for each thread loading samples, since the stages
+  // hold the image being processed.
+  std::vector<std::unique_ptr<tflite::evaluation::ImagePreprocessingStage>>
+      preprocessing_stages_;
 };
 
 }  // namespace mobile
@@ -14,6 +14,7 @@ limitations under the License.
 ==============================================================================*/
 #include "cpp/datasets/squad.h"
 
+#include <algorithm>
 #include <cstdint>
 #include <cstring>
 #include <iomanip>
@@ -23,6 +24,7 @@ limitations under the License.
 
 #include "absl/strings/str_cat.h"
 #include "absl/strings/str_replace.h"
+#include "absl/strings/string_view.h"
 #include "cpp/datasets/squad_utils/common.h"
 #include "cpp/utils.h"
 #include "tensorflow/core/platform/file_system.h"
@@ -47,14 +49,40 @@ struct PrelimPrediction {
         end_index(end_idx),
         score(value) {}
 };
+
+tensorflow::Example ParseExample(absl::string_view record) {
+  tensorflow::Example example;
+  if (!example.ParseFromArray(record.data(), record.size())) {
+    LOG(FATAL) << "Failed to parse a record";
+  }
+  return example;
+}
+
+// Both TFRecord files are keyed by the question id.
+std::string ReadQasId(absl::string_view record) {
+  return tensorflow::GetFeatureValues<google::protobuf::string>(
+      "qas_id", ParseExample(record))[0];
+}
+
+// Copies an int64 feature into an int32 input.
+void CopyFeature(const tensorflow::Example& example, const std::string& name,
+                 int size, void* input) {
+  const auto& values =
+      tensorflow::GetFeatureValues<google::protobuf::int64>(name, example);
+  if (values.size() != size) {
+    LOG(FATAL) << "Expected " << size << " values of " << name << ", got "
+               << values.size();
+  }
+  std::copy(values.begin(), values.end(), static_cast<int32_t*>(input));
+}
 }  // namespace
 
 Squad::Squad(const DataFormat& input_format, const DataFormat& output_format,
              const std::string& input_tfrecord, const std::string& gt_tfrecord)
     : Dataset(input_format, output_format),
-      sample_reader_(input_tfrecord),
-      gt_reader_(gt_tfrecord),
-      samples_(sample_reader_.Size()),
+      sample_reader_(input_tfrecord, ReadQasId),
+      gt_reader_(gt_tfrecord, ReadQasId),
+      arena_(input_format, sample_reader_.Size()),
       predictions_(sample_reader_.Size()) {
   // Check input and output formats.
   if (input_format_.size() != 3 || output_format_.size() != 2) {
@@ -72,29 +100,31 @@ Squad::Squad(const DataFormat& input_format, const DataFormat& output_format,
 
   // Map questions to their list of input samples.
   for (uint32_t idx = 0; idx < sample_reader_.Size(); ++idx) {
-    SampleRecord sample(sample_reader_.ReadRecord(idx));
-    qas_id_to_samples_[sample.qas_id_].push_back(idx);
+    qas_id_to_samples_[std::string(sample_reader_.Key(idx))].push_back(idx);
   }
 
   // Map the question id to its ground truth data.
   for (uint32_t idx = 0; idx < gt_reader_.Size(); ++idx) {
-    GroundTruthRecord record(gt_reader_.ReadRecord(idx));
-    qas_id_to_ground_truth_[record.qas_id] = idx;
+    qas_id_to_ground_truth_[std::string(gt_reader_.Key(idx))] = idx;
   }
 }
 
 void Squad::LoadSamplesToRam(const std::vector<QuerySampleIndex>& samples) {
-  // using int64 = google::protobuf::int64;
-  for (QuerySampleIndex sample_idx : samples) {
-    tensorflow::tstring record = sample_reader_.ReadRecord(sample_idx);
-    samples_.at(sample_idx).reset(new SampleRecord(record));
-  }
+  arena_.Allocate(samples);
+  // Only the inputs are decoded, from the records mapped in memory.
+  ParallelFor(samples.size(), num_threads_, [this, &samples](int, int i) {
+    const std::vector<void*>& inputs = arena_.Get(samples[i]);
+    std::string scratch;
+    tensorflow::Example example =
+        ParseExample(sample_reader_.ReadRecord(samples[i], &scratch));
+    CopyFeature(example, "input_ids", input_format_[0].size, inputs[0]);
+    CopyFeature(example, "input_mask", input_format_[1].size, inputs[1]);
+    CopyFeature(example, "segment_ids", input_format_[2].size, inputs[2]);
+  });
 }
 
 void Squad::UnloadSamplesFromRam(const std::vector<QuerySampleIndex>& samples) {
-  for (QuerySampleIndex sample_idx : samples) {
-    samples_.at(sample_idx).release();
-  }
+  arena_.Release(samples);
 }
 
 std::vector<uint8_t> Squad::ProcessOutput(const int sample_idx,
@@ -112,12 +142,13 @@ std::vector<uint8_t> Squad::ProcessOutput(const int sample_idx,
 
 float Squad::ComputeAccuracy() {
   uint32_t exact_match = 0;
+  std::string scratch;
   for (auto& it : qas_id_to_samples_) {
     const std::string& qas_id = it.first;
     // Find candidates for the best prediction.
     PrelimPrediction best_pred(0, 0, 0, -std::numeric_limits<float>::max());
     for (uint32_t sample_index : it.second) {
-      SampleRecord sample(sample_reader_.ReadRecord(sample_index));
+      SampleRecord sample(sample_reader_.ReadRecord(sample_index, &scratch));
       // Get top start and end indexes based on their logit.
       std::vector<int32_t> top_start_indexes =
           GetTopK(predictions_[sample_index]->start_logit_.data(),
@@ -157,7 +188,8 @@ float Squad::ComputeAccuracy() {
     }
 
     // Get the text from span tokens.
-    SampleRecord sample(sample_reader_.ReadRecord(best_pred.sample_index));
+    SampleRecord sample(
+        sample_reader_.ReadRecord(best_pred.sample_index, &scratch));
     std::string pred_tokens = sample.span_tokens_[best_pred.start_index];
     for (int i = best_pred.start_index + 1; i <= best_pred.end_index; ++i) {
       absl::StrAppend(&pred_tokens, " ", sample.span_tokens_[i]);
@@ -173,7 +205,7 @@ float Squad::ComputeAccuracy() {
     int doc_end = sample.token_index_map_[best_pred.end_index -
                                           sample.query_tokens_length_];
     GroundTruthRecord gt_record(
-        gt_reader_.ReadRecord(qas_id_to_ground_truth_[qas_id]));
+        gt_reader_.ReadRecord(qas_id_to_ground_truth_[qas_id], &scratch));
     if (gt_record.tokens.size() <= doc_start ||
         gt_record.words.size() <= doc_start)
       continue;
@@ -27,6 +27,7 @@ limitations under the License.
 #include "cpp/dataset.h"
 #include "cpp/datasets/squad_utils/tfrecord_reader.h"
 #include "cpp/datasets/squad_utils/types.h"
+#include "cpp/sample_arena.h"
 
 namespace mlperf {
 namespace mobile {
@@ -43,7 +44,7 @@ class Squad : public Dataset {
   const std::string& Name() const override { return name_; }
 
   // Total number of samples in library.
-  size_t TotalSampleCount() override { return samples_.size(); }
+  size_t TotalSampleCount() override { return sample_reader_.Size(); }
 
   // Loads the requested query samples into memory.
   inline void LoadSamplesToRam(
@@ -54,12 +55,8 @@ class Squad : public Dataset {
       const std::vector<QuerySampleIndex>& samples) override;
 
   // GetData returns the data of a specific input.
-  std::vector<void*> GetData(int sample_idx) override {
-    std::vector<void*> data;
-    data.push_back(samples_.at(sample_idx)->input_ids_.data());
-    data.push_back(samples_.at(sample_idx)->input_mask_.data());
-    data.push_back(samples_.at(sample_idx)->segment_ids_.data());
-    return data;
+  const std::vector<void*>& GetData(int sample_idx) override {
+    return arena_.Get(sample_idx);
   }
 
   // ProcessOutput processes the output data before sending to mlperf.
@@ -78,8 +75,9 @@ class Squad : public Dataset {
   TFRecordReader sample_reader_;
   // The random access reader to read ground truth TFRecord file.
   TFRecordReader gt_reader_;
-  // Loaded samples in RAM.
-  std::vector<std::unique_ptr<SampleRecord>> samples_;
+  // The inputs of the loaded samples. The other fields of the records are
+  // only needed to compute the accuracy, so they are read again then.
+  SampleArena arena_;
   // Store predictions to compute accuracy.
   std::vector<std::unique_ptr<MobileBertPrediction>> predictions_;
   // Store the list of samples related to a question.
@@ -0,0 +1,231 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "cpp/datasets/squad_utils/tfrecord_reader.h"
+
+#include <cstdint>
+#include <cstring>
+#include <memory>
+#include <mutex>  // NOLINT(build/c++11)
+#include <string>
+#include <utility>
+#include <vector>
+
+#include "absl/strings/match.h"
+#include "absl/strings/str_cat.h"
+#include "tensorflow/core/lib/io/record_reader.h"
+#include "tensorflow/core/platform/path.h"
+
+namespace mlperf {
+namespace mobile {
+namespace {
+constexpr uint32_t kMagic = 0x4d4c5452;  // "MLTR"
+constexpr uint32_t kVersion = 1;
+constexpr char kCacheSuffix[] = ".mlperf_cache";
+// Temporary caches older than this were left by a reader that was killed while
+// writing them. Newer ones may still be written by another reader.
+constexpr int64_t kStaleTmpNsec = 60 * 60 * 1000000000LL;
+
+// The cache holds the records and their keys, followed by the index and the
+// footer. The index is written last since the number of records is only known
+// once the source file is read.
+struct Footer {
+  uint32_t magic;
+  uint32_t version;
+  uint64_t source_size;
+  int64_t source_mtime_nsec;
+  uint64_t num_records;
+  uint64_t index_offset;
+};
+
+void DeleteStaleTmpFiles(tensorflow::Env* env, const std::string& cache_path) {
+  std::string dir(tensorflow::io::Dirname(cache_path));
+  if (dir.empty()) {
+    dir = ".";
+  }
+  const std::string prefix =
+      absl::StrCat(tensorflow::io::Basename(cache_path), ".tmp");
+  std::vector<std::string> children;
+  if (!env->GetChildren(dir, &children).ok()) {
+    return;
+  }
+  const int64_t now_nsec = env->NowMicros() * 1000;
+  for (const std::string& child : children) {
+    if (!absl::StartsWith(child, prefix)) {
+      continue;
+    }
+    const std::string path = tensorflow::io::JoinPath(dir, child);
+    tensorflow::FileStatistics stat;
+    if (env->Stat(path, &stat).ok() &&
+        now_nsec - stat.mtime_nsec > kStaleTmpNsec &&
+        env->DeleteFile(path).ok()) {
+      LOG(INFO) << "Deleted the stale cache " << path;
+    }
+  }
+}
+}  // namespace
+
+TFRecordReader::TFRecordReader(const std::string& filename,
+                               const KeyFn& key_fn) {
+  tensorflow::FileStatistics source_stat;
+  TF_CHECK_OK(tensorflow::Env::Default()->Stat(filename, &source_stat));
+  const std::string cache_path = filename + kCacheSuffix;
+  if (!Map(cache_path, source_stat) &&
+      !Build(filename, cache_path, source_stat, key_fn)) {
+    LOG(WARNING) << "Reading the records of " << filename << " on demand";
+  }
+}
+
+absl::string_view TFRecordReader::ReadRecord(uint32_t idx,
+                                             std::string* scratch) const {
+  if (data_ != nullptr) {
+    const Entry& entry = entries_[CheckIndex(idx)];
+    return absl::string_view(data_ + entry.record_offset, entry.record_length);
+  }
+  tensorflow::uint64 offset = source_offsets_[CheckIndex(idx)];
+  tensorflow::tstring record;
+  {
+    std::lock_guard<std::mutex> lock(source_mutex_);
+    if (!source_reader_->ReadRecord(&offset, &record).ok()) {
+      LOG(FATAL) << "Failed to read tfrecord file";
+    }
+  }
+  scratch->assign(record.data(), record.size());
+  return *scratch;
+}
+
+bool TFRecordReader::Map(const std::string& cache_path,
+                         const tensorflow::FileStatistics& source_stat) {
+  std::unique_ptr<tensorflow::ReadOnlyMemoryRegion> region;
+  if (!tensorflow::Env::Default()
+           ->NewReadOnlyMemoryRegionFromFile(cache_path, &region)
+           .ok()) {
+    return false;
+  }
+  if (!Parse(static_cast<const char*>(region->data()), region->length(),
+             source_stat)) {
+    return false;
+  }
+  region_ = std::move(region);
+  return true;
+}
+
+bool TFRecordReader::Parse(const char* data, uint64_t size,
+                           const tensorflow::FileStatistics& source_stat) {
+  Footer footer;
+  if (size < sizeof(footer)) {
+    return false;
+  }
+  std::memcpy(&footer, data + size - sizeof(footer), sizeof(footer));
+  if (footer.magic != kMagic || footer.version != kVersion ||
+      footer.source_size != static_cast<uint64_t>(source_stat.length) ||
+      footer.source_mtime_nsec != source_stat.mtime_nsec ||
+      footer.index_offset + footer.num_records * sizeof(Entry) !=
+          size - sizeof(footer)) {
+    return false;
+  }
+  entries_.resize(footer.num_records);
+  std::memcpy(entries_.data(), data + footer.index_offset,
+              footer.num_records * sizeof(Entry));
+  for (const Entry& entry : entries_) {
+    if (entry.record_offset + entry.record_length > footer.index_offset ||
+        entry.key_offset + entry.key_length > footer.index_offset) {
+      entries_.clear();
+      return false;
+    }
+  }
+  data_ = data;
+  return true;
+}
+
+bool TFRecordReader::Build(const std::string& filename,
+                           const std::string& cache_path,
+                           const tensorflow::FileStatistics& source_stat,
+                           const KeyFn& key_fn) {
+  tensorflow::Env* env = tensorflow::Env::Default();
+  DeleteStaleTmpFiles(env, cache_path);
+  // Another reader may build the same cache, so each one has its own
+  // temporary file and the last rename wins.
+  const std::string tmp_path =
+      absl::StrCat(cache_path, ".tmp", env->NowMicros());
+  std::unique_ptr<tensorflow::WritableFile> cache_file;
+  tensorflow::Status status = env->NewWritableFile(tmp_path, &cache_file);
+  uint64_t size = 0;
+  // Writing stops at the first error, but the source is still indexed.
+  auto append = [&cache_file, &size, &status](absl::string_view bytes) {
+    if (status.ok()) {
+      status = cache_file->Append(
+          tensorflow::StringPiece(bytes.data(), bytes.size()));
+    }
+    size += bytes.size();
+  };
+
+  TF_CHECK_OK(env->NewRandomAccessFile(filename, &source_file_));
+  source_reader_.reset(new tensorflow::io::RecordReader(
+      source_file_.get(),
+      tensorflow::io::RecordReaderOptions::CreateRecordReaderOptions("ZLIB")));
+  std::vector<Entry> entries;
+  tensorflow::uint64 offset = 0;
+  tensorflow::tstring record;
+  // Records are read in order, which doesn't restart the decompression.
+  for (tensorflow::uint64 record_start = 0;
+       source_reader_->ReadRecord(&offset, &record).ok();
+       record_start = offset) {
+    absl::string_view record_view(record.data(), record.size());
+    std::string key = key_fn(record_view);
+    entries.push_back({size, record_view.size(), size + record_view.size(),
+                       key.size()});
+    append(record_view);
+    append(key);
+    source_offsets_.push_back(record_start);
+    keys_.push_back(std::move(key));
+  }
+
+  Footer footer = {kMagic,
+                   kVersion,
+                   static_cast<uint64_t>(source_stat.length),
+                   source_stat.mtime_nsec,
+                   entries.size(),
+                   size};
+  append(absl::string_view(reinterpret_cast<const char*>(entries.data()),
+                           entries.size() * sizeof(Entry)));
+  append(absl::string_view(reinterpret_cast<const char*>(&footer),
+                           sizeof(footer)));
+  if (status.ok()) {
+    status = cache_file->Close();
+  }
+  if (status.ok()) {
+    status = env->RenameFile(tmp_path, cache_path);
+  }
+  if (status.ok() && Map(cache_path, source_stat)) {
+    source_reader_.reset();
+    source_file_.reset();
+    std::vector<tensorflow::uint64>().swap(source_offsets_);
+    std::vector<std::string>().swap(keys_);
+    return true;
+  }
+
+  if (status.ok()) {
+    LOG(WARNING) << "Failed to map " << cache_path;
+    env->DeleteFile(cache_path).IgnoreError();
+  } else {
+    LOG(WARNING) << "Failed to write " << cache_path << ": " << status;
+    cache_file.reset();
+    env->DeleteFile(tmp_path).IgnoreError();
+  }
+  return false;
+}
+
+}  // namespace mobile
+}  // namespace mlperf
@@ -15,52 +15,102 @@ limitations under the License.
 #ifndef MLPERF_DATASETS_SQUAD_UTILS_TFRECORD_READER_H_
 #define MLPERF_DATASETS_SQUAD_UTILS_TFRECORD_READER_H_
 
+#include <cstdint>
+#include <functional>
+#include <memory>
+#include <mutex>  // NOLINT(build/c++11)
+#include <string>
+#include <vector>
+
+#include "absl/strings/string_view.h"
 #include "tensorflow/core/lib/io/record_reader.h"
+#include "tensorflow/core/platform/env.h"
+#include "tensorflow/core/platform/file_statistics.h"
+#include "tensorflow/core/platform/logging.h"
 
 namespace mlperf {
 namespace mobile {
 
-// TFRecordReader is similar to tensorflow::io::RecordReader. However, it allows
-// users to get the number of records in the file and random access to a record
-// using its index instead of offset.
+// TFRecordReader gives random access to the records of a compressed TFRecord
+// file by their index.
+//
+// The first time a file is read, its records are decompressed into a cache
+// file next to it, together with an index of their offsets and a key of each
+// record. Later readers map the cache in memory, so opening the file doesn't
+// scan it and records are read in place. The cache is rebuilt when the size
+// or the modification time of the file changes. If it can't be written, the
+// keys and the offsets of the records in the file are kept in memory instead,
+// and the records are read from the file when needed.
+//
+// The cache is named after the file, so the ModelCache of the app pins and
+// evicts it with the file.
 class TFRecordReader {
  public:
-  TFRecordReader(const std::string& filename) {
-    TF_CHECK_OK(tensorflow::Env::Default()->NewRandomAccessFile(
-        filename, &random_access_file_));
-    auto options =
-        tensorflow::io::RecordReaderOptions::CreateRecordReaderOptions("ZLIB");
-    reader_.reset(
-        new tensorflow::io::RecordReader(random_access_file_.get(), options));
-
-    tensorflow::uint64 id = 0, offset = 0, noffset = 0;
-    tensorflow::tstring record;
-    while (reader_->ReadRecord(&noffset, &record).ok()) {
-      index_to_offset_[id++] = offset;
-      offset = noffset;
+  // Returns the key of a record, e.g. an id used to group records.
+  using KeyFn = std::function<std::string(absl::string_view record)>;
+
+  TFRecordReader(const std::string& filename, const KeyFn& key_fn);
+
+  // Returns the record at idx. It is valid as long as the reader if the cache
+  // is mapped, else it is read into scratch and valid as long as scratch.
+  absl::string_view ReadRecord(uint32_t idx, std::string* scratch) const;
+
+  // Returns the key of the record at idx.
+  absl::string_view Key(uint32_t idx) const {
+    if (data_ == nullptr) {
+      return keys_[CheckIndex(idx)];
     }
+    const Entry& entry = entries_[CheckIndex(idx)];
+    return absl::string_view(data_ + entry.key_offset, entry.key_length);
   }
 
-  tensorflow::tstring ReadRecord(int idx) {
-    if (idx >= index_to_offset_.size()) {
+  uint32_t Size() const {
+    return data_ == nullptr ? source_offsets_.size() : entries_.size();
+  }
+
+ private:
+  struct Entry {
+    uint64_t record_offset;
+    uint64_t record_length;
+    uint64_t key_offset;
+    uint64_t key_length;
+  };
+
+  uint32_t CheckIndex(uint32_t idx) const {
+    if (idx >= Size()) {
       LOG(FATAL) << "Sample index out of bound";
     }
-    tensorflow::tstring record;
-    tensorflow::uint64 offset = index_to_offset_[idx];
-    if (!reader_->ReadRecord(&offset, &record).ok()) {
-      LOG(FATAL) << "Failed to read tfrecord file";
-    }
-    return record;
+    return idx;
   }
 
-  uint32_t Size() { return index_to_offset_.size(); }
+  // Uses the cache file if it is valid for the source file.
+  bool Map(const std::string& cache_path,
+           const tensorflow::FileStatistics& source_stat);
 
- private:
-  std::unique_ptr<tensorflow::RandomAccessFile> random_access_file_;
-  std::unique_ptr<tensorflow::io::RecordReader> reader_;
-  // Map the Record index to its offset.
-  std::unordered_map<uint32_t, tensorflow::uint64> index_to_offset_;
+  // Reads the index of a cache. Returns false if it is not valid.
+  bool Parse(const char* data, uint64_t size,
+             const tensorflow::FileStatistics& source_stat);
+
+  // Decompresses the source file into the cache. Returns false if the cache
+  // couldn't be written, in which case the source file is indexed instead.
+  bool Build(const std::string& filename, const std::string& cache_path,
+             const tensorflow::FileStatistics& source_stat,
+             const KeyFn& key_fn);
+
+  // The index and the content of the mapped cache.
+  std::vector<Entry> entries_;
+  const char* data_ = nullptr;
+  std::unique_ptr<tensorflow::ReadOnlyMemoryRegion> region_;
+
+  // Without a cache, the source file is read on demand. The reader keeps the
+  // state of the decompression, so reads are serialized.
+  std::unique_ptr<tensorflow::RandomAccessFile> source_file_;
+  std::unique_ptr<tensorflow::io::RecordReader> source_reader_;
+  std::vector<tensorflow::uint64> source_offsets_;
+  std::vector<std::string> keys_;
+  mutable std::mutex source_mutex_;
 };
+
 }  // namespace mobile
 }  // namespace mlperf
 
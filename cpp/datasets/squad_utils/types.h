@@ -15,6 +15,7 @@ limitations under the License.
 #ifndef MLPERF_DATASETS_SQUAD_UTILS_TYPES_H_
 #define MLPERF_DATASETS_SQUAD_UTILS_TYPES_H_
 
+#include "absl/strings/string_view.h"
 #include "tensorflow/core/example/example.pb.h"
 #include "tensorflow/core/example/feature_util.h"
 #include "tensorflow/core/platform/types.h"
@@ -24,10 +25,10 @@ namespace mobile {
 
 // GroundTruthRecord is equivlent to records in the ground truth tfrecord file.
 struct GroundTruthRecord {
-  explicit GroundTruthRecord(const tensorflow::tstring& record) {
+  explicit GroundTruthRecord(absl::string_view record) {
     using string = google::protobuf::string;
     tensorflow::Example example;
-    CHECK(example.ParseFromString(record));
+    CHECK(example.ParseFromArray(record.data(), record.size()));
 
     qas_id = tensorflow::GetFeatureValues<string>("qas_id", example)[0];
 
@@ -55,11 +56,11 @@ struct GroundTruthRecord {
 
 // SampleRecord is equivlent to records in the input tfrecord file.
 struct SampleRecord {
-  explicit SampleRecord(const tensorflow::tstring& record) {
+  explicit SampleRecord(absl::string_view record) {
     using int64 = google::protobuf::int64;
     using string = google::protobuf::string;
     tensorflow::Example example;
-    CHECK(example.ParseFromString(record));
+    CHECK(example.ParseFromArray(record.data(), record.size()));
     // Data is stored as int64 in the tfrecord file so they need to be
     // converted to int32. Input_ids is in range [0, 30000).
     auto input_ids_values =
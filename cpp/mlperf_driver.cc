@@ -15,14 +15,26 @@ limitations under the License.
 #include "cpp/mlperf_driver.h"
 
 #include <stdint.h>
+#include <sys/stat.h>
 
+#include <algorithm>
+#include <cerrno>
+#include <chrono>  // NOLINT(build/c++11)
+#include <cmath>
 #include <memory>
+#include <mutex>   // NOLINT(build/c++11)
+#include <numeric>
 #include <string>
+#include <thread>  // NOLINT(build/c++11)
 #include <vector>
 
 #include "cpp/backend.h"
 #include "cpp/dataset.h"
+#include "cpp/proto/mlperf_task.pb.h"
+#include "cpp/steady_state.h"
+#include "cpp/telemetry.h"
 #include "cpp/utils.h"
+#include "cpp/work_stealing_queue.h"
 #include "loadgen/loadgen.h"
 #include "loadgen/query_sample_library.h"
 #include "loadgen/system_under_test.h"
@@ -30,29 +42,142 @@ limitations under the License.
 
 namespace mlperf {
 namespace mobile {
+namespace {
+bool SameFormat(const DataFormat& a, const DataFormat& b) {
+  if (a.size() != b.size()) {
+    return false;
+  }
+  for (int i = 0; i < a.size(); ++i) {
+    if (a[i].type != b[i].type || a[i].size != b[i].size) {
+      return false;
+    }
+  }
+  return true;
+}
+}  // namespace
+
+bool MlperfDriver::AddInstance(std::unique_ptr<Backend> backend) {
+  if (!SameFormat(backend->GetInputFormat(), backend_->GetInputFormat()) ||
+      !SameFormat(backend->GetOutputFormat(), backend_->GetOutputFormat())) {
+    LOG(ERROR) << "Instance " << instances_.size() + 1
+               << " has a different input or output format";
+    return false;
+  }
+  batch_buffers_.emplace_back(
+      new BatchBuffers(batch_buffers_.size(), backend->GetBatchSize()));
+  instances_.push_back(std::move(backend));
+  return true;
+}
 
 void MlperfDriver::IssueQuery(
     const std::vector<::mlperf::QuerySample>& samples) {
-  std::vector<::mlperf::QuerySampleResponse> responses;
-  std::vector<std::vector<uint8_t>> response_data;
+  query_start_ = std::chrono::steady_clock::now();
+  if (instances_.empty() || samples.size() == 1) {
+    const int batch_size = backend_->GetBatchSize();
+    BatchBuffers* buffers = batch_buffers_[0].get();
+    std::vector<const ::mlperf::QuerySample*>& batch = buffers->batch;
+    batch.clear();
+    for (const ::mlperf::QuerySample& sample : samples) {
+      batch.push_back(&sample);
+      if (batch.size() == batch_size) {
+        RunBatch(backend_.get(), buffers);
+        batch.clear();
+      }
+    }
+    if (!batch.empty()) {
+      RunBatch(backend_.get(), buffers);
+    }
+    return;
+  }
+
+  // Each instance starts with a contiguous part of the samples and steals
+  // from the others once it is done.
+  const int num_instances = instances_.size() + 1;
+  WorkStealingQueue<const ::mlperf::QuerySample*> queue(num_instances);
   for (int idx = 0; idx < samples.size(); ++idx) {
-    ::mlperf::QuerySample sample = samples.at(idx);
-    std::vector<void*> inputs = dataset_->GetData(sample.index);
-    backend_->SetInputs(inputs);
-    backend_->IssueQuery();
-
-    // Report to mlperf.
-    std::vector<void*> outputs = backend_->GetPredictedOutputs();
-    response_data.push_back(dataset_->ProcessOutput(sample.index, outputs));
-    responses.push_back(
-        {sample.id, reinterpret_cast<std::uintptr_t>(response_data[idx].data()),
-         response_data[idx].size()});
-  }
-  ::mlperf::QuerySamplesComplete(responses.data(), responses.size());
+    queue.Push(static_cast<int64_t>(idx) * num_instances / samples.size(),
+               &samples[idx]);
+  }
+  auto run_instance = [this, &queue](int instance, Backend* backend) {
+    BatchBuffers* buffers = batch_buffers_[instance].get();
+    while (queue.PopBatch(instance, backend->GetBatchSize(),
+                          &buffers->batch) > 0) {
+      RunBatch(backend, buffers);
+    }
+  };
+  std::vector<std::thread> threads;
+  for (int i = 1; i < num_instances; ++i) {
+    threads.emplace_back(run_instance, i, instances_[i - 1].get());
+  }
+  run_instance(0, backend_.get());
+  for (std::thread& thread : threads) {
+    thread.join();
+  }
+}
+
+bool MlperfDriver::ShouldStop() {
+  if (!cancelled_ && has_deadline_ &&
+      std::chrono::steady_clock::now() > deadline_) {
+    // Only logged by the first thread noticing it.
+    if (!cancelled_.exchange(true)) {
+      LOG(WARNING) << "The run exceeded its time budget, stopping it";
+    }
+  }
+  return cancelled_;
+}
+
+void MlperfDriver::RunBatch(Backend* backend, BatchBuffers* buffers) {
+  const std::vector<const ::mlperf::QuerySample*>& batch = buffers->batch;
+  // Stopped runs complete the remaining samples with empty responses.
+  const bool skip = ShouldStop();
+  if (!skip) {
+    // The last batch may be partial, the remaining slots keep stale inputs
+    // and their outputs are ignored.
+    for (int idx = 0; idx < batch.size(); ++idx) {
+      backend->SetBatchInputs(idx, dataset_->GetData(batch[idx]->index));
+    }
+    backend->IssueQuery();
+  }
+
+  // Report to mlperf. Loadgen copies the response data before
+  // QuerySamplesComplete returns, so the buffers can be reused afterward.
+  for (int idx = 0; idx < batch.size(); ++idx) {
+    ::mlperf::QuerySampleResponse& response = buffers->responses[idx];
+    response.id = batch[idx]->id;
+    if (skip || !process_outputs_) {
+      response.data = 0;
+      response.size = 0;
+      continue;
+    }
+    std::vector<uint8_t>& data = buffers->response_data[idx];
+    {
+      std::lock_guard<std::mutex> lock(process_output_mutex_);
+      data = dataset_->ProcessOutput(batch[idx]->index,
+                                     backend->GetBatchOutputs(idx));
+    }
+    response.data = reinterpret_cast<std::uintptr_t>(data.data());
+    response.size = data.size();
+  }
+  ::mlperf::QuerySamplesComplete(buffers->responses.data(), batch.size());
+  if (skip) {
+    return;
+  }
+
+  const int64_t latency_ns =
+      std::chrono::duration_cast<std::chrono::nanoseconds>(
+          std::chrono::steady_clock::now() - query_start_)
+          .count();
+  buffers->latencies_ns.insert(buffers->latencies_ns.end(), batch.size(),
+                               latency_ns);
+  if (telemetry_) {
+    for (int idx = 0; idx < batch.size(); ++idx) {
+      telemetry_->Record(buffers->index, latency_ns);
+    }
+  }
 }
 
 void MlperfDriver::RunMLPerfTest(const std::string& mode,
-                                 const std::string& scenario,
+                                 const ScenarioConfig& scenario,
                                  int min_query_count, int min_duration,
                                  const std::string& output_dir) {
   // Setting the mlperf configs.
@@ -61,37 +186,80 @@ void MlperfDriver::RunMLPerfTest(const std::string& mode,
   log_settings.log_output.outdir = output_dir;
   log_settings.log_output.copy_summary_to_stdout = true;
 
-  if (scenario == kMobilenetOfflineScenario) {
-    mlperf_settings.scenario = ::mlperf::TestScenario::Offline;
-    mlperf_settings.performance_sample_count_override =
-        kMobilenetOfflineSampleCount;
-    mlperf_settings.min_duration_ms = kMobilenetOfflineMinDurationMs;
-    mlperf_settings.offline_expected_qps = kMobilenetOfflineExpectedQps;
-    mlperf_settings.mode = TestMode::PerformanceOnly;
-    ::mlperf::StartTest(this, dataset_.get(), mlperf_settings, log_settings);
-    return;
-  } else {
-    mlperf_settings.scenario = ::mlperf::TestScenario::SingleStream;
-    mlperf_settings.single_stream_expected_latency_ns = 1000000;
-    mlperf_settings.min_duration_ms = min_duration;
-    mlperf_settings.min_query_count = min_query_count;
+  mlperf_settings.min_query_count = min_query_count;
+  mlperf_settings.min_duration_ms = scenario.has_min_duration_ms()
+                                        ? scenario.min_duration_ms()
+                                        : min_duration;
+  // The memory budget caps the count of the config, which may only lower it.
+  const size_t budget_sample_count = dataset_->PerformanceSampleCount();
+  size_t performance_sample_count = budget_sample_count;
+  if (scenario.performance_sample_count() > 0) {
+    performance_sample_count = std::min<size_t>(
+        scenario.performance_sample_count(), budget_sample_count);
+    if (static_cast<size_t>(scenario.performance_sample_count()) >
+        budget_sample_count) {
+      LOG(WARNING) << "The performance sample count "
+                   << scenario.performance_sample_count()
+                   << " exceeds the memory budget of " << budget_sample_count
+                   << " samples, using " << budget_sample_count;
+    }
+  }
+  mlperf_settings.performance_sample_count_override = performance_sample_count;
+  switch (scenario.scenario()) {
+    case ScenarioConfig::SINGLE_STREAM:
+      mlperf_settings.scenario = ::mlperf::TestScenario::SingleStream;
+      mlperf_settings.single_stream_expected_latency_ns =
+          scenario.single_stream_expected_latency_ns();
+      break;
+    case ScenarioConfig::OFFLINE:
+      mlperf_settings.scenario = ::mlperf::TestScenario::Offline;
+      mlperf_settings.offline_expected_qps = scenario.offline_expected_qps();
+      break;
+    case ScenarioConfig::MULTI_STREAM:
+      mlperf_settings.scenario = ::mlperf::TestScenario::MultiStream;
+      mlperf_settings.multi_stream_samples_per_query =
+          scenario.multi_stream_samples_per_query();
+      mlperf_settings.multi_stream_target_qps =
+          scenario.multi_stream_target_qps();
+      mlperf_settings.multi_stream_target_latency_ns =
+          scenario.multi_stream_target_latency_ns();
+      break;
   }
 
+  has_deadline_ = scenario.max_duration_ms() > 0;
+  if (has_deadline_) {
+    deadline_ = std::chrono::steady_clock::now() +
+                std::chrono::milliseconds(scenario.max_duration_ms());
+  }
+  warmup_queries_ = 0;
+  warmup_duration_ns_ = 0;
+  warmup_steady_ = true;
+  performance_samples_ = 0;
+  performance_duration_ns_ = 0;
+
   // Start the test.
   switch (Str2TestMode(mode)) {
     case TestMode::SubmissionRun:
       mlperf_settings.mode = TestMode::AccuracyOnly;
-      ::mlperf::StartTest(this, dataset_.get(), mlperf_settings, log_settings);
+      process_outputs_ = true;
+      StartTest(mlperf_settings, log_settings);
       mlperf_settings.mode = TestMode::PerformanceOnly;
-      ::mlperf::StartTest(this, dataset_.get(), mlperf_settings, log_settings);
+      process_outputs_ = false;
+      // Only the performance test is warmed up, the accuracy test doesn't
+      // measure latencies.
+      Warmup(scenario.warmup());
+      RunPerformanceTest(mlperf_settings, log_settings, scenario.adaptive());
       break;
     case TestMode::AccuracyOnly:
       mlperf_settings.mode = TestMode::AccuracyOnly;
-      ::mlperf::StartTest(this, dataset_.get(), mlperf_settings, log_settings);
+      process_outputs_ = true;
+      StartTest(mlperf_settings, log_settings);
       break;
     case TestMode::PerformanceOnly:
       mlperf_settings.mode = TestMode::PerformanceOnly;
-      ::mlperf::StartTest(this, dataset_.get(), mlperf_settings, log_settings);
+      process_outputs_ = false;
+      Warmup(scenario.warmup());
+      RunPerformanceTest(mlperf_settings, log_settings, scenario.adaptive());
       break;
     case TestMode::FindPeakPerformance:
       LOG(FATAL) << "FindPeakPerformance mode is not supported";
@@ -99,5 +267,148 @@ void MlperfDriver::RunMLPerfTest(const std::string& mode,
   }
 }
 
+void MlperfDriver::RunPerformanceTest(
+    ::mlperf::TestSettings mlperf_settings,
+    const ::mlperf::LogSettings& log_settings,
+    const AdaptiveConfig& adaptive) {
+  const size_t first_latency = latencies_ns_.size();
+  const bool adapt =
+      adaptive.max_relative_width() > 0 &&
+      mlperf_settings.scenario != ::mlperf::TestScenario::Offline;
+  std::vector<int64_t> sorted_ns;
+  ::mlperf::LogSettings round_log_settings = log_settings;
+  performance_rounds_ = 0;
+  while (true) {
+    const auto test_start = std::chrono::steady_clock::now();
+    StartTest(mlperf_settings, round_log_settings);
+    performance_duration_ns_ +=
+        std::chrono::duration_cast<std::chrono::nanoseconds>(
+            std::chrono::steady_clock::now() - test_start)
+            .count();
+    ++performance_rounds_;
+    performance_samples_ = latencies_ns_.size() - first_latency;
+    sorted_ns.assign(latencies_ns_.begin() + first_latency,
+                     latencies_ns_.end());
+    std::sort(sorted_ns.begin(), sorted_ns.end());
+    latency_interval_ = ComputePercentileInterval(
+        sorted_ns, adaptive.percentile(), adaptive.confidence());
+    const double width = latency_interval_.RelativeWidth();
+    const int64_t count = sorted_ns.size();
+    if (!adapt || ShouldStop() || count == 0 ||
+        width <= adaptive.max_relative_width() ||
+        count >= adaptive.max_query_count()) {
+      break;
+    }
+    // The width shrinks about as 1 / sqrt(count). Each test runs at least a
+    // tenth more queries so that it is worth its fixed cost.
+    const double ratio = width / adaptive.max_relative_width();
+    int64_t more = static_cast<int64_t>(std::ceil(count * ratio * ratio));
+    more = std::max<int64_t>(more - count, std::max<int64_t>(count / 10, 1));
+    more = std::min<int64_t>(more, adaptive.max_query_count() - count);
+    LOG(INFO) << "Relative width " << width << " after " << count
+              << " queries, running " << more << " more";
+    mlperf_settings.min_query_count = more;
+    mlperf_settings.max_query_count = more;
+    mlperf_settings.min_duration_ms = 0;
+    // Each test has its own logs, so the ones of the first test are kept.
+    round_log_settings.log_output.outdir =
+        log_settings.log_output.outdir + "/round_" +
+        std::to_string(performance_rounds_ + 1);
+    if (mkdir(round_log_settings.log_output.outdir.c_str(), 0755) != 0 &&
+        errno != EEXIST) {
+      LOG(ERROR) << "Failed to create "
+                 << round_log_settings.log_output.outdir;
+    }
+  }
+  if (adapt && latency_interval_.RelativeWidth() >
+                   adaptive.max_relative_width()) {
+    LOG(WARNING) << "The confidence interval is still "
+                 << latency_interval_.RelativeWidth() << " wide after "
+                 << performance_rounds_ << " tests";
+  }
+}
+
+void MlperfDriver::Warmup(const WarmupConfig& config) {
+  if (config.max_queries() <= 0 || ShouldStop()) {
+    return;
+  }
+  const auto start = std::chrono::steady_clock::now();
+  // A window of samples is enough, they are reused for all the inferences.
+  const size_t num_samples = std::min<size_t>(
+      {dataset_->PerformanceSampleCount(), dataset_->TotalSampleCount(),
+       static_cast<size_t>(std::max(1, config.window()))});
+  std::vector<::mlperf::QuerySampleIndex> samples(num_samples);
+  std::iota(samples.begin(), samples.end(), 0);
+  dataset_->LoadSamplesToRam(samples);
+
+  std::vector<Backend*> backends = {backend_.get()};
+  for (auto& instance : instances_) {
+    backends.push_back(instance.get());
+  }
+  for (int b = 0; b < backends.size(); ++b) {
+    Backend* backend = backends[b];
+    const int batch_size = backend->GetBatchSize();
+    SteadyStateDetector detector(config.window(), config.max_cv());
+    const auto end = std::chrono::steady_clock::now() +
+                     std::chrono::milliseconds(config.max_duration_ms());
+    // The limit counts samples, a batch runs batch_size of them while the
+    // detector sees a single latency.
+    int64_t sample = 0;
+    while (sample < config.max_queries() && !detector.Steady() &&
+           std::chrono::steady_clock::now() < end && !ShouldStop()) {
+      for (int idx = 0; idx < batch_size; ++idx) {
+        backend->SetBatchInputs(
+            idx, dataset_->GetData(samples[sample++ % num_samples]));
+      }
+      const auto query_start = std::chrono::steady_clock::now();
+      backend->IssueQuery();
+      detector.Add(std::chrono::duration_cast<std::chrono::nanoseconds>(
+                       std::chrono::steady_clock::now() - query_start)
+                       .count());
+    }
+    warmup_queries_ += sample;
+    if (!detector.Steady()) {
+      warmup_steady_ = false;
+      LOG(WARNING) << "Backend " << b << " is not steady after " << sample
+                   << " warm-up inferences, cv "
+                   << detector.Cv();
+    }
+  }
+  dataset_->UnloadSamplesFromRam(samples);
+  warmup_duration_ns_ = std::chrono::duration_cast<std::chrono::nanoseconds>(
+                            std::chrono::steady_clock::now() - start)
+                            .count();
+  LOG(INFO) << "Warmed up with " << warmup_queries_ << " inferences in "
+            << warmup_duration_ns_ / 1000000 << " ms";
+}
+
+void MlperfDriver::StartTest(const ::mlperf::TestSettings& mlperf_settings,
+                             const ::mlperf::LogSettings& log_settings) {
+  if (cancelled_) {
+    return;
+  }
+  for (auto& buffers : batch_buffers_) {
+    buffers->latencies_ns.clear();
+  }
+  const size_t reported_latencies = latencies_ns_.size();
+  // Each test gets its own series of statistics.
+  if (telemetry_) {
+    telemetry_->Start(batch_buffers_.size());
+  }
+  ::mlperf::StartTest(this, dataset_.get(), mlperf_settings, log_settings);
+  if (telemetry_) {
+    telemetry_->Stop();
+  }
+  if (cancelled_) {
+    // LoadGen also reports the samples completed without running them, only
+    // the measured latencies are kept.
+    latencies_ns_.resize(reported_latencies);
+    for (auto& buffers : batch_buffers_) {
+      latencies_ns_.insert(latencies_ns_.end(), buffers->latencies_ns.begin(),
+                           buffers->latencies_ns.end());
+    }
+  }
+}
+
 }  // namespace mobile
 }  // namespace mlperf
@@ -19,15 +19,22 @@ limitations under the License.
 #include <stdint.h>
 
 #include <algorithm>
+#include <atomic>
+#include <chrono>  // NOLINT(build/c++11)
 #include <iomanip>
 #include <memory>
+#include <mutex>  // NOLINT(build/c++11)
 #include <sstream>
 #include <string>
 #include <vector>
 
 #include "cpp/backend.h"
 #include "cpp/dataset.h"
+#include "cpp/proto/mlperf_task.pb.h"
+#include "cpp/telemetry.h"
+#include "cpp/utils.h"
 #include "loadgen/system_under_test.h"
+#include "loadgen/test_settings.h"
 
 namespace mlperf {
 namespace mobile {
@@ -37,19 +44,73 @@ class MlperfDriver : public ::mlperf::SystemUnderTest {
  public:
   MlperfDriver(std::unique_ptr<Dataset> dataset,
                std::unique_ptr<Backend> backend)
-      : dataset_(std::move(dataset)), backend_(std::move(backend)) {}
+      : dataset_(std::move(dataset)), backend_(std::move(backend)) {
+    batch_buffers_.emplace_back(
+        new BatchBuffers(0, backend_->GetBatchSize()));
+  }
 
   ~MlperfDriver() override {}
 
-  // Runs MLPerf tests.
-  void RunMLPerfTest(const std::string& mode, const std::string& scenario,
+  // Adds a backend instance to run the samples of a query in parallel with
+  // the others. It must take the same inputs and outputs as the first backend.
+  // Returns false if it doesn't.
+  bool AddInstance(std::unique_ptr<Backend> backend);
+
+  // Runs MLPerf tests in the given scenario. min_duration is in ms and is
+  // overridden by the one of the scenario if set. The backends are warmed up
+  // first as configured by the scenario.
+  void RunMLPerfTest(const std::string& mode, const ScenarioConfig& scenario,
                      int min_query_count, int min_duration,
                      const std::string& output_dir);
 
+  // Sets the memory available to the loaded samples. It applies from the next
+  // test, including the second test of a submission run.
+  void SetMemoryBudget(size_t bytes) { dataset_->SetMemoryBudget(bytes); }
+
+  // Records the latency of every completed sample in telemetry while tests
+  // run, nullptr stops it. The driver does not own telemetry.
+  void SetTelemetry(Telemetry* telemetry) { telemetry_ = telemetry; }
+
+  // Stops the running test as soon as possible and skips the following ones.
+  // It can be called from any thread. The samples not run yet are completed
+  // without running them so that LoadGen ends the test quickly. A cancelled
+  // driver doesn't run samples anymore.
+  void Cancel() { cancelled_ = true; }
+
+  // Whether the driver was cancelled or a run exceeded its time budget. The
+  // latencies of the stopped test then only cover the samples that ran.
+  bool Cancelled() const { return cancelled_; }
+
+  // Number of untimed inferences, i.e. samples, run by all the backends to
+  // warm up before the performance test of the last run, how long it took and
+  // whether all of them reached a steady latency, i.e. did not stop on the
+  // limits of the warm-up.
+  int64_t WarmupQueries() const { return warmup_queries_; }
+  int64_t WarmupDurationNs() const { return warmup_duration_ns_; }
+  bool WarmupSteady() const { return warmup_steady_; }
+
+  // The confidence interval of the latency percentile of the last performance
+  // test, or of the tests of an adaptive run, see AdaptiveConfig.
+  const PercentileInterval& LatencyInterval() const {
+    return latency_interval_;
+  }
+
+  // Number of LoadGen tests of the last performance test, more than 1 when
+  // its length was adapted. The logs in the output directory are the ones of
+  // the first test, see AdaptiveConfig.
+  int PerformanceRounds() const { return performance_rounds_; }
+
+  // Number of samples run by the LoadGen tests of the last performance test
+  // and how long these tests took, 0 if there was none. Unlike the latencies,
+  // they leave out the accuracy test of a submission run and the warm-up.
+  int64_t PerformanceSamples() const { return performance_samples_; }
+  int64_t PerformanceDurationNs() const { return performance_duration_ns_; }
+
   // A human-readable string for loggin purposes.
   const std::string& Name() const override { return backend_->Name(); }
 
   // Run N samples generated by loadgen. This function blocks until completion.
+  // With several instances, the samples are spread across them.
   void IssueQuery(const std::vector<::mlperf::QuerySample>& samples) override;
 
   // Flush the staged queries immediately.
@@ -71,6 +132,10 @@ class MlperfDriver : public ::mlperf::SystemUnderTest {
     return static_cast<float>(latencies_ns_[latencies_ns_.size() * 0.9]) / 1e6;
   }
 
+  // Returns the latencies reported by loadgen in ns. The order of the samples
+  // is not specified. The reference is valid until the next test is run.
+  const std::vector<int64_t>& GetLatencies() const { return latencies_ns_; }
+
   // Forms a string to report 90 percentile latency in ms.
   std::string ComputeLatencyString() {
     if (latencies_ns_.empty()) {
@@ -90,8 +155,71 @@ class MlperfDriver : public ::mlperf::SystemUnderTest {
   }
 
  private:
+  // Buffers reused by all batches run on a backend, so that running queries
+  // does not allocate memory once the outputs are not processed.
+  struct BatchBuffers {
+    BatchBuffers(int index, int batch_size)
+        : index(index), responses(batch_size), response_data(batch_size) {
+      batch.reserve(batch_size);
+    }
+
+    // Index of the backend, also its telemetry producer.
+    const int index;
+    // Latencies of the samples run during the current test, in case it is
+    // stopped before LoadGen reports them.
+    std::vector<int64_t> latencies_ns;
+    std::vector<const ::mlperf::QuerySample*> batch;
+    std::vector<::mlperf::QuerySampleResponse> responses;
+    std::vector<std::vector<uint8_t>> response_data;
+  };
+
+  // Runs the batch of samples in buffers on the backend and reports them to
+  // loadgen.
+  void RunBatch(Backend* backend, BatchBuffers* buffers);
+
+  // Runs the performance test, then more tests until the confidence interval
+  // of the latency percentile is narrow enough if adaptive asks for it.
+  void RunPerformanceTest(::mlperf::TestSettings mlperf_settings,
+                          const ::mlperf::LogSettings& log_settings,
+                          const AdaptiveConfig& adaptive);
+
+  // Runs untimed inferences on each backend until its latency is steady.
+  void Warmup(const WarmupConfig& config);
+
+  // Returns true if the samples should not be run anymore, either because of
+  // Cancel or because the time budget of the run is exceeded.
+  bool ShouldStop();
+
+  // Runs one loadgen test, recording it in telemetry_ if set.
+  void StartTest(const ::mlperf::TestSettings& mlperf_settings,
+                 const ::mlperf::LogSettings& log_settings);
+
   std::unique_ptr<Dataset> dataset_;
   std::unique_ptr<Backend> backend_;
+  // Backends running in parallel with backend_, each on its own thread.
+  std::vector<std::unique_ptr<Backend>> instances_;
+  // The buffers of backend_ followed by the ones of each instance.
+  std::vector<std::unique_ptr<BatchBuffers>> batch_buffers_;
+  // Whether the outputs are processed by the dataset. The performance tests
+  // only measure the latencies so they skip it.
+  bool process_outputs_ = true;
+  // Not owned, may be null.
+  Telemetry* telemetry_ = nullptr;
+  // When loadgen issued the current query.
+  std::chrono::steady_clock::time_point query_start_;
+  std::atomic<bool> cancelled_{false};
+  // End of the time budget of the current run, if it has one.
+  bool has_deadline_ = false;
+  std::chrono::steady_clock::time_point deadline_;
+  int64_t warmup_queries_ = 0;
+  int64_t warmup_duration_ns_ = 0;
+  bool warmup_steady_ = true;
+  PercentileInterval latency_interval_;
+  int performance_rounds_ = 0;
+  int64_t performance_samples_ = 0;
+  int64_t performance_duration_ns_ = 0;
+  // Datasets are not thread safe when processing outputs.
+  std::mutex process_output_mutex_;
   // Reported latency from MLPerf.
   std::vector<int64_t> latencies_ns_;
 };
@@ -0,0 +1,255 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "mlperf_driver.h"
+
+#include <gmock/gmock.h>
+#include <gtest/gtest.h>
+
+#include <algorithm>
+#include <atomic>
+#include <chrono>  // NOLINT(build/c++11)
+#include <cstdint>
+#include <functional>
+#include <memory>
+#include <numeric>
+#include <string>
+#include <thread>  // NOLINT(build/c++11)
+#include <vector>
+
+#include "cpp/datasets/dummy_dataset.h"
+#include "cpp/proto/mlperf_task.pb.h"
+#include "cpp/utils.h"
+
+namespace mlperf {
+namespace mobile {
+namespace {
+
+constexpr int kSampleSize = 4;
+// The memory budget loads this many samples at once, so LoadGen issues the
+// 1024 samples of the dummy dataset in several queries.
+constexpr int kLoadedSamples = 100;
+
+DataFormat SampleFormat() { return {DataType(DataType::Uint8, kSampleSize)}; }
+
+// The samples processed by a RecordingDataset.
+struct Record {
+  // Number of times the output of each sample was processed.
+  std::vector<int> processed;
+  // Number of outputs that were not the inputs of their sample.
+  int mismatches = 0;
+
+  size_t ProcessedCount() const {
+    return std::accumulate(processed.begin(), processed.end(), size_t{0});
+  }
+
+  bool ProcessedAtMostOnce() const {
+    return std::all_of(processed.begin(), processed.end(),
+                       [](int count) { return count <= 1; });
+  }
+};
+
+// A DummyDataset recording the outputs it processes in record.
+class RecordingDataset : public DummyDataset {
+ public:
+  explicit RecordingDataset(Record* record)
+      : DummyDataset(SampleFormat(), SampleFormat(), DatasetConfig::NONE),
+        record_(record) {
+    record_->processed.assign(TotalSampleCount(), 0);
+  }
+
+  std::vector<uint8_t> ProcessOutput(
+      const int sample_idx, const std::vector<void*>& outputs) override {
+    ++record_->processed[sample_idx];
+    const uint8_t* input = static_cast<const uint8_t*>(GetData(sample_idx)[0]);
+    const uint8_t* output = static_cast<const uint8_t*>(outputs[0]);
+    if (!std::equal(input, input + kSampleSize, output)) {
+      ++record_->mismatches;
+    }
+    return std::vector<uint8_t>(output, output + kSampleSize);
+  }
+
+ private:
+  Record* record_;
+};
+
+// Copies the inputs of each sample of a batch to its outputs, and calls
+// on_batch after each batch.
+class EchoBackend : public Backend {
+ public:
+  EchoBackend(int batch_size, std::function<void()> on_batch)
+      : batch_size_(batch_size),
+        on_batch_(std::move(on_batch)),
+        inputs_(batch_size, std::vector<uint8_t>(kSampleSize)),
+        outputs_(batch_size, std::vector<uint8_t>(kSampleSize)),
+        output_ptrs_(batch_size),
+        format_(SampleFormat()) {
+    for (int idx = 0; idx < batch_size; ++idx) {
+      output_ptrs_[idx] = {outputs_[idx].data()};
+    }
+  }
+
+  const std::string& Name() const override { return name_; }
+  void IssueQuery() override {
+    for (int idx = 0; idx < batch_size_; ++idx) {
+      std::copy(inputs_[idx].begin(), inputs_[idx].end(),
+                outputs_[idx].begin());
+    }
+    if (on_batch_) {
+      on_batch_();
+    }
+  }
+  void FlushQueries() override {}
+  void SetInputs(const std::vector<void*>& inputs) override {
+    SetBatchInputs(0, inputs);
+  }
+  std::vector<void*> GetPredictedOutputs() override { return output_ptrs_[0]; }
+  int GetBatchSize() const override { return batch_size_; }
+  void SetBatchInputs(int batch_idx,
+                      const std::vector<void*>& inputs) override {
+    const uint8_t* input = static_cast<const uint8_t*>(inputs[0]);
+    std::copy(input, input + kSampleSize, inputs_[batch_idx].begin());
+  }
+  const std::vector<void*>& GetBatchOutputs(int batch_idx) override {
+    return output_ptrs_[batch_idx];
+  }
+  const DataFormat& GetInputFormat() override { return format_; }
+  const DataFormat& GetOutputFormat() override { return format_; }
+
+ private:
+  const std::string name_ = "Echo";
+  const int batch_size_;
+  std::function<void()> on_batch_;
+  std::vector<std::vector<uint8_t>> inputs_;
+  std::vector<std::vector<uint8_t>> outputs_;
+  std::vector<std::vector<void*>> output_ptrs_;
+  DataFormat format_;
+};
+
+std::unique_ptr<MlperfDriver> NewDriver(Record* record, int batch_size,
+                                        std::function<void()> on_batch) {
+  std::unique_ptr<MlperfDriver> driver(new MlperfDriver(
+      std::unique_ptr<Dataset>(new RecordingDataset(record)),
+      std::unique_ptr<Backend>(new EchoBackend(batch_size, on_batch))));
+  driver->SetMemoryBudget(kLoadedSamples * kSampleSize);
+  return driver;
+}
+
+ScenarioConfig Offline() {
+  ScenarioConfig scenario;
+  scenario.set_scenario(ScenarioConfig::OFFLINE);
+  scenario.set_offline_expected_qps(1000);
+  return scenario;
+}
+
+// Runs the accuracy test, which issues every sample of the dataset once.
+void RunAccuracyTest(MlperfDriver* driver, const ScenarioConfig& scenario) {
+  driver->RunMLPerfTest("AccuracyOnly", scenario, 1, 0, ::testing::TempDir());
+}
+
+TEST(MlperfDriver, AnswersEverySampleOnceAcrossInstances) {
+  Record record;
+  std::unique_ptr<MlperfDriver> driver = NewDriver(&record, 3, nullptr);
+  ASSERT_TRUE(driver->AddInstance(
+      std::unique_ptr<Backend>(new EchoBackend(2, nullptr))));
+  ASSERT_TRUE(driver->AddInstance(
+      std::unique_ptr<Backend>(new EchoBackend(4, nullptr))));
+  RunAccuracyTest(driver.get(), Offline());
+  EXPECT_FALSE(driver->Cancelled());
+  EXPECT_THAT(record.processed, ::testing::Each(1));
+  EXPECT_EQ(record.mismatches, 0);
+}
+
+TEST(MlperfDriver, AnswersThePartialLastBatch) {
+  Record record;
+  std::atomic<int> batches{0};
+  // Neither the loaded samples nor the dataset are a multiple of 7.
+  std::unique_ptr<MlperfDriver> driver =
+      NewDriver(&record, 7, [&batches] { ++batches; });
+  RunAccuracyTest(driver.get(), Offline());
+  EXPECT_THAT(record.processed, ::testing::Each(1));
+  // The stale inputs of the unused slots are not reported.
+  EXPECT_EQ(record.mismatches, 0);
+  EXPECT_GE(static_cast<size_t>(batches.load()),
+            (record.ProcessedCount() + 6) / 7);
+}
+
+TEST(MlperfDriver, CancelledRunCompletesTheSamplesWithoutRunningThem) {
+  Record record;
+  std::atomic<int> batches{0};
+  MlperfDriver* driver_ptr = nullptr;
+  auto cancel_after_10 = [&batches, &driver_ptr] {
+    if (++batches == 10) {
+      driver_ptr->Cancel();
+    }
+  };
+  std::unique_ptr<MlperfDriver> driver =
+      NewDriver(&record, 3, cancel_after_10);
+  driver_ptr = driver.get();
+  ASSERT_TRUE(driver->AddInstance(
+      std::unique_ptr<Backend>(new EchoBackend(3, cancel_after_10))));
+  // LoadGen only returns once every sample is completed.
+  RunAccuracyTest(driver.get(), Offline());
+  EXPECT_TRUE(driver->Cancelled());
+  EXPECT_TRUE(record.ProcessedAtMostOnce());
+  EXPECT_GT(record.ProcessedCount(), 0u);
+  EXPECT_LT(record.ProcessedCount(), record.processed.size());
+  EXPECT_EQ(record.mismatches, 0);
+  // Only the samples that ran have a latency.
+  EXPECT_EQ(driver->GetLatencies().size(), record.ProcessedCount());
+
+  // A cancelled driver doesn't run tests anymore.
+  const size_t processed = record.ProcessedCount();
+  RunAccuracyTest(driver.get(), Offline());
+  EXPECT_EQ(record.ProcessedCount(), processed);
+}
+
+TEST(MlperfDriver, StopsWhenTheRunExceedsItsTimeBudget) {
+  Record record;
+  auto slow = [] { std::this_thread::sleep_for(std::chrono::milliseconds(1)); };
+  std::unique_ptr<MlperfDriver> driver = NewDriver(&record, 1, slow);
+  ScenarioConfig scenario = Offline();
+  scenario.set_max_duration_ms(50);
+  RunAccuracyTest(driver.get(), scenario);
+  EXPECT_TRUE(driver->Cancelled());
+  EXPECT_TRUE(record.ProcessedAtMostOnce());
+  EXPECT_LT(record.ProcessedCount(), record.processed.size());
+  EXPECT_EQ(driver->GetLatencies().size(), record.ProcessedCount());
+}
+
+TEST(MlperfDriver, WarmupCountsSamples) {
+  Record record;
+  std::atomic<int> batches{0};
+  std::unique_ptr<MlperfDriver> driver =
+      NewDriver(&record, 4, [&batches] { ++batches; });
+  ScenarioConfig scenario = Offline();
+  // The default window of 16 latencies is never reached, so it stops on the
+  // limit.
+  scenario.mutable_warmup()->set_max_queries(10);
+  driver->RunMLPerfTest("PerformanceOnly", scenario, 1, 0,
+                        ::testing::TempDir());
+  // Three batches of 4 samples reach the limit of 10 samples.
+  EXPECT_EQ(driver->WarmupQueries(), 12);
+  EXPECT_FALSE(driver->WarmupSteady());
+  EXPECT_GE(batches.load(), 3);
+}
+
+}  // namespace
+}  // namespace mobile
+}  // namespace mlperf
+
+int main(int argc, char** argv) {
+  ::testing::InitGoogleTest(&argc, argv);
+  return RUN_ALL_TESTS();
+}
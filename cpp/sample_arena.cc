@@ -0,0 +1,97 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "cpp/sample_arena.h"
+
+#include <stdlib.h>
+
+#include <cstddef>
+#include <cstdint>
+#include <utility>
+#include <vector>
+
+#include "cpp/utils.h"
+
+namespace mlperf {
+namespace mobile {
+namespace {
+size_t AlignUp(size_t size) {
+  return (size + SampleArena::kAlignment - 1) / SampleArena::kAlignment *
+         SampleArena::kAlignment;
+}
+}  // namespace
+
+constexpr size_t SampleArena::kAlignment;
+
+SampleArena::SampleArena(const DataFormat& input_format,
+                         size_t total_sample_count)
+    : inputs_(total_sample_count), block_ids_(total_sample_count, -1) {
+  for (const DataType& data_type : input_format) {
+    input_offsets_.push_back(sample_stride_);
+    input_bytes_.push_back(data_type.size * data_type.GetByte());
+    sample_stride_ += AlignUp(input_bytes_.back());
+  }
+}
+
+void SampleArena::Allocate(const std::vector<QuerySampleIndex>& samples) {
+  std::vector<QuerySampleIndex> new_samples;
+  for (QuerySampleIndex sample_idx : samples) {
+    if (block_ids_.at(sample_idx) < 0) {
+      // Marks it so that duplicates get a single slot.
+      block_ids_[sample_idx] = next_block_id_;
+      new_samples.push_back(sample_idx);
+    }
+  }
+  if (new_samples.empty()) {
+    return;
+  }
+  Block block;
+  block.size = new_samples.size() * sample_stride_;
+  block.num_samples = new_samples.size();
+  void* data = nullptr;
+  if (posix_memalign(&data, kAlignment, block.size) != 0) {
+    LOG(FATAL) << "Failed to allocate " << block.size << " bytes for "
+               << new_samples.size() << " samples";
+  }
+  block.data.reset(static_cast<uint8_t*>(data));
+  uint8_t* sample_data = block.data.get();
+  for (QuerySampleIndex sample_idx : new_samples) {
+    std::vector<void*>& inputs = inputs_[sample_idx];
+    for (size_t offset : input_offsets_) {
+      inputs.push_back(sample_data + offset);
+    }
+    sample_data += sample_stride_;
+  }
+  allocated_bytes_ += block.size;
+  blocks_.emplace(next_block_id_++, std::move(block));
+}
+
+void SampleArena::Release(const std::vector<QuerySampleIndex>& samples) {
+  for (QuerySampleIndex sample_idx : samples) {
+    int block_id = block_ids_.at(sample_idx);
+    if (block_id < 0) {
+      continue;
+    }
+    block_ids_[sample_idx] = -1;
+    inputs_[sample_idx].clear();
+    auto it = blocks_.find(block_id);
+    if (--it->second.num_samples == 0) {
+      allocated_bytes_ -= it->second.size;
+      blocks_.erase(it);
+    }
+  }
+}
+
+}  // namespace mobile
+}  // namespace mlperf
@@ -0,0 +1,86 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#ifndef MLPERF_SAMPLE_ARENA_H_
+#define MLPERF_SAMPLE_ARENA_H_
+
+#include <cstddef>
+#include <cstdint>
+#include <memory>
+#include <unordered_map>
+#include <vector>
+
+#include "cpp/utils.h"
+#include "loadgen/query_sample_library.h"
+
+namespace mlperf {
+namespace mobile {
+
+// SampleArena stores the inputs of loaded samples. The samples loaded together
+// share one contiguous block, and each input starts at kAlignment bytes, like
+// the tensors of TFLite, so backends can use them in place.
+class SampleArena {
+ public:
+  static constexpr size_t kAlignment = 64;
+
+  SampleArena(const DataFormat& input_format, size_t total_sample_count);
+
+  // Allocates the storage of the samples in a new block. Samples that are
+  // already allocated keep their storage.
+  void Allocate(const std::vector<QuerySampleIndex>& samples);
+
+  // Releases the storage of the samples. A block is freed when all its
+  // samples are released.
+  void Release(const std::vector<QuerySampleIndex>& samples);
+
+  // Returns the inputs of the sample, or an empty vector if it is not
+  // allocated.
+  const std::vector<void*>& Get(QuerySampleIndex sample_idx) const {
+    return inputs_.at(sample_idx);
+  }
+
+  // Returns the size of an input in bytes.
+  size_t GetInputBytes(int input_idx) const {
+    return input_bytes_.at(input_idx);
+  }
+
+  // Returns the number of bytes allocated for all samples.
+  size_t AllocatedBytes() const { return allocated_bytes_; }
+
+ private:
+  struct FreeDeleter {
+    void operator()(void* ptr) const { free(ptr); }
+  };
+  struct Block {
+    std::unique_ptr<uint8_t, FreeDeleter> data;
+    size_t size;
+    int num_samples;
+  };
+
+  std::vector<size_t> input_bytes_;
+  // Offset of each input in a sample.
+  std::vector<size_t> input_offsets_;
+  size_t sample_stride_ = 0;
+  // Inputs of each sample, empty if not allocated.
+  std::vector<std::vector<void*>> inputs_;
+  // Block of each sample, -1 if not allocated.
+  std::vector<int> block_ids_;
+  std::unordered_map<int, Block> blocks_;
+  int next_block_id_ = 0;
+  size_t allocated_bytes_ = 0;
+};
+
+}  // namespace mobile
+}  // namespace mlperf
+#endif  // MLPERF_SAMPLE_ARENA_H_
@@ -0,0 +1,88 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "sample_arena.h"
+
+#include <gmock/gmock.h>
+#include <gtest/gtest.h>
+
+#include <cstdint>
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+namespace {
+
+using ::testing::IsEmpty;
+using ::testing::SizeIs;
+
+DataFormat TwoInputs() {
+  return {DataType(DataType::Float32, 3), DataType(DataType::Uint8, 100)};
+}
+
+TEST(SampleArena, AlignsInputs) {
+  SampleArena arena(TwoInputs(), 4);
+  arena.Allocate({0, 1, 2});
+  for (QuerySampleIndex sample_idx : {0, 1, 2}) {
+    ASSERT_THAT(arena.Get(sample_idx), SizeIs(2));
+    for (void* input : arena.Get(sample_idx)) {
+      EXPECT_EQ(reinterpret_cast<uintptr_t>(input) % SampleArena::kAlignment,
+                0);
+    }
+  }
+  EXPECT_EQ(arena.GetInputBytes(0), 12);
+  EXPECT_EQ(arena.GetInputBytes(1), 100);
+  EXPECT_EQ(arena.AllocatedBytes(), 3 * (64 + 128));
+}
+
+TEST(SampleArena, SamplesAreContiguous) {
+  SampleArena arena(TwoInputs(), 4);
+  arena.Allocate({3, 1});
+  uint8_t* first = static_cast<uint8_t*>(arena.Get(3)[0]);
+  uint8_t* second = static_cast<uint8_t*>(arena.Get(1)[0]);
+  EXPECT_EQ(second - first, 64 + 128);
+  EXPECT_THAT(arena.Get(0), IsEmpty());
+}
+
+TEST(SampleArena, KeepsAllocatedSamples) {
+  SampleArena arena(TwoInputs(), 4);
+  arena.Allocate({0, 1});
+  void* input = arena.Get(1)[0];
+  arena.Allocate({1, 2, 2});
+  EXPECT_EQ(arena.Get(1)[0], input);
+  EXPECT_THAT(arena.Get(2), SizeIs(2));
+  EXPECT_EQ(arena.AllocatedBytes(), 3 * (64 + 128));
+}
+
+TEST(SampleArena, FreesReleasedBlocks) {
+  SampleArena arena(TwoInputs(), 4);
+  arena.Allocate({0, 1});
+  arena.Allocate({2});
+  arena.Release({0});
+  EXPECT_THAT(arena.Get(0), IsEmpty());
+  EXPECT_EQ(arena.AllocatedBytes(), 3 * (64 + 128));
+  arena.Release({1, 3});
+  EXPECT_EQ(arena.AllocatedBytes(), 64 + 128);
+  arena.Release({2});
+  EXPECT_EQ(arena.AllocatedBytes(), 0);
+}
+
+}  // namespace
+}  // namespace mobile
+}  // namespace mlperf
+
+int main(int argc, char **argv) {
+  ::testing::InitGoogleTest(&argc, argv);
+  return RUN_ALL_TESTS();
+}
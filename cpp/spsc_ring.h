@@ -0,0 +1,81 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#ifndef MLPERF_SPSC_RING_H_
+#define MLPERF_SPSC_RING_H_
+
+#include <atomic>
+#include <cstddef>
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+
+// SpscRing is a bounded lock-free queue for one producer thread and one
+// consumer thread. Neither side ever blocks: the producer drops items when the
+// ring is full and the consumer gets nothing when it is empty.
+template <typename T>
+class SpscRing {
+ public:
+  // The capacity is rounded up to a power of two.
+  explicit SpscRing(size_t capacity) : items_(RoundUp(capacity)) {}
+
+  size_t Capacity() const { return items_.size(); }
+
+  // Adds an item. Returns false if the ring is full. Producer only.
+  bool Push(const T& item) {
+    const size_t tail = tail_.load(std::memory_order_relaxed);
+    if (tail - head_.load(std::memory_order_acquire) == items_.size()) {
+      return false;
+    }
+    items_[tail & (items_.size() - 1)] = item;
+    tail_.store(tail + 1, std::memory_order_release);
+    return true;
+  }
+
+  // Removes the oldest item. Returns false if the ring is empty. Consumer
+  // only.
+  bool Pop(T* item) {
+    const size_t head = head_.load(std::memory_order_relaxed);
+    if (head == tail_.load(std::memory_order_acquire)) {
+      return false;
+    }
+    *item = items_[head & (items_.size() - 1)];
+    head_.store(head + 1, std::memory_order_release);
+    return true;
+  }
+
+ private:
+  static size_t RoundUp(size_t capacity) {
+    size_t size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    return size;
+  }
+
+  std::vector<T> items_;
+  // The indexes only grow, the slot of an index is index & (Capacity() - 1).
+  // They are padded onto separate cache lines so the two threads don't
+  // contend. Padding rather than alignas keeps plain new usable in C++14.
+  char pad0_[64];
+  std::atomic<size_t> head_{0};
+  char pad1_[64 - sizeof(std::atomic<size_t>)];
+  std::atomic<size_t> tail_{0};
+  char pad2_[64 - sizeof(std::atomic<size_t>)];
+};
+
+}  // namespace mobile
+}  // namespace mlperf
+#endif  // MLPERF_SPSC_RING_H_
@@ -0,0 +1,79 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "spsc_ring.h"
+
+#include <gmock/gmock.h>
+#include <gtest/gtest.h>
+
+#include <thread>  // NOLINT(build/c++11)
+
+namespace mlperf {
+namespace mobile {
+namespace {
+
+TEST(SpscRing, RoundsCapacityUpToPowerOfTwo) {
+  EXPECT_EQ(SpscRing<int>(1).Capacity(), 1u);
+  EXPECT_EQ(SpscRing<int>(5).Capacity(), 8u);
+  EXPECT_EQ(SpscRing<int>(64).Capacity(), 64u);
+}
+
+TEST(SpscRing, PopsInOrderAndRejectsWhenFull) {
+  SpscRing<int> ring(4);
+  for (int i = 0; i < 4; ++i) {
+    EXPECT_TRUE(ring.Push(i));
+  }
+  EXPECT_FALSE(ring.Push(4));
+  int item;
+  EXPECT_TRUE(ring.Pop(&item));
+  EXPECT_EQ(item, 0);
+  // The freed slot is reused after wrapping around.
+  EXPECT_TRUE(ring.Push(4));
+  for (int i = 1; i < 5; ++i) {
+    EXPECT_TRUE(ring.Pop(&item));
+    EXPECT_EQ(item, i);
+  }
+  EXPECT_FALSE(ring.Pop(&item));
+}
+
+TEST(SpscRing, ConcurrentProducerAndConsumer) {
+  const int kNumItems = 100000;
+  SpscRing<int> ring(16);
+  std::thread producer([&ring]() {
+    for (int i = 0; i < kNumItems;) {
+      if (ring.Push(i)) {
+        ++i;
+      }
+    }
+  });
+  int expected = 0;
+  int item;
+  while (expected < kNumItems) {
+    if (ring.Pop(&item)) {
+      ASSERT_EQ(item, expected);
+      ++expected;
+    }
+  }
+  producer.join();
+  EXPECT_FALSE(ring.Pop(&item));
+}
+
+}  // namespace
+}  // namespace mobile
+}  // namespace mlperf
+
+int main(int argc, char **argv) {
+  ::testing::InitGoogleTest(&argc, argv);
+  return RUN_ALL_TESTS();
+}
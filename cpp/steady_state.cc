@@ -0,0 +1,57 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "cpp/steady_state.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstdint>
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+
+SteadyStateDetector::SteadyStateDetector(int window, double max_cv)
+    : window_(std::max(2, window)), max_cv_(max_cv) {
+  latencies_ns_.reserve(window_);
+}
+
+bool SteadyStateDetector::Add(int64_t latency_ns) {
+  ++count_;
+  if (latencies_ns_.size() < window_) {
+    latencies_ns_.push_back(latency_ns);
+  } else {
+    latencies_ns_[next_] = latency_ns;
+    next_ = (next_ + 1) % window_;
+  }
+
+  // The window is small, so the statistics are recomputed instead of being
+  // updated, which would accumulate rounding errors over long warm-ups.
+  double sum = 0;
+  for (int64_t latency : latencies_ns_) {
+    sum += latency;
+  }
+  const double mean = sum / latencies_ns_.size();
+  double squares = 0;
+  for (int64_t latency : latencies_ns_) {
+    squares += (latency - mean) * (latency - mean);
+  }
+  const double stddev = std::sqrt(squares / latencies_ns_.size());
+  cv_ = mean > 0 ? stddev / mean : 0;
+  steady_ = latencies_ns_.size() == window_ && cv_ <= max_cv_;
+  return steady_;
+}
+
+}  // namespace mobile
+}  // namespace mlperf
@@ -0,0 +1,60 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#ifndef MLPERF_STEADY_STATE_H_
+#define MLPERF_STEADY_STATE_H_
+
+#include <cstdint>
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+
+// SteadyStateDetector tells when the latencies of a backend have settled,
+// i.e. when the coefficient of variation (stddev / mean) of the last window
+// latencies is at most max_cv. Until then the first inferences still pay for
+// one-time costs like compiling delegate kernels, cold caches or the CPU and
+// GPU frequencies ramping up.
+class SteadyStateDetector {
+ public:
+  SteadyStateDetector(int window, double max_cv);
+
+  // Adds the latency of an inference and returns whether the latencies are
+  // steady, which needs at least window of them.
+  bool Add(int64_t latency_ns);
+
+  // Whether the last window latencies are steady.
+  bool Steady() const { return steady_; }
+
+  // The coefficient of variation of the last window latencies, or of all of
+  // them if there are fewer.
+  double Cv() const { return cv_; }
+
+  // Number of latencies added.
+  int64_t Count() const { return count_; }
+
+ private:
+  const int window_;
+  const double max_cv_;
+  // The last window latencies, the oldest at next_ once full.
+  std::vector<int64_t> latencies_ns_;
+  int next_ = 0;
+  int64_t count_ = 0;
+  double cv_ = 0;
+  bool steady_ = false;
+};
+
+}  // namespace mobile
+}  // namespace mlperf
+#endif  // MLPERF_STEADY_STATE_H_
@@ -0,0 +1,77 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "steady_state.h"
+
+#include <gmock/gmock.h>
+#include <gtest/gtest.h>
+
+#include <cstdint>
+
+namespace mlperf {
+namespace mobile {
+namespace {
+
+using ::testing::DoubleNear;
+
+TEST(SteadyStateDetector, NeedsAFullWindow) {
+  SteadyStateDetector detector(4, 0.05);
+  EXPECT_FALSE(detector.Add(1000));
+  EXPECT_FALSE(detector.Add(1000));
+  EXPECT_FALSE(detector.Add(1000));
+  EXPECT_TRUE(detector.Add(1000));
+  EXPECT_EQ(detector.Count(), 4);
+  EXPECT_EQ(detector.Cv(), 0);
+}
+
+TEST(SteadyStateDetector, WaitsForTheRampToLeaveTheWindow) {
+  SteadyStateDetector detector(4, 0.05);
+  // A slow first inference, then latencies decreasing to 1000.
+  const int64_t latencies[] = {50000, 4000, 2000, 1000, 1000, 1000};
+  for (int64_t latency : latencies) {
+    EXPECT_FALSE(detector.Add(latency));
+  }
+  EXPECT_TRUE(detector.Add(1010));
+  EXPECT_EQ(detector.Count(), 7);
+}
+
+TEST(SteadyStateDetector, ComputesCoefficientOfVariation) {
+  SteadyStateDetector detector(2, 0.5);
+  detector.Add(100);
+  detector.Add(300);
+  // Mean 200, stddev 100.
+  EXPECT_THAT(detector.Cv(), DoubleNear(0.5, 1e-9));
+  EXPECT_TRUE(detector.Steady());
+  detector.Add(900);
+  // The window is now 300 and 900: mean 600, stddev 300.
+  EXPECT_THAT(detector.Cv(), DoubleNear(0.5, 1e-9));
+}
+
+TEST(SteadyStateDetector, BecomesUnsteadyAgain) {
+  SteadyStateDetector detector(3, 0.1);
+  detector.Add(1000);
+  detector.Add(1000);
+  EXPECT_TRUE(detector.Add(1000));
+  EXPECT_FALSE(detector.Add(5000));
+  EXPECT_FALSE(detector.Steady());
+}
+
+}  // namespace
+}  // namespace mobile
+}  // namespace mlperf
+
+int main(int argc, char** argv) {
+  ::testing::InitGoogleTest(&argc, argv);
+  return RUN_ALL_TESTS();
+}
@@ -0,0 +1,124 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "cpp/telemetry.h"
+
+#include <algorithm>
+#include <chrono>  // NOLINT(build/c++11)
+#include <cstdint>
+#include <memory>
+#include <mutex>   // NOLINT(build/c++11)
+#include <thread>  // NOLINT(build/c++11)
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+namespace {
+// Enough for the samples completed between two polls at a high throughput.
+constexpr size_t kRingCapacity = 4096;
+constexpr int64_t kMaxPollMs = 50;
+}  // namespace
+
+Telemetry::Telemetry(int report_every, int report_interval_ms,
+                     Callback callback)
+    : report_every_(std::max(1, report_every)),
+      report_interval_(std::max(1, report_interval_ms)),
+      callback_(std::move(callback)) {}
+
+void Telemetry::Start(int num_producers) {
+  Stop();
+  rings_.clear();
+  for (int i = 0; i < num_producers; ++i) {
+    rings_.emplace_back(new SpscRing<int64_t>(kRingCapacity));
+  }
+  dropped_ = 0;
+  latencies_.clear();
+  stopping_ = false;
+  start_ = std::chrono::steady_clock::now();
+  thread_ = std::thread(&Telemetry::Run, this);
+}
+
+void Telemetry::Stop() {
+  if (!thread_.joinable()) {
+    return;
+  }
+  {
+    std::lock_guard<std::mutex> lock(mutex_);
+    stopping_ = true;
+  }
+  stop_cv_.notify_one();
+  thread_.join();
+}
+
+void Telemetry::Run() {
+  // Polls often enough to notice when report_every samples are completed.
+  const std::chrono::milliseconds poll_interval(
+      std::min<int64_t>(kMaxPollMs, report_interval_.count()));
+  auto last_report_time = start_;
+  size_t last_report_count = 0;
+  auto stopping = [this] { return stopping_; };
+  std::unique_lock<std::mutex> lock(mutex_);
+  while (!stop_cv_.wait_for(lock, poll_interval, stopping)) {
+    lock.unlock();
+    Drain();
+    const auto now = std::chrono::steady_clock::now();
+    if (latencies_.size() - last_report_count >=
+            static_cast<size_t>(report_every_) ||
+        now - last_report_time >= report_interval_) {
+      Report();
+      last_report_time = now;
+      last_report_count = latencies_.size();
+    }
+    lock.lock();
+  }
+  lock.unlock();
+  Drain();
+  Report();
+}
+
+void Telemetry::Drain() {
+  int64_t latency;
+  for (auto& ring : rings_) {
+    while (ring->Pop(&latency)) {
+      latencies_.push_back(latency);
+    }
+  }
+}
+
+void Telemetry::Report() {
+  Stats stats;
+  stats.completed = latencies_.size();
+  stats.dropped = dropped_.load(std::memory_order_relaxed);
+  stats.completed += stats.dropped;
+  stats.elapsed_ns = std::chrono::duration_cast<std::chrono::nanoseconds>(
+                         std::chrono::steady_clock::now() - start_)
+                         .count();
+  if (stats.elapsed_ns > 0) {
+    stats.qps = stats.completed * 1e9 / stats.elapsed_ns;
+  }
+  // Same percentiles as MlperfDriver::ComputeLatency. Partial sorts keep the
+  // cost linear in the number of samples.
+  if (!latencies_.empty()) {
+    auto p50 = latencies_.begin() + latencies_.size() * 0.5;
+    auto p90 = latencies_.begin() + latencies_.size() * 0.9;
+    std::nth_element(latencies_.begin(), p90, latencies_.end());
+    std::nth_element(latencies_.begin(), p50, p90);
+    stats.p90_ns = *p90;
+    stats.p50_ns = *p50;
+  }
+  callback_(stats);
+}
+
+}  // namespace mobile
+}  // namespace mlperf
@@ -0,0 +1,96 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#ifndef MLPERF_TELEMETRY_H_
+#define MLPERF_TELEMETRY_H_
+
+#include <atomic>
+#include <chrono>              // NOLINT(build/c++11)
+#include <condition_variable>  // NOLINT(build/c++11)
+#include <cstdint>
+#include <functional>
+#include <memory>
+#include <mutex>   // NOLINT(build/c++11)
+#include <thread>  // NOLINT(build/c++11)
+#include <vector>
+
+#include "cpp/spsc_ring.h"
+
+namespace mlperf {
+namespace mobile {
+
+// Telemetry reports running statistics of the samples completed during tests.
+//
+// The threads running the samples record their latencies in their own ring,
+// which never blocks them. A separate thread aggregates them and calls the
+// callback every report_every samples or report_interval_ms, whichever comes
+// first, and once more when stopped.
+class Telemetry {
+ public:
+  struct Stats {
+    // Number of completed samples.
+    int64_t completed = 0;
+    // Number of completed samples missing from the statistics because a ring
+    // was full.
+    int64_t dropped = 0;
+    // Percentiles of the latencies measured by the driver, in ns.
+    int64_t p50_ns = 0;
+    int64_t p90_ns = 0;
+    double qps = 0;
+    int64_t elapsed_ns = 0;
+  };
+  using Callback = std::function<void(const Stats&)>;
+
+  Telemetry(int report_every, int report_interval_ms, Callback callback);
+
+  ~Telemetry() { Stop(); }
+
+  // Starts a new series of statistics, recorded by num_producers threads.
+  void Start(int num_producers);
+
+  // Reports the last statistics and waits for the reporting thread to end.
+  void Stop();
+
+  // Records the latency of a completed sample. Each producer must only be used
+  // by one thread at a time.
+  void Record(int producer, int64_t latency_ns) {
+    if (!rings_[producer]->Push(latency_ns)) {
+      dropped_.fetch_add(1, std::memory_order_relaxed);
+    }
+  }
+
+ private:
+  // Runs on the reporting thread.
+  void Run();
+  // Moves the recorded latencies out of the rings.
+  void Drain();
+  void Report();
+
+  const int report_every_;
+  const std::chrono::milliseconds report_interval_;
+  const Callback callback_;
+  std::vector<std::unique_ptr<SpscRing<int64_t>>> rings_;
+  std::atomic<int64_t> dropped_{0};
+  std::chrono::steady_clock::time_point start_;
+  // Latencies of all completed samples, in no particular order.
+  std::vector<int64_t> latencies_;
+  std::mutex mutex_;
+  std::condition_variable stop_cv_;
+  bool stopping_ = false;
+  std::thread thread_;
+};
+
+}  // namespace mobile
+}  // namespace mlperf
+#endif  // MLPERF_TELEMETRY_H_
@@ -0,0 +1,107 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "telemetry.h"
+
+#include <gmock/gmock.h>
+#include <gtest/gtest.h>
+
+#include <thread>  // NOLINT(build/c++11)
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+namespace {
+
+using ::testing::Ge;
+using ::testing::SizeIs;
+
+TEST(Telemetry, ReportsPercentilesWhenStopped) {
+  std::vector<Telemetry::Stats> reports;
+  // A long interval so only the final report is expected.
+  Telemetry telemetry(1000, 60 * 1000, [&reports](const Telemetry::Stats& s) {
+    reports.push_back(s);
+  });
+  telemetry.Start(2);
+  for (int i = 1; i <= 100; ++i) {
+    telemetry.Record(i % 2, i);
+  }
+  telemetry.Stop();
+  ASSERT_THAT(reports, SizeIs(1));
+  EXPECT_EQ(reports[0].completed, 100);
+  EXPECT_EQ(reports[0].dropped, 0);
+  EXPECT_EQ(reports[0].p50_ns, 51);
+  EXPECT_EQ(reports[0].p90_ns, 91);
+  EXPECT_GT(reports[0].qps, 0);
+}
+
+TEST(Telemetry, ReportsEveryNSamples) {
+  std::vector<Telemetry::Stats> reports;
+  Telemetry telemetry(10, 60 * 1000, [&reports](const Telemetry::Stats& s) {
+    reports.push_back(s);
+  });
+  telemetry.Start(1);
+  for (int i = 0; i < 10; ++i) {
+    telemetry.Record(0, i);
+  }
+  // Waits for a few polls of the reporting thread.
+  std::this_thread::sleep_for(std::chrono::milliseconds(200));
+  telemetry.Stop();
+  ASSERT_THAT(reports, SizeIs(Ge(2u)));
+  EXPECT_EQ(reports[0].completed, 10);
+  EXPECT_EQ(reports.back().completed, 10);
+}
+
+TEST(Telemetry, CountsDroppedSamples) {
+  std::vector<Telemetry::Stats> reports;
+  Telemetry telemetry(1, 60 * 1000, [&reports](const Telemetry::Stats& s) {
+    reports.push_back(s);
+  });
+  telemetry.Start(1);
+  // Far more than a ring holds between two polls.
+  const int kNumSamples = 1000000;
+  for (int i = 0; i < kNumSamples; ++i) {
+    telemetry.Record(0, i);
+  }
+  telemetry.Stop();
+  ASSERT_THAT(reports, SizeIs(Ge(1u)));
+  EXPECT_EQ(reports.back().completed, kNumSamples);
+  EXPECT_GT(reports.back().dropped, 0);
+}
+
+TEST(Telemetry, RestartsFromZero) {
+  std::vector<Telemetry::Stats> reports;
+  Telemetry telemetry(1000, 60 * 1000, [&reports](const Telemetry::Stats& s) {
+    reports.push_back(s);
+  });
+  telemetry.Start(1);
+  telemetry.Record(0, 5);
+  telemetry.Record(0, 5);
+  telemetry.Stop();
+  telemetry.Start(1);
+  telemetry.Record(0, 7);
+  telemetry.Stop();
+  ASSERT_THAT(reports, SizeIs(2));
+  EXPECT_EQ(reports[1].completed, 1);
+  EXPECT_EQ(reports[1].p50_ns, 7);
+}
+
+}  // namespace
+}  // namespace mobile
+}  // namespace mlperf
+
+int main(int argc, char **argv) {
+  ::testing::InitGoogleTest(&argc, argv);
+  return RUN_ALL_TESTS();
+}
@@ -15,9 +15,14 @@ limitations under the License.
 #ifndef MLPERF_UTILS_H_
 #define MLPERF_UTILS_H_
 
+#include <algorithm>
+#include <atomic>
+#include <cmath>
 #include <cstdint>
+#include <functional>
 #include <numeric>
 #include <string>
+#include <thread>  // NOLINT(build/c++11)
 #include <vector>
 
 #include "loadgen/test_settings.h"
@@ -79,6 +84,98 @@ inline std::vector<int32_t> GetTopK(T* values, int num_elem, int k,
   return indices;
 }
 
+// Runs fn(worker, i) for each i in [0, num_items) on up to num_threads
+// threads. The calling thread is worker 0. Items are handed out one at a time,
+// so a worker that gets slow items doesn't hold back the others.
+inline void ParallelFor(int num_items, int num_threads,
+                        const std::function<void(int, int)>& fn) {
+  num_threads = std::max(1, std::min(num_threads, num_items));
+  std::atomic<int> next_item(0);
+  auto work = [&next_item, &fn, num_items](int worker) {
+    for (int i = next_item++; i < num_items; i = next_item++) {
+      fn(worker, i);
+    }
+  };
+  std::vector<std::thread> threads;
+  for (int worker = 1; worker < num_threads; ++worker) {
+    threads.emplace_back(work, worker);
+  }
+  work(0);
+  for (std::thread& thread : threads) {
+    thread.join();
+  }
+}
+
+// Returns the quantile of the standard normal distribution for a probability
+// in (0, 1), with a relative error below 1.2e-9 (Acklam's approximation).
+inline double NormalQuantile(double p) {
+  static const double a[] = {-3.969683028665376e+01, 2.209460984245205e+02,
+                             -2.759285104469687e+02, 1.383577518672690e+02,
+                             -3.066479806614716e+01, 2.506628277459239e+00};
+  static const double b[] = {-5.447609879822406e+01, 1.615858368580409e+02,
+                             -1.556989798598866e+02, 6.680131188771972e+01,
+                             -1.328068155288572e+01};
+  static const double c[] = {-7.784894002430293e-03, -3.223964580411365e-01,
+                             -2.400758277161838e+00, -2.549732539343734e+00,
+                             4.374664141464968e+00,  2.938163982698783e+00};
+  static const double d[] = {7.784695709041462e-03, 3.224671290700398e-01,
+                             2.445134137142996e+00, 3.754408661907416e+00};
+  const double p_low = 0.02425;
+  if (p < p_low) {
+    const double q = std::sqrt(-2 * std::log(p));
+    return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q +
+            c[5]) /
+           ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+  }
+  if (p > 1 - p_low) {
+    return -NormalQuantile(1 - p);
+  }
+  const double q = p - 0.5;
+  const double r = q * q;
+  return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) *
+         q /
+         (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+}
+
+// A confidence interval of a percentile of latencies.
+struct PercentileInterval {
+  // The percentile of the samples, computed like MlperfDriver::ComputeLatency.
+  int64_t estimate_ns = 0;
+  int64_t low_ns = 0;
+  int64_t high_ns = 0;
+
+  // The width of the interval relative to the estimate.
+  double RelativeWidth() const {
+    return estimate_ns > 0
+               ? static_cast<double>(high_ns - low_ns) / estimate_ns
+               : 0;
+  }
+};
+
+// Returns the interval containing the percentile of the latency distribution
+// with the given confidence, e.g. 0.95, from sorted latencies. It makes no
+// assumption on the distribution: the number of samples below the percentile
+// is binomial, so the bounds are the order statistics at the ranks of its
+// normal approximation.
+inline PercentileInterval ComputePercentileInterval(
+    const std::vector<int64_t>& sorted_ns, double percentile,
+    double confidence) {
+  PercentileInterval interval;
+  const int64_t n = sorted_ns.size();
+  if (n == 0) {
+    return interval;
+  }
+  const double z = NormalQuantile(0.5 + confidence / 2);
+  const double spread = z * std::sqrt(n * percentile * (1 - percentile));
+  auto rank = [n](double r) {
+    return std::max<int64_t>(0, std::min<int64_t>(n - 1, r));
+  };
+  interval.estimate_ns = sorted_ns[rank(n * percentile)];
+  interval.low_ns = sorted_ns[rank(std::floor(n * percentile - spread))];
+  interval.high_ns = sorted_ns[rank(std::ceil(n * percentile + spread))];
+  return interval;
+}
+
 // Convert string to mlperf::TestMode.
 inline ::mlperf::TestMode Str2TestMode(const std::string& mode) {
   if (mode == "PerformanceOnly") {
@@ -93,15 +190,6 @@ inline ::mlperf::TestMode Str2TestMode(const std::string& mode) {
   }
 }
 
-const std::string kMobilenetOfflineScenario = "mobilenet-offline";
-
-const size_t kMobilenetOfflineSampleCount = 5000;
-// TODO: Move the following parameters to mlperf_task.proto
-// These parameters will set 1100 samples_per_query. (10% more queries included)
-// For 11000 samples_per_query, use 10000, 1000
-const size_t kMobilenetOfflineMinDurationMs = 5000;
-const size_t kMobilenetOfflineExpectedQps = 200;
-
 }  // namespace mobile
 }  // namespace mlperf
 
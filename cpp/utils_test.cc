@@ -17,10 +17,16 @@ limitations under the License.
 #include <gmock/gmock.h>
 #include <gtest/gtest.h>
 
+#include <algorithm>
+#include <atomic>
+#include <cstdint>
+#include <vector>
+
 namespace mlperf {
 namespace mobile {
 namespace {
 
+using ::testing::DoubleNear;
 using ::testing::ElementsAreArray;
 
 TEST(GetTopK, Top1) {
@@ -52,6 +58,83 @@ TEST(GetTopK, BiggerOffset) {
   ASSERT_THROW(GetTopK(values.data(), values.size(), 4, 5), std::bad_alloc);
 }
 
+TEST(ParallelFor, RunsEachItemOnce) {
+  std::vector<std::atomic<int>> counts(1000);
+  for (auto& count : counts) {
+    count = 0;
+  }
+  ParallelFor(counts.size(), 4, [&counts](int worker, int i) { counts[i]++; });
+  for (int i = 0; i < counts.size(); ++i) {
+    EXPECT_EQ(counts[i], 1) << "item " << i;
+  }
+}
+
+TEST(ParallelFor, WorkersAreInRange) {
+  std::atomic<int> out_of_range(0);
+  ParallelFor(100, 3, [&out_of_range](int worker, int i) {
+    if (worker < 0 || worker >= 3) {
+      out_of_range++;
+    }
+  });
+  EXPECT_EQ(out_of_range, 0);
+}
+
+TEST(ParallelFor, NoItems) {
+  int calls = 0;
+  ParallelFor(0, 4, [&calls](int worker, int i) { calls++; });
+  EXPECT_EQ(calls, 0);
+}
+
+TEST(NormalQuantile, KnownValues) {
+  EXPECT_THAT(NormalQuantile(0.5), DoubleNear(0, 1e-9));
+  EXPECT_THAT(NormalQuantile(0.975), DoubleNear(1.959964, 1e-6));
+  EXPECT_THAT(NormalQuantile(0.025), DoubleNear(-1.959964, 1e-6));
+  EXPECT_THAT(NormalQuantile(0.995), DoubleNear(2.575829, 1e-6));
+  EXPECT_THAT(NormalQuantile(0.001), DoubleNear(-3.090232, 1e-6));
+}
+
+TEST(ComputePercentileInterval, Empty) {
+  PercentileInterval interval = ComputePercentileInterval({}, 0.9, 0.95);
+  EXPECT_EQ(interval.estimate_ns, 0);
+  EXPECT_EQ(interval.RelativeWidth(), 0);
+}
+
+TEST(ComputePercentileInterval, OrderStatistics) {
+  std::vector<int64_t> latencies(1000);
+  for (int i = 0; i < latencies.size(); ++i) {
+    latencies[i] = i + 1;
+  }
+  PercentileInterval interval =
+      ComputePercentileInterval(latencies, 0.9, 0.95);
+  // Ranks 900 -/+ 1.96 * sqrt(1000 * 0.9 * 0.1) = 900 -/+ 18.6.
+  EXPECT_EQ(interval.estimate_ns, 901);
+  EXPECT_EQ(interval.low_ns, 882);
+  EXPECT_EQ(interval.high_ns, 920);
+  EXPECT_THAT(interval.RelativeWidth(), DoubleNear(38.0 / 901, 1e-9));
+}
+
+TEST(ComputePercentileInterval, NarrowsWithMoreSamples) {
+  auto width = [](int n) {
+    std::vector<int64_t> latencies(n);
+    for (int i = 0; i < n; ++i) {
+      // Latencies from 1 to 2 ms.
+      latencies[i] = 1000000 + static_cast<int64_t>(i) * 1000000 / n;
+    }
+    return ComputePercentileInterval(latencies, 0.9, 0.95).RelativeWidth();
+  };
+  // The width shrinks as 1 / sqrt(n).
+  EXPECT_THAT(width(400) / width(1600), DoubleNear(2, 0.1));
+}
+
+TEST(ComputePercentileInterval, ClampsToTheSamples) {
+  PercentileInterval interval =
+      ComputePercentileInterval({5, 7, 9}, 0.9, 0.99);
+  // Ranks 2.7 -/+ 1.34, the upper one is past the last sample.
+  EXPECT_EQ(interval.estimate_ns, 9);
+  EXPECT_EQ(interval.low_ns, 7);
+  EXPECT_EQ(interval.high_ns, 9);
+}
+
 }  // namespace
 }  // namespace mobile
 }  // namespace mlperf
@@ -0,0 +1,87 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#ifndef MLPERF_WORK_STEALING_QUEUE_H_
+#define MLPERF_WORK_STEALING_QUEUE_H_
+
+#include <deque>
+#include <memory>
+#include <mutex>  // NOLINT(build/c++11)
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+
+// WorkStealingQueue distributes items among a fixed number of workers. Each
+// worker takes items from the front of its own deque, and when it is empty,
+// steals from the back of the others' so that faster workers keep busy until
+// all items are done.
+template <typename T>
+class WorkStealingQueue {
+ public:
+  explicit WorkStealingQueue(int num_workers) : deques_(num_workers) {
+    for (auto& deque : deques_) {
+      deque.reset(new Deque);
+    }
+  }
+
+  int NumWorkers() const { return deques_.size(); }
+
+  // Adds an item to the back of the deque of worker.
+  void Push(int worker, const T& item) {
+    Deque& deque = *deques_.at(worker);
+    std::lock_guard<std::mutex> lock(deque.mutex);
+    deque.items.push_back(item);
+  }
+
+  // Replaces the content of items with up to max_items items for worker, from
+  // its own deque first, then stolen from another one. Returns the number of
+  // items, which is 0 once all deques are empty.
+  int PopBatch(int worker, int max_items, std::vector<T>* items) {
+    items->clear();
+    {
+      Deque& own = *deques_.at(worker);
+      std::lock_guard<std::mutex> lock(own.mutex);
+      while (!own.items.empty() &&
+             static_cast<int>(items->size()) < max_items) {
+        items->push_back(own.items.front());
+        own.items.pop_front();
+      }
+    }
+    // Victims are visited starting from the next worker so that thieves
+    // spread across them.
+    for (int i = 1; i < NumWorkers() && items->empty(); ++i) {
+      Deque& victim = *deques_[(worker + i) % NumWorkers()];
+      std::lock_guard<std::mutex> lock(victim.mutex);
+      while (!victim.items.empty() &&
+             static_cast<int>(items->size()) < max_items) {
+        items->push_back(victim.items.back());
+        victim.items.pop_back();
+      }
+    }
+    return items->size();
+  }
+
+ private:
+  struct Deque {
+    std::mutex mutex;
+    std::deque<T> items;
+  };
+  // Deques are allocated separately since mutexes can't be moved.
+  std::vector<std::unique_ptr<Deque>> deques_;
+};
+
+}  // namespace mobile
+}  // namespace mlperf
+#endif  // MLPERF_WORK_STEALING_QUEUE_H_
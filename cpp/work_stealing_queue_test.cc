@@ -0,0 +1,104 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+#include "work_stealing_queue.h"
+
+#include <gmock/gmock.h>
+#include <gtest/gtest.h>
+
+#include <atomic>
+#include <thread>  // NOLINT(build/c++11)
+#include <vector>
+
+namespace mlperf {
+namespace mobile {
+namespace {
+
+using ::testing::ElementsAreArray;
+using ::testing::IsEmpty;
+
+TEST(WorkStealingQueue, PopsOwnItemsInOrder) {
+  WorkStealingQueue<int> queue(2);
+  for (int i = 0; i < 5; ++i) {
+    queue.Push(0, i);
+  }
+  std::vector<int> items;
+  EXPECT_EQ(queue.PopBatch(0, 3, &items), 3);
+  EXPECT_THAT(items, ElementsAreArray({0, 1, 2}));
+  EXPECT_EQ(queue.PopBatch(0, 3, &items), 2);
+  EXPECT_THAT(items, ElementsAreArray({3, 4}));
+  EXPECT_EQ(queue.PopBatch(0, 3, &items), 0);
+  EXPECT_THAT(items, IsEmpty());
+}
+
+TEST(WorkStealingQueue, StealsFromTheBack) {
+  WorkStealingQueue<int> queue(2);
+  for (int i = 0; i < 5; ++i) {
+    queue.Push(0, i);
+  }
+  std::vector<int> items;
+  EXPECT_EQ(queue.PopBatch(1, 2, &items), 2);
+  EXPECT_THAT(items, ElementsAreArray({4, 3}));
+  EXPECT_EQ(queue.PopBatch(0, 5, &items), 3);
+  EXPECT_THAT(items, ElementsAreArray({0, 1, 2}));
+}
+
+TEST(WorkStealingQueue, PrefersOwnItems) {
+  WorkStealingQueue<int> queue(2);
+  queue.Push(0, 0);
+  queue.Push(1, 1);
+  std::vector<int> items;
+  EXPECT_EQ(queue.PopBatch(1, 2, &items), 1);
+  EXPECT_THAT(items, ElementsAreArray({1}));
+}
+
+TEST(WorkStealingQueue, ConcurrentWorkersTakeEachItemOnce) {
+  const int kNumWorkers = 4;
+  const int kNumItems = 10000;
+  WorkStealingQueue<int> queue(kNumWorkers);
+  // All items go to one worker so the others have to steal them.
+  for (int i = 0; i < kNumItems; ++i) {
+    queue.Push(0, i);
+  }
+  std::vector<std::atomic<int>> counts(kNumItems);
+  for (auto& count : counts) {
+    count = 0;
+  }
+  std::vector<std::thread> threads;
+  for (int worker = 0; worker < kNumWorkers; ++worker) {
+    threads.emplace_back([&queue, &counts, worker]() {
+      std::vector<int> items;
+      while (queue.PopBatch(worker, worker + 1, &items) > 0) {
+        for (int item : items) {
+          counts[item]++;
+        }
+      }
+    });
+  }
+  for (auto& thread : threads) {
+    thread.join();
+  }
+  for (int i = 0; i < kNumItems; ++i) {
+    EXPECT_EQ(counts[i], 1) << "item " << i;
+  }
+}
+
+}  // namespace
+}  // namespace mobile
+}  // namespace mlperf
+
+int main(int argc, char **argv) {
+  ::testing::InitGoogleTest(&argc, argv);
+  return RUN_ALL_TESTS();
+}
@@ -0,0 +1,207 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Copies or downloads models and datasets into the {@link ModelCache}.
+ *
+ * <p>Independent sources are extracted concurrently. Zip files are unpacked while they are being
+ * read, so no intermediate copy of the archive is written to storage.
+ */
+final class AssetExtractor {
+  private static final String TAG = "AssetExtractor";
+  private static final String ASSETS_PREFIX = "@assets/";
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final int MAX_PARALLEL_EXTRACTIONS = 4;
+
+  /** Gets notified when a source starts being extracted. Called from the extracting threads. */
+  interface ProgressListener {
+    void onExtracting(String name);
+  }
+
+  private final Context context;
+  private final ModelCache cache;
+
+  AssetExtractor(Context context, ModelCache cache) {
+    this.context = context.getApplicationContext();
+    this.cache = cache;
+  }
+
+  /**
+   * Extracts all sources into the cache.
+   *
+   * @return the error messages of the failed extractions. It is empty if all of them succeeded.
+   */
+  List<String> extractAll(Collection<String> sources, ProgressListener listener)
+      throws InterruptedException {
+    int numThreads =
+        Math.max(
+            1,
+            Math.min(
+                Math.min(MAX_PARALLEL_EXTRACTIONS, Runtime.getRuntime().availableProcessors()),
+                sources.size()));
+    ExecutorService executor =
+        Executors.newFixedThreadPool(numThreads, r -> new Thread(r, "MLPerf.Extract"));
+    List<String> errors = new ArrayList<>();
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (String src : sources) {
+        results.add(executor.submit(() -> extract(src, listener)));
+      }
+      for (Future<String> result : results) {
+        try {
+          String error = result.get();
+          if (error != null) {
+            errors.add(error);
+          }
+        } catch (ExecutionException e) {
+          errors.add(String.valueOf(e.getCause()));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return errors;
+  }
+
+  // Extracts a single source. Returns null on success, otherwise the error message.
+  private String extract(String src, ProgressListener listener) {
+    if (!ModelCache.isCacheable(src)) {
+      return "Unable to read " + src;
+    }
+    String dest = cache.getPath(src);
+    String name = new File(dest).getName();
+    listener.onExtracting(name);
+    // Extract to a temporary location first, so the app can detect if the extraction failed.
+    File tmpFile = cache.newTempFile(src);
+    try {
+      String sha256;
+      try (InputStream in = open(src)) {
+        sha256 = extractTo(in, MLPerfTasks.isZipFile(src), tmpFile);
+      }
+      cache.commit(src, tmpFile, sha256);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to prepare file " + dest + ": " + e.getMessage());
+      ModelCache.deleteRecursively(tmpFile);
+      return e.getMessage();
+    }
+
+    Log.d(TAG, name + " are extracted.");
+    return null;
+  }
+
+  private InputStream open(String src) throws IOException {
+    if (src.startsWith(ASSETS_PREFIX)) {
+      return context.getAssets().open(src.substring(ASSETS_PREFIX.length()));
+    } else if (isRemote(src)) {
+      ConnectivityManager cm =
+          (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+      Network network = cm.getActiveNetwork();
+      NetworkCapabilities capabilities =
+          network == null ? null : cm.getNetworkCapabilities(network);
+      if (capabilities == null
+          || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+        throw new IOException("No network connected.");
+      }
+      return new URL(src).openStream();
+    }
+    return new FileInputStream(src);
+  }
+
+  private static boolean isRemote(String src) {
+    return src.startsWith("http://") || src.startsWith("https://");
+  }
+
+  private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+  }
+
+  /**
+   * Copies the stream to dest, or unzips it into dest if it is a zip file.
+   *
+   * @return the SHA-256 digest of all the bytes of the stream.
+   */
+  static String extractTo(InputStream src, boolean isZip, File dest) throws IOException {
+    MessageDigest digest = ModelCache.newSha256();
+    InputStream in = new DigestInputStream(src, digest);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    if (isZip) {
+      unZip(in, dest);
+      // The digest has to cover the whole archive, including the central directory that the zip
+      // stream doesn't read.
+      while (in.read(buffer) != -1) {}
+      Log.d(TAG, "Unziped to " + dest);
+    } else {
+      try (OutputStream out = new FileOutputStream(dest)) {
+        copy(in, out, buffer);
+      }
+    }
+    return ModelCache.toHex(digest.digest());
+  }
+
+  // Unzips the stream into destDir as it is being read.
+  private static void unZip(InputStream in, File destDir) throws IOException {
+    destDir.mkdirs();
+    String destPath = destDir.getCanonicalPath() + File.separator;
+    byte[] buffer = new byte[BUFFER_SIZE];
+    ZipInputStream zis = new ZipInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+    ZipEntry ze;
+    while ((ze = zis.getNextEntry()) != null) {
+      File file = new File(destDir, ze.getName());
+      // Entries must not be written outside of destDir.
+      if (!file.getCanonicalPath().startsWith(destPath)) {
+        throw new IOException("Invalid zip entry " + ze.getName());
+      }
+      // Need to create directories if not exists.
+      if (ze.isDirectory()) {
+        file.mkdirs();
+        continue;
+      }
+      file.getParentFile().mkdirs();
+      try (OutputStream out = new FileOutputStream(file)) {
+        copy(zis, out, buffer);
+      }
+      zis.closeEntry();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks the fastest runtime of a model among numbers of threads and delegates.
+ *
+ * <p>The candidates are compared by successive halving: every round runs a short probe of each
+ * remaining candidate, drops the ones that failed or are clearly slower than the best, keeps the
+ * faster half and doubles the length of the probes. The winner is cached by device fingerprint and
+ * model, so a device is only tuned once per system build.
+ */
+final class AutoTuner {
+  private static final String TAG = "AutoTuner";
+  private static final int INITIAL_PROBE_QUERIES = 16;
+  private static final int MAX_ROUNDS = 4;
+  // Candidates slower than the best by more than this factor are dropped right away.
+  private static final double PRUNE_RATIO = 1.5;
+
+  /** A runtime of a model. */
+  static final class Candidate {
+    final int numThreads;
+    final String delegate;
+
+    Candidate(int numThreads, String delegate) {
+      this.numThreads = numThreads;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Candidate)) {
+        return false;
+      }
+      Candidate candidate = (Candidate) other;
+      return numThreads == candidate.numThreads && delegate.equals(candidate.delegate);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * numThreads + delegate.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%s, %d threads", delegate, numThreads);
+    }
+  }
+
+  /** Runs a short benchmark of a candidate. */
+  interface Probe {
+    /**
+     * Returns the speed of the candidate over at least numQueries queries, higher is better. Throws
+     * if the candidate can't run the model.
+     */
+    double run(Candidate candidate, int numQueries) throws Exception;
+  }
+
+  private final SharedPreferences cache;
+  private final String fingerprint;
+  private final Probe probe;
+
+  /**
+   * @param cache stores the winners.
+   * @param fingerprint identifies the device and its system build, e.g. Build.FINGERPRINT.
+   */
+  AutoTuner(SharedPreferences cache, String fingerprint, Probe probe) {
+    this.cache = cache;
+    this.fingerprint = fingerprint;
+    this.probe = probe;
+  }
+
+  /**
+   * Returns the candidates for a device: the CPU with 1, 2, 4... threads up to the number of cores
+   * and each accelerator delegate with acceleratorThreads threads for the ops they don't support.
+   */
+  static List<Candidate> getCandidates(
+      int numCores, String cpuDelegate, List<String> accelerators, int acceleratorThreads) {
+    List<Candidate> candidates = new ArrayList<>();
+    for (int threads = 1; threads < numCores; threads *= 2) {
+      candidates.add(new Candidate(threads, cpuDelegate));
+    }
+    candidates.add(new Candidate(Math.max(1, numCores), cpuDelegate));
+    for (String accelerator : accelerators) {
+      candidates.add(new Candidate(acceleratorThreads, accelerator));
+    }
+    return candidates;
+  }
+
+  /**
+   * Returns the cached winner for the model if it is still a candidate, or tunes it now. Returns
+   * null if no candidate can run the model.
+   */
+  Candidate tune(String model, List<Candidate> candidates) {
+    String key = fingerprint + "/" + model;
+    Candidate cached = parse(cache.getString(key, null));
+    if (cached != null && candidates.contains(cached)) {
+      Log.i(TAG, "Using the cached runtime of \"" + model + "\": " + cached);
+      return cached;
+    }
+    Candidate winner = runRounds(model, candidates);
+    if (winner != null) {
+      cache.edit().putString(key, winner.numThreads + "," + winner.delegate).apply();
+    }
+    return winner;
+  }
+
+  private Candidate runRounds(String model, List<Candidate> candidates) {
+    List<Candidate> remaining = new ArrayList<>(candidates);
+    int numQueries = INITIAL_PROBE_QUERIES;
+    for (int round = 0; round < MAX_ROUNDS && remaining.size() > 1; ++round) {
+      List<Scored> scored = new ArrayList<>();
+      for (Candidate candidate : remaining) {
+        try {
+          double score = probe.run(candidate, numQueries);
+          Log.i(TAG, "Probe of \"" + model + "\" with " + candidate + ": " + score);
+          if (score > 0) {
+            scored.add(new Scored(candidate, score));
+          }
+        } catch (Exception e) {
+          Log.w(TAG, "Probe of \"" + model + "\" with " + candidate + " failed: " + e.getMessage());
+        }
+      }
+      if (scored.isEmpty()) {
+        return null;
+      }
+      Collections.sort(scored, (a, b) -> Double.compare(b.score, a.score));
+      double best = scored.get(0).score;
+      int keep = (scored.size() + 1) / 2;
+      remaining.clear();
+      for (int i = 0; i < keep && scored.get(i).score * PRUNE_RATIO >= best; ++i) {
+        remaining.add(scored.get(i).candidate);
+      }
+      numQueries *= 2;
+    }
+    // After the last round, the remaining candidates are sorted from the fastest.
+    return remaining.isEmpty() ? null : remaining.get(0);
+  }
+
+  // Returns null if the value is missing or malformed.
+  private static Candidate parse(String value) {
+    if (value == null) {
+      return null;
+    }
+    int comma = value.indexOf(',');
+    try {
+      return new Candidate(Integer.parseInt(value.substring(0, comma)), value.substring(comma + 1));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  private static final class Scored {
+    final Candidate candidate;
+    final double score;
+
+    Scored(Candidate candidate, double score) {
+      this.candidate = candidate;
+      this.score = score;
+    }
+  }
+}
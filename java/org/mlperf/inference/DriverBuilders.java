@@ -0,0 +1,127 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.mlperf.inference;
+
+import org.mlperf.proto.DatasetConfig;
+import org.mlperf.proto.InstanceConfig;
+import org.mlperf.proto.ModelConfig;
+import org.mlperf.proto.ScenarioConfig;
+
+/**
+ * Sets the backends and the dataset of a model on a driver builder, shared by the app and the
+ * headless runner. The input sizes and the number of classes of each dataset are the ones of the
+ * models of the config.
+ */
+final class DriverBuilders {
+  /** Maps the paths of the config to local files. */
+  interface PathResolver {
+    String resolve(String path);
+  }
+
+  // Make this class not instantiable.
+  private DriverBuilders() {}
+
+  /**
+   * Sets the backends of a run of model. In the Offline scenario, each InstanceConfig adds a
+   * backend whose unset fields default to numThreads and delegate. The first instance is the
+   * backend the dataset is built for.
+   */
+  static void useBackends(
+      MLPerfDriverWrapper.Builder builder,
+      ModelConfig model,
+      ScenarioConfig scenario,
+      String backend,
+      int numThreads,
+      String delegate,
+      PathResolver paths) {
+    String modelPath = paths.resolve(model.getSrc());
+    if (backend.equals("dummy_backend")) {
+      builder.useDummyBackend(modelPath);
+      return;
+    }
+    if (!backend.equals("tflite")) {
+      throw new IllegalArgumentException("The provided backend type is not supported");
+    }
+    if (scenario.getScenario() != ScenarioConfig.Scenario.OFFLINE
+        || scenario.getInstanceCount() == 0) {
+      builder.useTfliteBackend(modelPath, numThreads, delegate, model.getBatchSize());
+      return;
+    }
+    for (int i = 0; i < scenario.getInstanceCount(); ++i) {
+      InstanceConfig instance = scenario.getInstance(i);
+      int instanceThreads = instance.hasNumThreads() ? instance.getNumThreads() : numThreads;
+      String instanceDelegate = instance.hasDelegate() ? instance.getDelegate() : delegate;
+      if (i == 0) {
+        builder.useTfliteBackend(
+            modelPath, instanceThreads, instanceDelegate, model.getBatchSize());
+      } else {
+        builder.addTfliteInstance(
+            modelPath, instanceThreads, instanceDelegate, model.getBatchSize());
+      }
+    }
+  }
+
+  /**
+   * Sets the dataset of a run of model, after its backends. The dummy dataset generates random
+   * inputs of the type of the dataset, for when the dataset is not on the device.
+   */
+  static void useDataset(
+      MLPerfDriverWrapper.Builder builder,
+      DatasetConfig dataset,
+      ModelConfig model,
+      boolean dummy,
+      PathResolver paths) {
+    if (dummy) {
+      builder.useDummy(dataset.getType());
+      return;
+    }
+    switch (dataset.getType()) {
+      case IMAGENET:
+        builder.useImagenet(
+            paths.resolve(dataset.getPath()),
+            paths.resolve(dataset.getGroundtruthSrc()),
+            model.getOffset(),
+            /*imageWidth=*/ 224,
+            /*imageHeight=*/ 224);
+        break;
+      case COCO:
+        builder.useCoco(
+            paths.resolve(dataset.getPath()),
+            paths.resolve(dataset.getGroundtruthSrc()),
+            model.getOffset(),
+            /*numClasses=*/ 91,
+            /*imageWidth=*/ 300,
+            /*imageHeight=*/ 300);
+        break;
+      case SQUAD:
+        builder.useSquad(
+            paths.resolve(dataset.getPath()), paths.resolve(dataset.getGroundtruthSrc()));
+        break;
+      case ADE20K:
+        builder.useAde20k(
+            paths.resolve(dataset.getPath()),
+            // The current dataset doesn't have ground truth images, so the path is kept as is.
+            dataset.getGroundtruthSrc(),
+            /*numClasses=*/ 31,
+            /*imageWidth=*/ 512,
+            /*imageHeight=*/ 512);
+        break;
+      default:
+        builder.useDummy(dataset.getType());
+        break;
+    }
+  }
+}
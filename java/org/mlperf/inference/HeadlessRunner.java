@@ -0,0 +1,479 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.mlperf.inference;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.mlperf.proto.DatasetConfig;
+import org.mlperf.proto.MLPerfConfig;
+import org.mlperf.proto.ModelConfig;
+import org.mlperf.proto.ScenarioConfig;
+import org.mlperf.proto.TaskConfig;
+
+/**
+ * Runs the models of a config without the app and writes one record per run.
+ *
+ * <p>The plan is a CSV file with one run per line: {@code
+ * model,backend,num_threads,delegate,mode,repeat}. Trailing columns may be omitted and then use the
+ * flags of the same names, "*" runs all the models of the config and lines starting with "#" are
+ * ignored. Without a plan, every model runs once with the flags.
+ *
+ * <p>Model and dataset paths of the config are resolved against --data_dir, "@assets/" prefixes
+ * included. Datasets that are not found fall back to the dummy dataset, like in the app.
+ *
+ * <p>Run on the host with, ex: bazel run -c opt --cxxopt='--std=c++14'
+ * //java/org/mlperf/inference:headless_runner -- --config=$PWD/tasks.pbtxt --backend=dummy_backend
+ */
+public final class HeadlessRunner {
+  private static final String ASSETS_PREFIX = "@assets/";
+  private static final String[] COLUMNS = {
+    "model",
+    "task",
+    "backend",
+    "num_threads",
+    "delegate",
+    "mode",
+    "repeat",
+    "status",
+    "samples",
+    "qps",
+    "mean_ms",
+    "p50_ms",
+    "p90_ms",
+    "p99_ms",
+    "accuracy",
+    "warmup_queries",
+    "warmup_ms",
+    "ci_low_ms",
+    "ci_high_ms",
+    "performance_tests",
+    "duration_ms",
+    "validity",
+    "loadgen_qps",
+    "early_stopping",
+    "early_stopping_p90_ms",
+    "loadgen_errors",
+    "error"
+  };
+
+  /** A run of the plan. */
+  static final class Run {
+    final String model;
+    final String backend;
+    final int numThreads;
+    final String delegate;
+    final String mode;
+    final int repeat;
+
+    Run(String model, String backend, int numThreads, String delegate, String mode, int repeat) {
+      this.model = model;
+      this.backend = backend;
+      this.numThreads = numThreads;
+      this.delegate = delegate;
+      this.mode = mode;
+      this.repeat = repeat;
+    }
+  }
+
+  private final MLPerfConfig config;
+  private final File dataDir;
+  private final File logDir;
+  private final boolean csv;
+  private final PrintWriter out;
+  private final int maxDurationMs;
+
+  HeadlessRunner(
+      MLPerfConfig config,
+      File dataDir,
+      File logDir,
+      boolean csv,
+      PrintWriter out,
+      int maxDurationMs) {
+    this.config = config;
+    this.dataDir = dataDir;
+    this.logDir = logDir;
+    this.csv = csv;
+    this.out = out;
+    this.maxDurationMs = maxDurationMs;
+  }
+
+  public static void main(String[] args) {
+    Map<String, String> flags = new HashMap<>();
+    flags.put("config", "");
+    flags.put("plan", "");
+    flags.put("output", "-");
+    flags.put("format", "jsonl");
+    flags.put("data_dir", ".");
+    flags.put("log_dir", new File(System.getProperty("java.io.tmpdir"), "mlperf").getPath());
+    flags.put("backend", "tflite");
+    flags.put("num_threads", "4");
+    flags.put("delegate", "None");
+    flags.put("mode", "PerformanceOnly");
+    flags.put("repeat", "1");
+    flags.put("max_duration_ms", "0");
+    flags.put("backend_cache_mb", "0");
+    for (String arg : args) {
+      int equals = arg.indexOf('=');
+      if (!arg.startsWith("--") || equals < 0 || !flags.containsKey(arg.substring(2, equals))) {
+        usage("Unknown argument: " + arg);
+      }
+      flags.put(arg.substring(2, equals), arg.substring(equals + 1));
+    }
+    if (flags.get("config").isEmpty()) {
+      usage("--config is required.");
+    }
+    String format = flags.get("format");
+    if (!format.equals("jsonl") && !format.equals("csv")) {
+      usage("--format must be jsonl or csv.");
+    }
+
+    int failures;
+    try {
+      MLPerfConfig config = readConfig(new File(flags.get("config")));
+      // Runs of the same model and runtime reuse the backend of the previous one.
+      MLPerfDriverWrapper.setBackendCacheBudget(
+          Long.parseLong(flags.get("backend_cache_mb")) << 20);
+      List<Run> plan =
+          flags.get("plan").isEmpty()
+              ? readPlan(new BufferedReader(new StringReader("*")), flags)
+              : readPlan(
+                  new BufferedReader(
+                      new InputStreamReader(new FileInputStream(flags.get("plan")), "UTF-8")),
+                  flags);
+      String output = flags.get("output");
+      try (PrintWriter out =
+          new PrintWriter(
+              new OutputStreamWriter(
+                  output.equals("-") ? System.out : new FileOutputStream(output), "UTF-8"))) {
+        HeadlessRunner runner =
+            new HeadlessRunner(
+                config,
+                new File(flags.get("data_dir")),
+                new File(flags.get("log_dir")),
+                format.equals("csv"),
+                out,
+                Integer.parseInt(flags.get("max_duration_ms")));
+        failures = runner.runAll(plan);
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      System.err.println("Error: " + e.getMessage());
+      System.exit(2);
+      return;
+    }
+    System.exit(failures == 0 ? 0 : 1);
+  }
+
+  private static void usage(String error) {
+    System.err.println(error);
+    System.err.println(
+        "Usage: headless_runner --config=<tasks.pb|tasks.pbtxt> [--plan=<plan.csv>]"
+            + " [--output=<file>|-] [--format=jsonl|csv] [--data_dir=<dir>] [--log_dir=<dir>]"
+            + " [--backend=tflite|dummy_backend] [--num_threads=<n>] [--delegate=<name>]"
+            + " [--mode=PerformanceOnly|AccuracyOnly|SubmissionRun] [--repeat=<n>]"
+            + " [--max_duration_ms=<ms>] [--backend_cache_mb=<mb>]");
+    System.exit(2);
+  }
+
+  // Reads a binary config, or a text config if its name ends with ".pbtxt".
+  static MLPerfConfig readConfig(File file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        bytes.write(buffer, 0, read);
+      }
+    }
+    if (file.getName().endsWith(".pbtxt")) {
+      return MLPerfConfig.parseFrom(MLPerfDriverWrapper.convertProto(bytes.toString("UTF-8")));
+    }
+    return MLPerfConfig.parseFrom(bytes.toByteArray());
+  }
+
+  // Parses the plan, the missing columns of each line default to the flags.
+  static List<Run> readPlan(BufferedReader reader, Map<String, String> defaults)
+      throws IOException {
+    List<Run> plan = new ArrayList<>();
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      ++lineNumber;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] columns = line.split(",", -1);
+      if (columns.length > 6) {
+        throw new IllegalArgumentException("Too many columns on line " + lineNumber + ": " + line);
+      }
+      String[] values = {
+        defaults.get("backend"),
+        defaults.get("num_threads"),
+        defaults.get("delegate"),
+        defaults.get("mode"),
+        defaults.get("repeat")
+      };
+      for (int i = 1; i < columns.length; ++i) {
+        if (!columns[i].trim().isEmpty()) {
+          values[i - 1] = columns[i].trim();
+        }
+      }
+      Run run;
+      try {
+        run =
+            new Run(
+                columns[0].trim(),
+                values[0],
+                Integer.parseInt(values[1]),
+                values[2],
+                values[3],
+                Integer.parseInt(values[4]));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid number on line " + lineNumber + ": " + line);
+      }
+      if (run.repeat < 1) {
+        throw new IllegalArgumentException(
+            "The repeat count must be at least 1 on line " + lineNumber + ": " + line);
+      }
+      plan.add(run);
+    }
+    return plan;
+  }
+
+  // Runs the plan and returns the number of runs which did not complete.
+  int runAll(List<Run> plan) {
+    if (csv) {
+      out.println(String.join(",", COLUMNS));
+    }
+    int failures = 0;
+    int runIndex = 0;
+    for (Run run : plan) {
+      boolean found = false;
+      for (TaskConfig task : config.getTaskList()) {
+        for (ModelConfig model : task.getModelList()) {
+          if (!run.model.equals("*") && !run.model.equals(model.getName())) {
+            continue;
+          }
+          found = true;
+          for (int repeat = 0; repeat < run.repeat; ++repeat) {
+            Map<String, Object> record = runModel(task, model, run, repeat, runIndex++);
+            if (!"ok".equals(record.get("status"))) {
+              ++failures;
+            }
+            write(record);
+          }
+        }
+      }
+      if (!found) {
+        Map<String, Object> record = newRecord(run.model, "", run, 0);
+        record.put("status", "error");
+        record.put("error", "Model not found in the config");
+        write(record);
+        ++failures;
+      }
+    }
+    return failures;
+  }
+
+  private Map<String, Object> runModel(
+      TaskConfig task, ModelConfig model, Run run, int repeat, int runIndex) {
+    Map<String, Object> record = newRecord(model.getName(), task.getName(), run, repeat);
+    ScenarioConfig scenario = ScenarioConfigs.forModel(task, model);
+    if (maxDurationMs > 0) {
+      scenario = scenario.toBuilder().setMaxDurationMs(maxDurationMs).build();
+    }
+    File runLogDir = new File(logDir, "run_" + runIndex);
+    if (!runLogDir.isDirectory() && !runLogDir.mkdirs()) {
+      record.put("status", "error");
+      record.put("error", "Unable to create " + runLogDir);
+      return record;
+    }
+    long startTimeNs = System.nanoTime();
+    try (MLPerfDriverWrapper driver = buildDriver(task, model, scenario, run)) {
+      driver.runMLPerf(
+          run.mode,
+          scenario,
+          task.getMinQueryCount(),
+          task.getMinDurationMs(),
+          runLogDir.getAbsolutePath());
+      LatencyStats stats = driver.getLatencyStats();
+      record.put("status", driver.isCancelled() ? "cancelled" : "ok");
+      record.put("samples", stats.getCount());
+      // Measured over the performance test only, without the accuracy test and the warm-up.
+      record.put("qps", driver.getPerformanceQps());
+      record.put("mean_ms", stats.getMean() / 1e6);
+      record.put("p50_ms", stats.getPercentile(0.5) / 1e6);
+      record.put("p90_ms", stats.getPercentile(0.9) / 1e6);
+      record.put("p99_ms", stats.getPercentile(0.99) / 1e6);
+      record.put("warmup_queries", driver.getWarmupQueries());
+      record.put("warmup_ms", driver.getWarmupDurationNs() / 1e6);
+      long[] intervalNs = driver.getLatencyIntervalNs();
+      if (driver.getPerformanceRounds() > 0 && intervalNs[0] > 0) {
+        record.put("ci_low_ms", intervalNs[1] / 1e6);
+        record.put("ci_high_ms", intervalNs[2] / 1e6);
+        record.put("performance_tests", driver.getPerformanceRounds());
+      }
+      if (!run.mode.equals("PerformanceOnly")) {
+        record.put("accuracy", driver.getAccuracyValue());
+      }
+      addLoadGenResults(record, runLogDir);
+    } catch (RuntimeException e) {
+      record.put("status", "error");
+      record.put("error", String.valueOf(e.getMessage()));
+    }
+    record.put("duration_ms", (System.nanoTime() - startTimeNs) / 1000000);
+    return record;
+  }
+
+  private static void addLoadGenResults(Map<String, Object> record, File runLogDir) {
+    LoadGenLog log;
+    try {
+      log = LoadGenLog.read(runLogDir);
+    } catch (IOException e) {
+      record.put("error", "Unable to read the LoadGen logs: " + e.getMessage());
+      return;
+    }
+    record.put("validity", log.getValidity());
+    record.put("loadgen_qps", log.getQps());
+    record.put("early_stopping", log.getEarlyStopping());
+    if (log.getEarlyStoppingLatencyNs() >= 0) {
+      record.put("early_stopping_p90_ms", log.getEarlyStoppingLatencyNs() / 1e6);
+    }
+    record.put("loadgen_errors", log.getErrorCount());
+  }
+
+  // Same as RunMLPerfWorker.buildDriver with the paths of the data directory.
+  private MLPerfDriverWrapper buildDriver(
+      TaskConfig task, ModelConfig model, ScenarioConfig scenario, Run run) {
+    DatasetConfig dataset = task.getDataset();
+    try (MLPerfDriverWrapper.Builder builder = new MLPerfDriverWrapper.Builder()) {
+      builder.useBackendCache(true);
+      DriverBuilders.useBackends(
+          builder, model, scenario, run.backend, run.numThreads, run.delegate, this::resolve);
+      // Datasets that are not found fall back to the dummy dataset, like in the app.
+      DriverBuilders.useDataset(
+          builder,
+          dataset,
+          model,
+          !new File(resolve(dataset.getPath())).isDirectory(),
+          this::resolve);
+      return builder.build();
+    }
+  }
+
+  // Resolves a path of the config against the data directory.
+  private String resolve(String path) {
+    if (path.startsWith(ASSETS_PREFIX)) {
+      path = path.substring(ASSETS_PREFIX.length());
+    }
+    File file = new File(path);
+    return file.isAbsolute() ? path : new File(dataDir, path).getPath();
+  }
+
+  private static Map<String, Object> newRecord(String model, String task, Run run, int repeat) {
+    Map<String, Object> record = new LinkedHashMap<>();
+    record.put("model", model);
+    record.put("task", task);
+    record.put("backend", run.backend);
+    record.put("num_threads", run.numThreads);
+    record.put("delegate", run.delegate);
+    record.put("mode", run.mode);
+    record.put("repeat", repeat);
+    return record;
+  }
+
+  // Writes a record and flushes it, so that the records of a long plan can be read as they come.
+  private void write(Map<String, Object> record) {
+    out.println(csv ? toCsv(record) : toJson(record));
+    out.flush();
+  }
+
+  static String toJson(Map<String, Object> record) {
+    StringBuilder json = new StringBuilder("{");
+    for (Map.Entry<String, Object> entry : record.entrySet()) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      appendJsonString(json, entry.getKey());
+      json.append(':');
+      Object value = entry.getValue();
+      if (value instanceof Double) {
+        double number = (Double) value;
+        json.append(
+            Double.isNaN(number) || Double.isInfinite(number)
+                ? "null"
+                : String.format(Locale.US, "%.4f", number));
+      } else if (value instanceof Number) {
+        json.append(value);
+      } else {
+        appendJsonString(json, String.valueOf(value));
+      }
+    }
+    return json.append('}').toString();
+  }
+
+  private static void appendJsonString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format(Locale.US, "\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+
+  static String toCsv(Map<String, Object> record) {
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < COLUMNS.length; ++i) {
+      if (i > 0) {
+        csv.append(',');
+      }
+      Object value = record.get(COLUMNS[i]);
+      if (value == null) {
+        continue;
+      }
+      String text =
+          value instanceof Double
+              ? String.format(Locale.US, "%.4f", (Double) value)
+              : String.valueOf(value);
+      if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0) {
+        text = '"' + text.replace("\"", "\"\"") + '"';
+      }
+      csv.append(text);
+    }
+    return csv.toString();
+  }
+}
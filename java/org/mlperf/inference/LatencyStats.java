@@ -0,0 +1,124 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Statistics of the latencies of a run. All values are in ns.
+ *
+ * <p>Percentiles use the same definition as the native driver, so {@code getPercentile(0.9)}
+ * matches the latency reported by {@link MLPerfDriverWrapper#getLatency}.
+ */
+public final class LatencyStats {
+  private final long[] sortedNs;
+  private final double meanNs;
+  private final double stddevNs;
+
+  public LatencyStats(long[] latenciesNs) {
+    sortedNs = latenciesNs.clone();
+    Arrays.sort(sortedNs);
+    // Welford's algorithm keeps the variance accurate for large sums of squares.
+    double mean = 0;
+    double m2 = 0;
+    for (int i = 0; i < sortedNs.length; ++i) {
+      double delta = sortedNs[i] - mean;
+      mean += delta / (i + 1);
+      m2 += delta * (sortedNs[i] - mean);
+    }
+    meanNs = mean;
+    stddevNs = sortedNs.length > 1 ? Math.sqrt(m2 / (sortedNs.length - 1)) : 0;
+  }
+
+  public static LatencyStats of(LongBuffer latenciesNs) {
+    long[] latencies = new long[latenciesNs.remaining()];
+    latenciesNs.duplicate().get(latencies);
+    return new LatencyStats(latencies);
+  }
+
+  public int getCount() {
+    return sortedNs.length;
+  }
+
+  public long getMin() {
+    return sortedNs.length == 0 ? 0 : sortedNs[0];
+  }
+
+  public long getMax() {
+    return sortedNs.length == 0 ? 0 : sortedNs[sortedNs.length - 1];
+  }
+
+  public double getMean() {
+    return meanNs;
+  }
+
+  // The sample standard deviation.
+  public double getStddev() {
+    return stddevNs;
+  }
+
+  /**
+   * Returns the latency at the given percentile.
+   *
+   * @param percentile is in the range [0, 1], e.g. 0.9 for the 90th percentile.
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 1) {
+      throw new IllegalArgumentException("Percentile must be in [0, 1]: " + percentile);
+    }
+    if (sortedNs.length == 0) {
+      return 0;
+    }
+    int index = (int) (sortedNs.length * percentile);
+    return sortedNs[Math.min(index, sortedNs.length - 1)];
+  }
+
+  /**
+   * Counts the latencies in numBuckets buckets of equal width spanning [min, max]. The last bucket
+   * also includes max.
+   */
+  public long[] getHistogram(int numBuckets) {
+    if (numBuckets <= 0) {
+      throw new IllegalArgumentException("numBuckets must be positive: " + numBuckets);
+    }
+    long[] counts = new long[numBuckets];
+    if (sortedNs.length == 0) {
+      return counts;
+    }
+    double width = (double) (getMax() - getMin() + 1) / numBuckets;
+    for (long latency : sortedNs) {
+      int bucket = (int) ((latency - getMin()) / width);
+      counts[Math.min(bucket, numBuckets - 1)]++;
+    }
+    return counts;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "n=%d mean=%.2fms stddev=%.2fms min=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+        getCount(),
+        meanNs / 1e6,
+        stddevNs / 1e6,
+        getMin() / 1e6,
+        getPercentile(0.5) / 1e6,
+        getPercentile(0.9) / 1e6,
+        getPercentile(0.99) / 1e6,
+        getMax() / 1e6);
+  }
+}
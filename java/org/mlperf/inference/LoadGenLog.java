@@ -0,0 +1,396 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.mlperf.inference;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The results LoadGen writes to the summary and detail logs of a run.
+ *
+ * <p>The logs are read as a stream through a fixed buffer, line by line. A line is only turned into
+ * strings when it holds one of the fields, so the multi-MB detail logs of long runs are read
+ * without keeping them, or a string per line, in memory.
+ *
+ * <p>The summary has "key : value" lines, the detail log ":::MLLOG {json}" lines in recent LoadGen
+ * versions. Fields of the summary take precedence over those of the detail log.
+ */
+final class LoadGenLog {
+  static final String SUMMARY_FILE = "mlperf_log_summary.txt";
+  static final String DETAIL_FILE = "mlperf_log_detail.txt";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final byte[] MLLOG_PREFIX = ascii(":::MLLOG ");
+  private static final byte[] KEY_FIELD = ascii("\"key\": \"");
+  private static final byte[] VALUE_FIELD = ascii("\"value\": ");
+  private static final byte[] TIME_FIELD = ascii(", \"time_ms\"");
+  private static final byte[] ERROR_EVENT = ascii("\"event_type\": \"ERROR\"");
+  private static final byte[] WARNING_EVENT = ascii("\"event_type\": \"WARNING\"");
+
+  // Fields of the detail log, in the same order as the summary keys below.
+  private static final byte[][] DETAIL_KEYS = {
+    ascii("result_validity"),
+    ascii("result_qps_with_loadgen_overhead"),
+    ascii("result_samples_per_second"),
+    ascii("result_min_latency_ns"),
+    ascii("result_mean_latency_ns"),
+    ascii("result_max_latency_ns"),
+    ascii("result_90.00_percentile_latency_ns"),
+    ascii("early_stopping_met"),
+  };
+  private static final String[][] SUMMARY_KEYS = {
+    {"Result is"},
+    {"QPS w/ loadgen overhead", "Completed samples per second"},
+    {"Samples per second"},
+    {"Min latency (ns)"},
+    {"Mean latency (ns)"},
+    {"Max latency (ns)"},
+    {"90.00 percentile latency (ns)", "90th percentile latency (ns)"},
+    {"Early stopping satisfied"},
+  };
+  private static final int VALIDITY = 0;
+  private static final int QPS = 1;
+  private static final int SAMPLES_PER_SECOND = 2;
+  private static final int MIN_LATENCY = 3;
+  private static final int MEAN_LATENCY = 4;
+  private static final int MAX_LATENCY = 5;
+  private static final int P90_LATENCY = 6;
+  private static final int EARLY_STOPPING = 7;
+  private static final String EARLY_STOPPING_ESTIMATE = "Early stopping 90th percentile estimate";
+
+  // Raw values of the fields, null when missing.
+  private final String[] values = new String[DETAIL_KEYS.length];
+  private String earlyStoppingEstimate;
+  private int errorCount;
+  private int warningCount;
+  private String firstError = "";
+
+  // Reusable line buffer, grown to the longest line containing a field.
+  private byte[] line = new byte[256];
+  private int lineLength;
+  private boolean lineTruncated;
+
+  private LoadGenLog() {}
+
+  /** Reads the logs LoadGen wrote to outputDir. Missing logs leave their fields unknown. */
+  static LoadGenLog read(File outputDir) throws IOException {
+    LoadGenLog log = new LoadGenLog();
+    File summary = new File(outputDir, SUMMARY_FILE);
+    if (summary.isFile()) {
+      try (InputStream in = new FileInputStream(summary)) {
+        log.scan(in, /*detail=*/ false);
+      }
+    }
+    File detail = new File(outputDir, DETAIL_FILE);
+    if (detail.isFile()) {
+      try (InputStream in = new FileInputStream(detail)) {
+        log.scan(in, /*detail=*/ true);
+      }
+    }
+    return log;
+  }
+
+  static LoadGenLog parse(InputStream summary, InputStream detail) throws IOException {
+    LoadGenLog log = new LoadGenLog();
+    if (summary != null) {
+      log.scan(summary, /*detail=*/ false);
+    }
+    if (detail != null) {
+      log.scan(detail, /*detail=*/ true);
+    }
+    return log;
+  }
+
+  /** "VALID" or "INVALID", or an empty string if unknown. */
+  String getValidity() {
+    return values[VALIDITY] == null ? "" : values[VALIDITY];
+  }
+
+  boolean isValid() {
+    return "VALID".equals(values[VALIDITY]);
+  }
+
+  /** The throughput computed by LoadGen, or NaN if unknown. */
+  double getQps() {
+    double qps = parseDouble(values[QPS]);
+    return Double.isNaN(qps) ? parseDouble(values[SAMPLES_PER_SECOND]) : qps;
+  }
+
+  /** The latencies computed by LoadGen in ns, or -1 if unknown. */
+  long getMinLatencyNs() {
+    return parseLong(values[MIN_LATENCY]);
+  }
+
+  long getMeanLatencyNs() {
+    return parseLong(values[MEAN_LATENCY]);
+  }
+
+  long getMaxLatencyNs() {
+    return parseLong(values[MAX_LATENCY]);
+  }
+
+  long getP90LatencyNs() {
+    return parseLong(values[P90_LATENCY]);
+  }
+
+  /** "Yes" or "No" if the run used early stopping, or an empty string otherwise. */
+  String getEarlyStopping() {
+    String met = values[EARLY_STOPPING];
+    if (met == null) {
+      return "";
+    }
+    return met.equalsIgnoreCase("yes") || met.equalsIgnoreCase("true") ? "Yes" : "No";
+  }
+
+  /** The 90th percentile latency estimated by early stopping in ns, or -1 if unknown. */
+  long getEarlyStoppingLatencyNs() {
+    return parseLong(earlyStoppingEstimate);
+  }
+
+  /** The number of errors and warnings in the detail log. */
+  int getErrorCount() {
+    return errorCount;
+  }
+
+  int getWarningCount() {
+    return warningCount;
+  }
+
+  /** The key and value of the first error of the detail log, or an empty string. */
+  String getFirstError() {
+    return firstError;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "validity=%s qps=%.2f min=%dns mean=%dns max=%dns p90=%dns early_stopping=%s"
+            + " early_stopping_p90=%dns errors=%d warnings=%d",
+        getValidity(),
+        getQps(),
+        getMinLatencyNs(),
+        getMeanLatencyNs(),
+        getMaxLatencyNs(),
+        getP90LatencyNs(),
+        getEarlyStopping(),
+        getEarlyStoppingLatencyNs(),
+        errorCount,
+        warningCount);
+  }
+
+  // Splits the stream in lines without allocating, and handles each line in place.
+  private void scan(InputStream in, boolean detail) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    lineLength = 0;
+    lineTruncated = false;
+    int read;
+    while ((read = in.read(buffer)) > 0) {
+      int start = 0;
+      for (int i = 0; i < read; ++i) {
+        if (buffer[i] == '\n') {
+          appendToLine(buffer, start, i - start, detail);
+          handleLine(detail);
+          lineLength = 0;
+          lineTruncated = false;
+          start = i + 1;
+        }
+      }
+      appendToLine(buffer, start, read - start, detail);
+    }
+    handleLine(detail);
+  }
+
+  // Only the start of the detail lines is kept until it is known to hold a field, since the lines
+  // of the accuracy log can be very long.
+  private void appendToLine(byte[] buffer, int start, int length, boolean detail) {
+    if (length <= 0 || lineTruncated) {
+      return;
+    }
+    if (detail
+        && lineLength >= MLLOG_PREFIX.length
+        && !startsWith(line, lineLength, MLLOG_PREFIX)) {
+      lineTruncated = true;
+      return;
+    }
+    if (lineLength + length > line.length) {
+      line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+    }
+    System.arraycopy(buffer, start, line, lineLength, length);
+    lineLength += length;
+  }
+
+  private void handleLine(boolean detail) {
+    int length = lineLength;
+    if (length > 0 && line[length - 1] == '\r') {
+      --length;
+    }
+    if (length == 0 || lineTruncated) {
+      return;
+    }
+    if (detail) {
+      handleDetailLine(length);
+    } else {
+      handleSummaryLine(length);
+    }
+  }
+
+  private void handleSummaryLine(int length) {
+    int colon = indexOf(line, 0, length, (byte) ':');
+    if (colon < 0) {
+      return;
+    }
+    String key = new String(line, 0, colon, UTF_8).trim();
+    if (key.startsWith("* ")) {
+      key = key.substring(2);
+    }
+    String value = new String(line, colon + 1, length - colon - 1, UTF_8).trim();
+    if (key.equals(EARLY_STOPPING_ESTIMATE)) {
+      earlyStoppingEstimate = value;
+      return;
+    }
+    for (int i = 0; i < SUMMARY_KEYS.length; ++i) {
+      for (String summaryKey : SUMMARY_KEYS[i]) {
+        if (key.equals(summaryKey)) {
+          values[i] = value;
+          return;
+        }
+      }
+    }
+  }
+
+  private void handleDetailLine(int length) {
+    if (!startsWith(line, length, MLLOG_PREFIX)) {
+      return;
+    }
+    int keyStart = indexOf(line, 0, length, KEY_FIELD);
+    if (keyStart < 0) {
+      return;
+    }
+    keyStart += KEY_FIELD.length;
+    int keyEnd = indexOf(line, keyStart, length, (byte) '"');
+    if (keyEnd < 0) {
+      return;
+    }
+    boolean error = indexOf(line, keyEnd, length, ERROR_EVENT) >= 0;
+    if (error) {
+      ++errorCount;
+      if (firstError.isEmpty()) {
+        firstError =
+            new String(line, keyStart, keyEnd - keyStart, UTF_8)
+                + ": "
+                + detailValue(keyEnd, length);
+      }
+      return;
+    }
+    if (indexOf(line, keyEnd, length, WARNING_EVENT) >= 0) {
+      ++warningCount;
+      return;
+    }
+    for (int i = 0; i < DETAIL_KEYS.length; ++i) {
+      if (values[i] == null && regionEquals(line, keyStart, keyEnd, DETAIL_KEYS[i])) {
+        values[i] = detailValue(keyEnd, length);
+        return;
+      }
+    }
+  }
+
+  // Returns the value of the MLLOG line whose key ends at keyEnd, without its quotes.
+  private String detailValue(int keyEnd, int length) {
+    int start = indexOf(line, keyEnd, length, VALUE_FIELD);
+    if (start < 0) {
+      return "";
+    }
+    start += VALUE_FIELD.length;
+    int end = indexOf(line, start, length, TIME_FIELD);
+    if (end < 0) {
+      end = length;
+    }
+    if (end - start >= 2 && line[start] == '"' && line[end - 1] == '"') {
+      ++start;
+      --end;
+    }
+    return new String(line, start, end - start, UTF_8);
+  }
+
+  private static double parseDouble(String value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static long parseLong(String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      // Some LoadGen versions print latencies as decimals.
+      double number = parseDouble(value);
+      return Double.isNaN(number) ? -1 : Math.round(number);
+    }
+  }
+
+  private static boolean startsWith(byte[] bytes, int length, byte[] prefix) {
+    return length >= prefix.length && regionEquals(bytes, 0, prefix.length, prefix);
+  }
+
+  private static boolean regionEquals(byte[] bytes, int start, int end, byte[] expected) {
+    if (end - start != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; ++i) {
+      if (bytes[start + i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(byte[] bytes, int from, int to, byte value) {
+    for (int i = from; i < to; ++i) {
+      if (bytes[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(byte[] bytes, int from, int to, byte[] pattern) {
+    for (int i = from; i <= to - pattern.length; ++i) {
+      if (regionEquals(bytes, i, i + pattern.length, pattern)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(Charset.forName("US-ASCII"));
+  }
+}
@@ -15,51 +15,202 @@ limitations under the License.
 
 package org.mlperf.inference;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
 import org.mlperf.proto.DatasetConfig;
+import org.mlperf.proto.ScenarioConfig;
 
 /** A class that wraps functionality around tflite::mlperf::MlperfDriver. */
 public final class MLPerfDriverWrapper implements AutoCloseable {
+  /** Receives the running statistics of the LoadGen tests. */
+  public interface ProgressListener {
+    /**
+     * Called from a native thread, never from the threads running the samples. Each test of a run
+     * starts a new series of statistics. The latencies are in ns from the time LoadGen issued the
+     * query.
+     */
+    void onProgress(long completed, long p50Ns, long p90Ns, double qps, long elapsedNs);
+  }
+
   /**
    * MLPerfDriverWrapper constructor is marked as private since the dataset pointer should be hold,
    * managed and deleted by MlperfDriver. Letting it to be initialized outside this class can lead
    * to various memory management problems.
    */
-  private MLPerfDriverWrapper(long datasetHandle, long backendHandle) {
-    driverHandle = nativeInit(datasetHandle, backendHandle);
+  private MLPerfDriverWrapper(long datasetHandle, long backendHandle, long[] instanceHandles) {
+    driverHandle = nativeInit(datasetHandle, backendHandle, instanceHandles);
   }
 
   /**
    * {@link runMLPerf} runs a specific model with mlperf.
    *
    * @param mode could be a string of PerformanceOnly, AccuracyOnly or SubmissionRun (both).
-   * @param scenario is a custom scenario string to use custom config in mlperf_driver.cc.
+   * @param scenario is the LoadGen scenario and its parameters.
    * @param minQueryCount is the minimum number of samples should be run.
    * @param minDurationMs is the minimum duration in ms. After both conditions are met, the test
    *     ends.
    * @param outputDir is the directory to store the log files.
    */
   public void runMLPerf(
-      String mode, String scenario, int minQueryCount, int minDurationMs, String outputDir) {
-    nativeRun(driverHandle, mode, scenario, minQueryCount, minDurationMs, outputDir);
+      String mode,
+      ScenarioConfig scenario,
+      int minQueryCount,
+      int minDurationMs,
+      String outputDir) {
+    nativeRun(
+        handle(),
+        mode,
+        scenario.toByteArray(),
+        minQueryCount,
+        minDurationMs,
+        outputDir,
+        progressListener,
+        progressEveryQueries,
+        progressIntervalMs);
+  }
+
+  /**
+   * Reports the statistics of the next runs to listener every everyQueries completed samples or
+   * intervalMs, whichever comes first, and at the end of each test. A null listener stops it.
+   */
+  public void setProgressListener(ProgressListener listener, int everyQueries, int intervalMs) {
+    progressListener = listener;
+    progressEveryQueries = everyQueries;
+    progressIntervalMs = intervalMs;
   }
 
   // The latency in ms is formatted with two decimal places.
   public String getLatency() {
-    return nativeGetLatency(this.driverHandle);
+    return nativeGetLatency(handle());
+  }
+
+  // The latencies in ns of all samples of the last run. The order of the samples is not specified.
+  public long[] getLatenciesNs() {
+    return nativeGetLatencies(handle());
+  }
+
+  /**
+   * Returns a read-only view of the latencies in ns without copying them. The buffer is only valid
+   * until the next run or until this driver is closed.
+   */
+  public LongBuffer getLatencyBuffer() {
+    ByteBuffer buffer = nativeGetLatencyBuffer(handle());
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(0);
+    }
+    return buffer.order(ByteOrder.nativeOrder()).asLongBuffer().asReadOnlyBuffer();
+  }
+
+  public LatencyStats getLatencyStats() {
+    return new LatencyStats(getLatenciesNs());
+  }
+
+  // The number of untimed inferences run by all the backends to warm up before the last run.
+  public long getWarmupQueries() {
+    return nativeGetWarmupQueries(handle());
+  }
+
+  public long getWarmupDurationNs() {
+    return nativeGetWarmupDurationNs(handle());
+  }
+
+  // Whether all the backends reached a steady latency instead of stopping on the limits of
+  // ScenarioConfig.warmup.
+  public boolean isWarmupSteady() {
+    return nativeWarmupSteady(handle());
+  }
+
+  /**
+   * Returns the percentile of the latencies of the last performance test and its confidence
+   * interval in ns, as {estimate, low, high}. The percentile and the confidence level are the ones
+   * of ScenarioConfig.adaptive.
+   */
+  public long[] getLatencyIntervalNs() {
+    return nativeGetLatencyInterval(handle());
+  }
+
+  // Number of LoadGen tests of the last performance test, more than 1 if its length was adapted.
+  // The LoadGen logs in the output directory are the ones of the first test, unlike the latencies
+  // and their interval which cover all of them.
+  public int getPerformanceRounds() {
+    return nativeGetPerformanceRounds(handle());
+  }
+
+  // Number of samples run by the last performance test and how long its LoadGen tests took, 0
+  // if there was none. They leave out the accuracy test of a submission run and the warm-up.
+  public long getPerformanceSamples() {
+    return nativeGetPerformanceSamples(handle());
+  }
+
+  public long getPerformanceDurationNs() {
+    return nativeGetPerformanceDurationNs(handle());
+  }
+
+  // The throughput of the last performance test in samples per second, 0 if there was none.
+  public double getPerformanceQps() {
+    long durationNs = getPerformanceDurationNs();
+    return durationNs > 0 ? getPerformanceSamples() * 1e9 / durationNs : 0;
   }
 
   // The groundtruth file and format of the accuracy string is up to tasks.
   // Ex: mobilenet image classification returns accuracy as 12.34%.
   public String getAccuracy() {
-    return nativeGetAccuracy(this.driverHandle);
+    return nativeGetAccuracy(handle());
+  }
+
+  // The accuracy as a fraction, or NaN if it is not available.
+  public double getAccuracyValue() {
+    float accuracy = nativeGetAccuracyValue(handle());
+    // Datasets report 0 when the accuracy is not available.
+    return accuracy == 0.0f ? Double.NaN : accuracy;
+  }
+
+  /**
+   * Sets the memory in bytes that the samples loaded at once may use. It applies from the next
+   * LoadGen test, which includes the performance test of a running SubmissionRun.
+   */
+  public void setMemoryBudget(long bytes) {
+    nativeSetMemoryBudget(handle(), bytes);
+  }
+
+  /**
+   * Stops the running test as soon as possible and skips the following ones. It can be called from
+   * any thread, the run then returns with the statistics of the samples run until now. A cancelled
+   * driver doesn't run samples anymore.
+   */
+  public synchronized void cancel() {
+    if (!closed) {
+      nativeCancel(driverHandle);
+    }
+  }
+
+  // Whether the driver was cancelled or its last run exceeded ScenarioConfig.max_duration_ms. The
+  // results then only cover the samples that ran.
+  public boolean isCancelled() {
+    return nativeCancelled(handle());
   }
 
+  // Frees the native dataset and backends. Closing twice has no effect. The other methods then
+  // throw IllegalStateException, except cancel which does nothing.
   @Override
-  public void close() {
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
     nativeDelete(driverHandle);
   }
 
+  // Returns the native driver, which must not be used once it is deleted.
+  private synchronized long handle() {
+    if (closed) {
+      throw new IllegalStateException("The driver is closed");
+    }
+    return driverHandle;
+  }
+
   // List devices available for NNAPI. This only works on API >= 29, otherwise it returns an
   // empty list.
   public static native ArrayList<String> listDevicesForNNAPI();
@@ -67,21 +218,61 @@ public final class MLPerfDriverWrapper implements AutoCloseable {
   // Convert text proto file to binary proto.
   public static native byte[] convertProto(String text);
 
+  /**
+   * Sets the memory in bytes that the idle backends kept for later runs may use, see {@link
+   * Builder#useBackendCache}. The least recently used ones are deleted to fit it, so 0 deletes all
+   * of them. It is 0 until set.
+   */
+  public static void setBackendCacheBudget(long bytes) {
+    nativeSetBackendCacheBudget(bytes);
+  }
+
   // Native functions.
-  private native long nativeInit(long datasetHandle, long backendHandle);
+  // The driver owns all the handles, even if it fails.
+  private native long nativeInit(long datasetHandle, long backendHandle, long[] instanceHandles);
 
   private native void nativeRun(
       long driverHandle,
       String jmode,
-      String jscenario,
+      byte[] scenarioConfig,
       int minQueryCount,
       int minDuration,
-      String outputDir);
+      String outputDir,
+      ProgressListener listener,
+      int reportEvery,
+      int reportIntervalMs);
 
   private native String nativeGetLatency(long handle);
 
+  private native long[] nativeGetLatencies(long handle);
+
+  // Returns null if there is no latency.
+  private native ByteBuffer nativeGetLatencyBuffer(long handle);
+
   private native String nativeGetAccuracy(long handle);
 
+  private native float nativeGetAccuracyValue(long handle);
+
+  private native void nativeSetMemoryBudget(long handle, long bytes);
+
+  private native void nativeCancel(long handle);
+
+  private native boolean nativeCancelled(long handle);
+
+  private native long nativeGetWarmupQueries(long handle);
+
+  private native long nativeGetWarmupDurationNs(long handle);
+
+  private native boolean nativeWarmupSteady(long handle);
+
+  private native long[] nativeGetLatencyInterval(long handle);
+
+  private native int nativeGetPerformanceRounds(long handle);
+
+  private native long nativeGetPerformanceSamples(long handle);
+
+  private native long nativeGetPerformanceDurationNs(long handle);
+
   // Nullness of the pointer is checked inside nativeDelete. Callers can skip that check.
   private native void nativeDelete(long handle);
 
@@ -89,6 +280,12 @@ public final class MLPerfDriverWrapper implements AutoCloseable {
   // inside nativeDeleteDataset. Callers can skip that check.
   private static native void nativeDeleteDataset(long handle);
 
+  // Sets the number of threads loading the samples of the dataset.
+  private static native void nativeSetDatasetNumThreads(long handle, int numThreads);
+
+  // Sets the memory in bytes that the loaded samples of the dataset may use.
+  private static native void nativeSetDatasetMemoryBudget(long handle, long bytes);
+
   // Return a pointer of a new Imagenet C++ object.
   private static native long imagenet(
       long backendHandle,
@@ -96,8 +293,7 @@ public final class MLPerfDriverWrapper implements AutoCloseable {
       String groundtruthFile,
       int offset,
       int imageWidth,
-      int imageHeight,
-      String scenario);
+      int imageHeight);
 
   // Return a pointer of a new Coco C++ object.
   private static native long coco(
@@ -128,14 +324,24 @@ public final class MLPerfDriverWrapper implements AutoCloseable {
   // inside nativeDeleteBackend. Callers can skip that check.
   private static native void nativeDeleteBackend(long handle);
 
-  // Return a pointer of a new TfliteBackend object.
-  private static native long tflite(String modelFilePath, int numThreads, String delegate);
+  // Return a pointer of a new TfliteBackend object. If cached, the backend is borrowed from the
+  // cache when it has one for the same model and runtime, and it is returned to it when deleted.
+  private static native long tflite(
+      String modelFilePath, int numThreads, String delegate, int batchSize, boolean cached);
+
+  private static native void nativeSetBackendCacheBudget(long bytes);
 
   // Return a pointer of a new DummyBackend object.
   private static native long dummyBackend(String modelFilePath);
 
   // driverHandle holds a pointer of TfliteMlperfDriver.
   private final long driverHandle;
+  // Guarded by this, so that the deleted driver is never used.
+  private boolean closed = false;
+
+  private ProgressListener progressListener = null;
+  private int progressEveryQueries = 0;
+  private int progressIntervalMs = 0;
 
   /**
    * The Builder class for MLPerfDriverWrapper.
@@ -145,12 +351,47 @@ public final class MLPerfDriverWrapper implements AutoCloseable {
   public static class Builder implements AutoCloseable {
     private long backend = 0;
     private long dataset = 0;
+    private final ArrayList<Long> instances = new ArrayList<>();
+    private int numPreprocessingThreads = Runtime.getRuntime().availableProcessors();
+    // Zero keeps the default budget of the dataset.
+    private long memoryBudgetBytes = 0;
+    private boolean useBackendCache = false;
 
     public Builder() {}
 
     public Builder useTfliteBackend(String modelFilePath, int numThreads, String delegate) {
+      return useTfliteBackend(modelFilePath, numThreads, delegate, /*batchSize=*/ 1);
+    }
+
+    // The backend runs batchSize samples at once when a query has more than one sample, which
+    // only happens in the Offline scenario. The model inputs must have a batch dimension of 1.
+    public Builder useTfliteBackend(
+        String modelFilePath, int numThreads, String delegate, int batchSize) {
       nativeDeleteBackend(backend);
-      backend = tflite(modelFilePath, numThreads, delegate);
+      // Cleared first since tflite throws if the delegate can't be applied.
+      backend = 0;
+      backend = tflite(modelFilePath, numThreads, delegate, batchSize, useBackendCache);
+      return this;
+    }
+
+    /**
+     * Adds a TFLite backend instance running in parallel with the backend in the Offline scenario.
+     * It must have the same inputs and outputs as the backend.
+     */
+    public Builder addTfliteInstance(
+        String modelFilePath, int numThreads, String delegate, int batchSize) {
+      instances.add(tflite(modelFilePath, numThreads, delegate, batchSize, useBackendCache));
+      return this;
+    }
+
+    /**
+     * Makes the next TFLite backends reuse the idle ones of the same model, number of threads,
+     * delegate and batch size from the process-wide cache, skipping the model load and the delegate
+     * initialization. They go back to the cache once the driver is closed. The cache keeps nothing
+     * until its budget is set with {@link MLPerfDriverWrapper#setBackendCacheBudget}.
+     */
+    public Builder useBackendCache(boolean use) {
+      useBackendCache = use;
       return this;
     }
 
@@ -163,16 +404,9 @@ public final class MLPerfDriverWrapper implements AutoCloseable {
     // Offset is used to match ground-truth categories with model output.
     // Some models assume class 0 is background class thus they have offset=1.
     public Builder useImagenet(
-        String imageDir,
-        String groundtruthFile,
-        int offset,
-        int imageWidth,
-        int imageHeight,
-        String scenario) {
+        String imageDir, String groundtruthFile, int offset, int imageWidth, int imageHeight) {
       nativeDeleteDataset(dataset);
-      dataset =
-          imagenet(
-              getBackend(), imageDir, groundtruthFile, offset, imageWidth, imageHeight, scenario);
+      dataset = imagenet(getBackend(), imageDir, groundtruthFile, offset, imageWidth, imageHeight);
       return this;
     }
 
@@ -210,11 +444,35 @@ public final class MLPerfDriverWrapper implements AutoCloseable {
       return this;
     }
 
+    // Sets the number of threads preprocessing the samples when they are loaded. Defaults to the
+    // number of processors.
+    public Builder setNumPreprocessingThreads(int numThreads) {
+      numPreprocessingThreads = numThreads;
+      return this;
+    }
+
+    // Sets the memory in bytes that the samples loaded at once may use, which bounds the number of
+    // samples of a performance run. See MemoryBudget.
+    public Builder setMemoryBudget(long bytes) {
+      memoryBudgetBytes = bytes;
+      return this;
+    }
+
     public MLPerfDriverWrapper build() {
-      MLPerfDriverWrapper result = new MLPerfDriverWrapper(getDataset(), getBackend());
+      long[] instanceHandles = new long[instances.size()];
+      for (int i = 0; i < instanceHandles.length; ++i) {
+        instanceHandles[i] = instances.get(i);
+      }
+      long datasetHandle = getDataset();
+      long backendHandle = getBackend();
+      nativeSetDatasetNumThreads(datasetHandle, numPreprocessingThreads);
+      if (memoryBudgetBytes > 0) {
+        nativeSetDatasetMemoryBudget(datasetHandle, memoryBudgetBytes);
+      }
       dataset = 0;
       backend = 0;
-      return result;
+      instances.clear();
+      return new MLPerfDriverWrapper(datasetHandle, backendHandle, instanceHandles);
     }
 
     private long getBackend() {
@@ -231,10 +489,17 @@ public final class MLPerfDriverWrapper implements AutoCloseable {
       return dataset;
     }
 
+    // Frees what was not built into a driver. Closing twice has no effect.
     @Override
     public void close() {
       nativeDeleteDataset(dataset);
+      dataset = 0;
       nativeDeleteBackend(backend);
+      backend = 0;
+      for (long instance : instances) {
+        nativeDeleteBackend(instance);
+      }
+      instances.clear();
     }
   }
 
@@ -20,16 +20,17 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.content.res.AssetManager;
 import android.graphics.Color;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.Editable;
 import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.method.ScrollingMovementMethod;
@@ -49,22 +50,14 @@ import androidx.preference.PreferenceManager;
 import androidx.recyclerview.widget.DefaultItemAnimator;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.ref.WeakReference;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 import org.mlperf.proto.DatasetConfig;
 import org.mlperf.proto.MLPerfConfig;
 import org.mlperf.proto.ModelConfig;
@@ -74,10 +67,12 @@ import org.mlperf.proto.TaskConfig;
 public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callback {
 
   private static final String TAG = "MLPerfEvaluation";
-  private static final String ASSETS_PREFIX = "@assets/";
 
   private ProgressCount progressCount;
   private TextView taskResultText;
+  // Where the live statistics of the running model start in taskResultText, or -1 if the last line
+  // is not one.
+  private int progressLineStart = -1;
   private View dividerBar;
   private RecyclerView resultRecyclerView;
   private ResultsAdapter resultAdapter;
@@ -87,6 +82,10 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
   private String backend;
   private Set<String> delegates;
   private int numThreadsPreference;
+  // Each model waits for the device to cool down to this temperature in Celsius, 0 disables it.
+  private double cooldownThresholdC;
+  // Whether the runtime of each model is tuned instead of running all the selected delegates.
+  private boolean autoTune;
   private int highLightColor;
   private int backgroundColor;
 
@@ -97,10 +96,18 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
 
   private boolean modelIsAvailable = false;
   private SharedPreferences sharedPref;
+  // When the app was launched in elapsedRealtime, or 0 once the time to be ready was reported.
+  private long launchTimeMs;
 
   @Override
   public void onCreate(@Nullable Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    launchTimeMs =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            ? Process.getStartElapsedRealtime()
+            : SystemClock.elapsedRealtime();
+    // The native library is only needed to run models, so it loads while the UI is set up.
+    NativeEvaluation.preload();
     setContentView(R.layout.activity_main);
 
     // Sets up the RecyclerView which shows results.
@@ -136,27 +143,11 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
   @Override
   public void onResume() {
     super.onResume();
-    // Reads tasks from proto file.
-    mlperfTasks = MLPerfTasks.getConfig(getApplicationContext());
-
-    // Runs all models by default after installing.
-    sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
-    if (sharedPref.getStringSet(getString(R.string.models_preference_key), null) == null) {
-      SharedPreferences.Editor preferencesEditor = sharedPref.edit();
-      Set<String> allModels = new HashSet<>();
-      for (TaskConfig task : mlperfTasks.getTaskList()) {
-        for (ModelConfig model : task.getModelList()) {
-          allModels.add(model.getName());
-        }
-      }
-      preferencesEditor.putStringSet(getString(R.string.models_preference_key), allModels);
-      preferencesEditor.commit();
-    }
-
-    // Checks if models are available.
-    checkModelIsAvailable();
+    // Reads tasks from proto file off the UI thread, the models are checked once it is read.
+    new ConfigLoadTask(this).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
     // Updates the shared preference.
+    sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
     backend =
         sharedPref.getString(
             getString(R.string.backend_preference_key), getString(R.string.tflite_preference_key));
@@ -167,6 +158,12 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
         Integer.parseInt(
             sharedPref.getString(
                 getString(R.string.num_threads_key), getString(R.string.num_threads_default)));
+    cooldownThresholdC =
+        Double.parseDouble(
+            sharedPref.getString(
+                getString(R.string.cooldown_threshold_key),
+                getString(R.string.cooldown_threshold_default)));
+    autoTune = sharedPref.getBoolean(getString(R.string.auto_tune_key), false);
     String logInfoPreference =
         sharedPref.getString(getString(R.string.pref_loginfo_key), getString(R.string.log_short));
     if (logInfoPreference.equals(getString(R.string.log_short))) {
@@ -194,6 +191,9 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
         String update = (String) inputMessage.obj;
         logProgress(update);
         break;
+      case RunMLPerfWorker.REPLY_PROGRESS:
+        showRunProgress((String) inputMessage.obj);
+        break;
       case RunMLPerfWorker.REPLY_COMPLETE:
         ResultHolder result = (ResultHolder) inputMessage.obj;
         addNewResult(result);
@@ -208,6 +208,7 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
             0,
             error.length(),
             Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        progressLineStart = -1;
         taskResultText.append(System.getProperty("line.separator"));
         taskResultText.append(sb);
         progressCount.increaseProgress();
@@ -224,12 +225,53 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
   }
 
   private void logProgress(String msg) {
+    progressLineStart = -1;
     taskResultText.append(System.getProperty("line.separator"));
     taskResultText.append(msg);
     Log.i(TAG, "logProgress: " + msg);
   }
 
+  // Replaces the previous statistics of the running model instead of adding a line per report.
+  private void showRunProgress(String msg) {
+    CharSequence text = taskResultText.getText();
+    if (progressLineStart >= 0 && progressLineStart <= text.length() && text instanceof Editable) {
+      ((Editable) text).delete(progressLineStart, text.length());
+    } else {
+      progressLineStart = text.length();
+    }
+    taskResultText.append(System.getProperty("line.separator"));
+    taskResultText.append(msg);
+  }
+
+  private void onConfigLoaded(MLPerfConfig config) {
+    if (config == null) {
+      logProgress("Error: Unable to read the tasks config.");
+      return;
+    }
+    mlperfTasks = config;
+
+    // Runs all models by default after installing.
+    if (sharedPref.getStringSet(getString(R.string.models_preference_key), null) == null) {
+      SharedPreferences.Editor preferencesEditor = sharedPref.edit();
+      Set<String> allModels = new HashSet<>();
+      for (TaskConfig task : mlperfTasks.getTaskList()) {
+        for (ModelConfig model : task.getModelList()) {
+          allModels.add(model.getName());
+        }
+      }
+      preferencesEditor.putStringSet(getString(R.string.models_preference_key), allModels);
+      preferencesEditor.commit();
+    }
+
+    // Checks if models are available.
+    checkModelIsAvailable();
+  }
+
   private void playButtonListener(View v) {
+    if (mlperfTasks == null) {
+      logProgress("The tasks config is still loading.");
+      return;
+    }
     Set<String> selectedModels =
         sharedPref.getStringSet(getString(R.string.models_preference_key), null);
     if (selectedModels.isEmpty()) {
@@ -246,7 +288,9 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
         TaskConfig task = mlperfTasks.getTask(taskIdx);
         for (int modelIdx = 0; modelIdx < task.getModelCount(); ++modelIdx) {
           if (selectedModels.contains(task.getModel(modelIdx).getName())) {
-            if (backend.equals("tflite")) {
+            if (backend.equals("tflite") && autoTune) {
+              scheduleInference(taskIdx, modelIdx, RunMLPerfWorker.AUTO_DELEGATE);
+            } else if (backend.equals("tflite")) {
               for (String delegate : delegates) {
                 scheduleInference(taskIdx, modelIdx, delegate);
               }
@@ -267,6 +311,7 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
     // Loadgen does not provide any method to stop the current task so the it will get finished.
     if (workerThread != null) {
       workerHandler.removeMessages();
+      workerHandler.quit();
       workerThread.quit();
       workerThread = null;
     }
@@ -331,7 +376,13 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
     Log.i(TAG, "The mlperf log dir for \"" + modelName + "\" is " + outputLogDir + "/");
     RunMLPerfWorker.WorkerData data =
         new RunMLPerfWorker.WorkerData(
-            taskIdx, modelIdx, backend, numThreadsPreference, delegate, outputLogDir);
+            taskIdx,
+            modelIdx,
+            backend,
+            numThreadsPreference,
+            delegate,
+            outputLogDir,
+            cooldownThresholdC);
     Message msg = workerHandler.obtainMessage(RunMLPerfWorker.MSG_RUN, data);
     msg.replyTo = replyMessenger;
     workerHandler.sendMessage(msg);
@@ -421,6 +472,7 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
   public void onDestroy() {
     super.onDestroy();
     if (workerThread != null) {
+      workerHandler.quit();
       workerThread.quit();
     }
     Log.d(TAG, "onDestroy() is called.");
@@ -456,22 +508,9 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
 
   private boolean doCheckModelIsAvailable() {
     if (!modelIsAvailable) {
-      for (TaskConfig task : mlperfTasks.getTaskList()) {
-        for (ModelConfig model : task.getModelList()) {
-          if (!new File(MLPerfTasks.getLocalPath(model.getSrc())).canRead()) {
-            new ModelExtractTask(MLPerfEvaluation.this, mlperfTasks).execute();
-            return false;
-          }
-        }
-        DatasetConfig dataset = task.getDataset();
-        if (dataset.hasGroundtruthSrc()
-            && !new File(MLPerfTasks.getLocalPath(dataset.getGroundtruthSrc())).canRead()) {
-          new ModelExtractTask(MLPerfEvaluation.this, mlperfTasks).execute();
-          return false;
-        }
-      }
-
-      setModelIsAvailable();
+      // Cached files are verified off the UI thread, which also extracts the missing ones.
+      new ModelExtractTask(MLPerfEvaluation.this, mlperfTasks).execute();
+      return false;
     }
     return true;
   }
@@ -479,6 +518,36 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
   private void setModelIsAvailable() {
     modelIsAvailable = true;
     logProgress("Ready. Click the Run button to evaluate.");
+    if (launchTimeMs > 0) {
+      long readyMs = SystemClock.elapsedRealtime() - launchTimeMs;
+      launchTimeMs = 0;
+      Log.i(TAG, "Launch to ready: " + readyMs + " ms");
+      logProgress("Started in " + readyMs + " ms.");
+    }
+  }
+
+  // ConfigLoadTask reads the tasks config, which converts custom text configs on the first launch.
+  private static class ConfigLoadTask extends AsyncTask<Void, Void, MLPerfConfig> {
+    private final WeakReference<MLPerfEvaluation> activityRef;
+    private final Context context;
+
+    public ConfigLoadTask(MLPerfEvaluation activity) {
+      activityRef = new WeakReference<>(activity);
+      context = activity.getApplicationContext();
+    }
+
+    @Override
+    protected MLPerfConfig doInBackground(Void... voids) {
+      return MLPerfTasks.getConfig(context);
+    }
+
+    @Override
+    protected void onPostExecute(MLPerfConfig config) {
+      MLPerfEvaluation activity = activityRef.get();
+      if (activity != null && !activity.isDestroyed()) {
+        activity.onConfigLoaded(config);
+      }
+    }
   }
 
   // ModelExtractTask copies or downloads files to their location (external storage) when
@@ -486,142 +555,71 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
   private static class ModelExtractTask extends AsyncTask<Void, String, Void> {
     private final WeakReference<Context> contextRef;
     private final MLPerfConfig mlperfTasks;
+    private final ModelCache cache;
+    private final AssetExtractor extractor;
+    private final long cacheBudgetBytes;
     private boolean success = true;
     private String error;
 
     public ModelExtractTask(Context context, MLPerfConfig mlperfTasks) {
       contextRef = new WeakReference<>(context);
       this.mlperfTasks = mlperfTasks;
+      cache = MLPerfTasks.getCache();
+      extractor = new AssetExtractor(context, cache);
+      SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
+      long budgetMb =
+          Long.parseLong(
+              sharedPref.getString(
+                  context.getString(R.string.cache_budget_key),
+                  context.getString(R.string.cache_budget_default)));
+      cacheBudgetBytes = budgetMb * 1024 * 1024;
     }
 
     @Override
     protected Void doInBackground(Void... voids) {
+      // Models and datasets can be shared between tasks, so collect each source only once.
+      Set<String> allSources = new LinkedHashSet<>();
+      Set<String> missingSources = new LinkedHashSet<>();
       for (TaskConfig task : mlperfTasks.getTaskList()) {
         for (ModelConfig model : task.getModelList()) {
-          if (!new File(MLPerfTasks.getLocalPath(model.getSrc())).canRead()) {
-            if (!extractFile(model.getSrc())) {
-              success = false;
-            }
+          if (allSources.add(model.getSrc()) && !cache.isAvailable(model.getSrc())) {
+            missingSources.add(model.getSrc());
           }
         }
+        // Datasets outside of the cache are optional, the dummy dataset is used without them.
         DatasetConfig dataset = task.getDataset();
-        if (isDatasetFileNeedExtract(dataset.getPath())) {
-          if (!extractFile(dataset.getPath())) {
-            success = false;
-          }
-        }
-        if (isDatasetFileNeedExtract(dataset.getGroundtruthSrc())) {
-          if (!extractFile(dataset.getGroundtruthSrc())) {
-            success = false;
-          }
-        }
-      }
-      return null;
-    }
-
-    private boolean isDatasetFileNeedExtract(String path) {
-      if (new File(MLPerfTasks.getLocalPath(path)).canRead()) {
-        return false;
-      }
-      return path.startsWith(ASSETS_PREFIX)
-          || path.startsWith("http://")
-          || path.startsWith("https://");
-    }
-
-    private boolean extractFile(String src) {
-      String dest = MLPerfTasks.getLocalPath(src);
-      File destFile = new File(dest);
-      publishProgress(destFile.getName());
-      destFile.getParentFile().mkdirs();
-      // Extract to a temporary file first, so the app can detects if the extraction failed.
-      File tmpFile = new File(dest + ".tmp");
-      try {
-        InputStream in;
-        if (src.startsWith(ASSETS_PREFIX)) {
-          AssetManager assetManager = ((MLPerfEvaluation) contextRef.get()).getAssets();
-          in = assetManager.open(src.substring(ASSETS_PREFIX.length()));
-        } else if (src.startsWith("http://") || src.startsWith("https://")) {
-          ConnectivityManager cm =
-              (ConnectivityManager) contextRef.get().getSystemService(Context.CONNECTIVITY_SERVICE);
-          NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-          boolean isConnected = activeNetwork != null && activeNetwork.isConnectedOrConnecting();
-          if (!isConnected) {
-            error = "Error: No network connected.";
-            return false;
-          }
-          in = new URL(src).openStream();
-        } else {
-          in = new FileInputStream(src);
-        }
-        OutputStream out = new FileOutputStream(tmpFile, /*append=*/ false);
-        copyFile(in, out);
-        if (MLPerfTasks.isZipFile(src)) {
-          if (!unZip(tmpFile, dest)) {
-            return false;
+        for (String src : Arrays.asList(dataset.getPath(), dataset.getGroundtruthSrc())) {
+          if (allSources.add(src) && ModelCache.isCacheable(src) && !cache.isAvailable(src)) {
+            missingSources.add(src);
           }
-          Log.d(TAG, "Unziped " + src + " to " + dest);
-        } else {
-          tmpFile.renameTo(destFile);
         }
-      } catch (IOException e) {
-        Log.e(TAG, "Failed to prepare file " + dest + ": " + e.getMessage());
-        error = "Error: " + e.getMessage();
-        return false;
       }
-
-      Log.d(TAG, destFile.getName() + " are extracted.");
-      return true;
-    }
-
-    private static void copyFile(InputStream in, OutputStream out) throws IOException {
-      byte[] buffer = new byte[1024];
-      int read;
-      while ((read = in.read(buffer)) != -1) {
-        out.write(buffer, 0, read);
+      // Runs on every launch, so the entries of removed tasks and a lowered budget are applied
+      // even when nothing is missing. It also makes room for the missing files.
+      cache.evict(cacheBudgetBytes, allSources);
+      if (missingSources.isEmpty()) {
+        return null;
       }
-    }
 
-    private boolean unZip(File inputFile, String dest) {
-      InputStream is;
-      ZipInputStream zis;
-      File destFile = new File(dest);
-      destFile.mkdirs();
       try {
-        String filename;
-        is = new FileInputStream(inputFile);
-        zis = new ZipInputStream(new BufferedInputStream(is));
-        ZipEntry ze;
-        byte[] buffer = new byte[1024];
-        int count;
-
-        while ((ze = zis.getNextEntry()) != null) {
-          filename = ze.getName();
-          // Need to create directories if not exists.
-          if (ze.isDirectory()) {
-            File fmd = new File(dest, filename);
-            fmd.mkdirs();
-            continue;
-          }
-
-          FileOutputStream fout = new FileOutputStream(new File(dest, filename));
-          while ((count = zis.read(buffer)) != -1) {
-            fout.write(buffer, 0, count);
-          }
-          fout.close();
-          zis.closeEntry();
+        List<String> errors = extractor.extractAll(missingSources, this::publishProgress);
+        if (!errors.isEmpty()) {
+          success = false;
+          error = "Error: " + errors.get(0);
         }
-
-        zis.close();
-      } catch (IOException e) {
-        Log.e(TAG, "Failed to unzip file " + dest + ".zip: " + e.getMessage());
-        return false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        success = false;
+        error = "Error: Extraction was interrupted.";
       }
-      return true;
+      // The extracted files may exceed the budget.
+      cache.evict(cacheBudgetBytes, allSources);
+      return null;
     }
 
     @Override
     protected void onPreExecute() {
-      ((MLPerfEvaluation) contextRef.get()).logProgress("Extracting missing files...");
+      ((MLPerfEvaluation) contextRef.get()).logProgress("Checking model and dataset files...");
     }
 
     @Override
@@ -632,7 +630,7 @@ public class MLPerfEvaluation extends AppCompatActivity implements Handler.Callb
     @Override
     protected void onPostExecute(Void result) {
       if (success) {
-        ((MLPerfEvaluation) contextRef.get()).logProgress("All missing files are extracted.");
+        ((MLPerfEvaluation) contextRef.get()).logProgress("All files are available.");
         ((MLPerfEvaluation) contextRef.get()).setModelIsAvailable();
       } else {
         ((MLPerfEvaluation) contextRef.get()).logProgress(error);
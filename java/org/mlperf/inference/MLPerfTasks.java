@@ -19,47 +19,149 @@ import android.content.SharedPreferences;
 import android.util.Log;
 import androidx.preference.PreferenceManager;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import org.mlperf.proto.MLPerfConfig;
 
 /** This class reads the tasks.pbtxt and provides quick inference to its values. */
 final class MLPerfTasks {
   private static final String TAG = "MLPerfTasks";
   private static final String ZIP = ".zip";
-  private static MLPerfConfig mlperfTasks;
+  // Custom text configs are converted once and kept as binary protos named by their digest.
+  private static final String CONFIG_CACHE_PREFIX = "custom_config_";
+  private static final String CONFIG_CACHE_SUFFIX = ".pb";
+  // The config is loaded once by whichever thread reads it first, the UI or the worker thread.
+  private static volatile MLPerfConfig mlperfTasks;
+  private static volatile ModelCache cache;
   private static String localDir;
 
   // Make this class not instantiable.
   private MLPerfTasks() {}
 
   public static MLPerfConfig getConfig(Context context) {
-    if (mlperfTasks == null) {
-      localDir = context.getExternalFilesDir("cache").getAbsolutePath();
-      SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
-      String customConfig =
-          sharedPref.getString(context.getString(R.string.custom_config_key), null);
-      if (customConfig == null || !loadCustomConfig(customConfig)) {
-        try {
-          InputStream inputStream = context.getResources().openRawResource(R.raw.tasks_pb);
-          mlperfTasks = MLPerfConfig.parseFrom(inputStream);
-          inputStream.close();
-        } catch (IOException e) {
-          Log.e(TAG, "Unable to read config proto file");
+    MLPerfConfig config = mlperfTasks;
+    if (config == null) {
+      synchronized (MLPerfTasks.class) {
+        config = mlperfTasks;
+        if (config == null) {
+          config = loadConfig(context);
+          mlperfTasks = config;
         }
       }
     }
-    return mlperfTasks;
+    return config;
+  }
+
+  // Whether getConfig returns without reading the config.
+  public static boolean isLoaded() {
+    return mlperfTasks != null;
+  }
+
+  public static synchronized boolean loadCustomConfig(Context context, String text) {
+    MLPerfConfig config = convertCustomConfig(context, text);
+    if (config == null) {
+      return false;
+    }
+    initCache(context);
+    mlperfTasks = config;
+    return true;
   }
 
-  public static boolean loadCustomConfig(String text) {
+  private static void initCache(Context context) {
+    if (cache == null) {
+      localDir = context.getExternalFilesDir("cache").getAbsolutePath();
+      cache = new ModelCache(new File(localDir, "cache"));
+    }
+  }
+
+  private static MLPerfConfig loadConfig(Context context) {
+    initCache(context);
+    SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(context);
+    String customConfig = sharedPref.getString(context.getString(R.string.custom_config_key), null);
+    if (customConfig != null) {
+      MLPerfConfig config = readCachedConfig(context, customConfig);
+      if (config == null) {
+        config = convertCustomConfig(context, customConfig);
+      }
+      if (config != null) {
+        return config;
+      }
+    }
+    try (InputStream inputStream = context.getResources().openRawResource(R.raw.tasks_pb)) {
+      return MLPerfConfig.parseFrom(inputStream);
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to read config proto file");
+    }
+    return null;
+  }
+
+  // Converts the text config with the native library and caches the result on disk.
+  private static MLPerfConfig convertCustomConfig(Context context, String text) {
+    byte[] binary;
+    MLPerfConfig config;
     try {
-      mlperfTasks = MLPerfConfig.parseFrom(MLPerfDriverWrapper.convertProto(text));
+      binary = MLPerfDriverWrapper.convertProto(text);
+      config = MLPerfConfig.parseFrom(binary);
     } catch (Exception e) {
       Log.e(TAG, "Failed to read text config file: " + e.getMessage());
-      return false;
+      return null;
     }
-    return true;
+    File cached = getCachedConfigFile(context, text);
+    File tmp = new File(cached.getPath() + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      out.write(binary);
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to cache config proto: " + e.getMessage());
+      tmp.delete();
+      return config;
+    }
+    // Only the config in use is kept.
+    File[] files = context.getCacheDir().listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith(CONFIG_CACHE_PREFIX) && !file.equals(tmp)) {
+          file.delete();
+        }
+      }
+    }
+    if (!tmp.renameTo(cached)) {
+      tmp.delete();
+    }
+    return config;
+  }
+
+  // Returns the cached binary of the text config, or null if it is missing or unreadable.
+  private static MLPerfConfig readCachedConfig(Context context, String text) {
+    File cached = getCachedConfigFile(context, text);
+    if (!cached.isFile()) {
+      return null;
+    }
+    try (InputStream in = new FileInputStream(cached)) {
+      return MLPerfConfig.parseFrom(in);
+    } catch (IOException e) {
+      Log.w(TAG, "Ignoring invalid cached config proto: " + e.getMessage());
+      cached.delete();
+    }
+    return null;
+  }
+
+  private static File getCachedConfigFile(Context context, String text) {
+    StringBuilder name = new StringBuilder(CONFIG_CACHE_PREFIX);
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (byte b : digest.digest(text.getBytes(Charset.forName("UTF-8")))) {
+        name.append(String.format("%02x", b));
+      }
+    } catch (NoSuchAlgorithmException e) {
+      name.append(Integer.toHexString(text.hashCode())).append('_').append(text.length());
+    }
+    return new File(context.getCacheDir(), name.append(CONFIG_CACHE_SUFFIX).toString());
   }
 
   public static boolean isZipFile(String path) {
@@ -67,10 +169,10 @@ final class MLPerfTasks {
   }
 
   public static String getLocalPath(String path) {
-    String filename = new File(path).getName();
-    if (isZipFile(filename)) {
-      filename = filename.substring(0, filename.length() - ZIP.length());
-    }
-    return localDir + "/cache/" + filename;
+    return cache.getPath(path);
+  }
+
+  public static ModelCache getCache() {
+    return cache;
   }
 }
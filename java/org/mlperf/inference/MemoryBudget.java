@@ -0,0 +1,178 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Decides how much memory the samples loaded by a run may use.
+ *
+ * <p>The budget is a share of the memory that is available before the system starts killing
+ * processes. It is halved each time the system reports memory pressure, for the rest of the
+ * lifetime of this object, and the listener is told so it can free memory and lower the budget of
+ * the running driver. The idle backends kept for later runs get a share of the budget as well.
+ */
+final class MemoryBudget implements ComponentCallbacks2 {
+  private static final String TAG = "MemoryBudget";
+  // The rest of the available memory is left to the model, the interpreter and the system.
+  private static final double AVAILABLE_FRACTION = 0.5;
+  private static final long MIN_BUDGET_BYTES = 32L << 20;
+  private static final long MAX_BUDGET_BYTES = 4L << 30;
+  // Used when the available memory is unknown. It is the default of the native datasets.
+  private static final long DEFAULT_BUDGET_BYTES = 500L * 1000 * 1000;
+  private static final int MAX_PRESSURE_SHIFT = 3;
+  // Reusing a backend saves its load time but doesn't speed up the run, so the cache of idle
+  // backends gets less than the samples.
+  private static final double BACKEND_CACHE_FRACTION = 0.25;
+  private static final File PROC_MEMINFO = new File("/proc/meminfo");
+
+  /** Called when the budget is lowered because of memory pressure. */
+  interface Listener {
+    void onBudgetLowered(long budgetBytes);
+  }
+
+  private final ActivityManager activityManager;
+  private final File meminfo;
+  private final Listener listener;
+  // The number of times the budget was halved.
+  private int pressureShift = 0;
+
+  MemoryBudget(Context context, Listener listener) {
+    this(
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE),
+        PROC_MEMINFO,
+        listener);
+  }
+
+  /**
+   * @param activityManager reports the available memory, or null to read it from meminfo.
+   * @param meminfo the meminfo file of procfs.
+   */
+  MemoryBudget(ActivityManager activityManager, File meminfo, Listener listener) {
+    this.activityManager = activityManager;
+    this.meminfo = meminfo;
+    this.listener = listener;
+  }
+
+  /** Returns the budget in bytes for the samples of the next run. */
+  long getBudgetBytes() {
+    long availableBytes = getAvailableBytes();
+    int shift;
+    synchronized (this) {
+      shift = pressureShift;
+    }
+    long budget =
+        availableBytes < 0 ? DEFAULT_BUDGET_BYTES : (long) (availableBytes * AVAILABLE_FRACTION);
+    return Math.max(MIN_BUDGET_BYTES, Math.min(MAX_BUDGET_BYTES, budget >> shift));
+  }
+
+  /** Returns the budget in bytes for the idle backends, see MLPerfDriverWrapper.Builder. */
+  long getBackendCacheBytes() {
+    return (long) (getBudgetBytes() * BACKEND_CACHE_FRACTION);
+  }
+
+  // Returns the memory in bytes that can be used before the low memory killer kicks in, or -1 if
+  // it is unknown.
+  private long getAvailableBytes() {
+    if (activityManager != null) {
+      ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+      activityManager.getMemoryInfo(info);
+      return Math.max(0, info.availMem - info.threshold);
+    }
+    return readMemAvailable(meminfo);
+  }
+
+  /** Returns the available memory in bytes reported by a meminfo file, or -1 if it is unknown. */
+  static long readMemAvailable(File meminfo) {
+    long memFreeKb = -1;
+    long cachedKb = -1;
+    try (BufferedReader reader = new BufferedReader(new FileReader(meminfo))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length < 2) {
+          continue;
+        }
+        long valueKb = Long.parseLong(fields[1]);
+        switch (fields[0]) {
+          case "MemAvailable:":
+            return valueKb * 1024;
+          case "MemFree:":
+            memFreeKb = valueKb;
+            break;
+          case "Cached:":
+            cachedKb = valueKb;
+            break;
+          default:
+            break;
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      Log.w(TAG, "Failed to read " + meminfo + ": " + e.getMessage());
+      return -1;
+    }
+    // Kernels older than 3.14 don't report MemAvailable.
+    if (memFreeKb < 0 || cachedKb < 0) {
+      return -1;
+    }
+    return (memFreeKb + cachedKb) * 1024;
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    switch (level) {
+      case TRIM_MEMORY_RUNNING_LOW:
+      case TRIM_MEMORY_BACKGROUND:
+      case TRIM_MEMORY_MODERATE:
+        lower(1);
+        break;
+      case TRIM_MEMORY_RUNNING_CRITICAL:
+      case TRIM_MEMORY_COMPLETE:
+        lower(2);
+        break;
+      default:
+        // TRIM_MEMORY_RUNNING_MODERATE and TRIM_MEMORY_UI_HIDDEN leave enough memory to run.
+        break;
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    lower(2);
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {}
+
+  private void lower(int shift) {
+    synchronized (this) {
+      if (pressureShift >= MAX_PRESSURE_SHIFT) {
+        return;
+      }
+      pressureShift = Math.min(MAX_PRESSURE_SHIFT, pressureShift + shift);
+    }
+    long budget = getBudgetBytes();
+    Log.w(TAG, "Memory pressure, lowering the budget of the samples to " + budget + " bytes");
+    listener.onBudgetLowered(budget);
+  }
+}
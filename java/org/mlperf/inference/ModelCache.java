@@ -0,0 +1,378 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Local storage of the models and datasets that need to be copied or downloaded.
+ *
+ * <p>Each source is stored under a name derived from the hash of its URL, so different sources with
+ * the same file name don't collide and a source listed by several tasks is stored once. A metadata
+ * file next to each entry records the digest of the extracted content, its size and when it was
+ * last used. Entries are verified against the metadata before being reused and the least recently
+ * used ones are evicted when the cache exceeds its budget. Files named after an entry followed by a
+ * dot, like the caches the native code derives from a source, are evicted and pinned with it.
+ *
+ * <p>A file entry whose size or modification time changed is checked against its digest. A
+ * directory entry, which holds an unzipped archive, is only checked by its stat: the total size,
+ * the number of files and the latest modification time of its files. A file modified in place
+ * without changing these is not detected.
+ */
+final class ModelCache {
+  private static final String TAG = "ModelCache";
+  private static final String ASSETS_PREFIX = "@assets/";
+  private static final String ZIP = ".zip";
+  private static final String META_SUFFIX = ".meta";
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final int KEY_HASH_LENGTH = 16;
+  private static final int BUFFER_SIZE = 256 * 1024;
+
+  private static final String KEY_SRC = "src";
+  private static final String KEY_SHA256 = "sha256";
+  private static final String KEY_SIZE = "size";
+  private static final String KEY_NUM_FILES = "num_files";
+  private static final String KEY_LAST_MODIFIED = "last_modified";
+  private static final String KEY_LAST_ACCESS = "last_access";
+
+  private final File dir;
+
+  ModelCache(File dir) {
+    this.dir = dir;
+  }
+
+  /** Returns true if the source needs to be copied or downloaded into the cache to be used. */
+  static boolean isCacheable(String src) {
+    return src.startsWith(ASSETS_PREFIX) || src.startsWith("http://") || src.startsWith("https://");
+  }
+
+  /** Returns the path where the source is available to the app. */
+  String getPath(String src) {
+    if (!isCacheable(src)) {
+      return src;
+    }
+    return new File(dir, getKey(src)).getAbsolutePath();
+  }
+
+  /**
+   * Returns true if the source can be used as is. Cached entries are checked against their metadata
+   * and marked as used.
+   */
+  synchronized boolean isAvailable(String src) {
+    if (!isCacheable(src)) {
+      return new File(src).canRead();
+    }
+    String key = getKey(src);
+    File entry = new File(dir, key);
+    Properties meta = readMeta(key);
+    if (meta == null || !entry.exists() || !src.equals(meta.getProperty(KEY_SRC))) {
+      return false;
+    }
+    Stat stat = Stat.of(entry);
+    if (!stat.matches(meta)) {
+      // A file can be touched without being modified, so only its content is authoritative.
+      // Directories are checked by their stat only, because they are unzipped archives.
+      String sha256 = meta.getProperty(KEY_SHA256);
+      try {
+        if (!entry.isFile() || sha256 == null || !sha256.equals(digest(entry))) {
+          Log.w(TAG, "Cached " + entry.getName() + " is corrupted");
+          return false;
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to verify " + entry.getName() + ": " + e.getMessage());
+        return false;
+      }
+      stat.put(meta);
+    }
+    meta.setProperty(KEY_LAST_ACCESS, Long.toString(System.currentTimeMillis()));
+    writeMeta(key, meta);
+    return true;
+  }
+
+  /** Returns a temporary location to extract the source to before calling {@link #commit}. */
+  File newTempFile(String src) {
+    dir.mkdirs();
+    File tmp = new File(dir, getKey(src) + TMP_SUFFIX);
+    deleteRecursively(tmp);
+    return tmp;
+  }
+
+  /**
+   * Moves the extracted content of the source into the cache.
+   *
+   * @param sha256 the digest of the bytes the content was extracted from.
+   */
+  synchronized void commit(String src, File extracted, String sha256) throws IOException {
+    String key = getKey(src);
+    File entry = new File(dir, key);
+    new File(dir, key + META_SUFFIX).delete();
+    deleteRecursively(entry);
+    if (!extracted.renameTo(entry)) {
+      throw new IOException("Failed to rename " + extracted + " to " + entry);
+    }
+    // The files derived from the previous content are stale.
+    deleteDerived(key);
+    Properties meta = new Properties();
+    meta.setProperty(KEY_SRC, src);
+    meta.setProperty(KEY_SHA256, sha256);
+    meta.setProperty(KEY_LAST_ACCESS, Long.toString(System.currentTimeMillis()));
+    Stat.of(entry).put(meta);
+    writeMeta(key, meta);
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits in the budget. Entries of the
+   * pinned sources are kept.
+   */
+  synchronized void evict(long budgetBytes, Collection<String> pinnedSources) {
+    Set<String> pinnedKeys = new HashSet<>();
+    for (String src : pinnedSources) {
+      if (isCacheable(src)) {
+        pinnedKeys.add(getKey(src));
+      }
+    }
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Map<String, Entry> entries = new HashMap<>();
+    List<File> derivedFiles = new ArrayList<>();
+    long totalSize = 0;
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(META_SUFFIX)) {
+        continue;
+      }
+      if (!new File(dir, name + META_SUFFIX).exists() && getOwner(name) != null) {
+        derivedFiles.add(file);
+        continue;
+      }
+      Entry entry = new Entry(name, readMeta(name));
+      totalSize += entry.size;
+      entries.put(name, entry);
+    }
+    for (File file : derivedFiles) {
+      long size = Stat.of(file).size;
+      entries.get(getOwner(file.getName())).size += size;
+      totalSize += size;
+    }
+    List<Entry> evictable = new ArrayList<>();
+    for (Entry entry : entries.values()) {
+      if (!pinnedKeys.contains(entry.key)) {
+        evictable.add(entry);
+      }
+    }
+    // Entries without metadata are leftovers of interrupted extractions or older versions of the
+    // app, so they go first.
+    Collections.sort(evictable, (a, b) -> Long.compare(a.lastAccess, b.lastAccess));
+    for (Entry entry : evictable) {
+      if (totalSize <= budgetBytes) {
+        break;
+      }
+      Log.i(TAG, "Evicting " + entry.key + " (" + entry.size + " bytes)");
+      delete(entry.key);
+      totalSize -= entry.size;
+    }
+  }
+
+  // Returns the key of the entry a file was derived from, or null if there is none. Derived files
+  // are named after their entry, like the cache of a TFRecord file written by the native code.
+  private String getOwner(String name) {
+    for (int dot = name.indexOf('.'); dot > 0; dot = name.indexOf('.', dot + 1)) {
+      String key = name.substring(0, dot);
+      if (new File(dir, key + META_SUFFIX).exists()) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  // Deletes an entry with its metadata and the files derived from it.
+  private void delete(String key) {
+    deleteDerived(key);
+    deleteRecursively(new File(dir, key));
+  }
+
+  // Deletes the files named after the entry, including its metadata.
+  private void deleteDerived(String key) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.getName().startsWith(key + ".")) {
+        deleteRecursively(file);
+      }
+    }
+  }
+
+  static String digest(File file) throws IOException {
+    MessageDigest digest = newSha256();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = new FileInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  static MessageDigest newSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  private static String getKey(String src) {
+    String filename = new File(src).getName();
+    if (filename.endsWith(ZIP)) {
+      filename = filename.substring(0, filename.length() - ZIP.length());
+    }
+    byte[] hash = newSha256().digest(src.getBytes(Charset.forName("UTF-8")));
+    return toHex(hash).substring(0, KEY_HASH_LENGTH) + "-" + filename;
+  }
+
+  private Properties readMeta(String key) {
+    File file = new File(dir, key + META_SUFFIX);
+    if (!file.exists()) {
+      return null;
+    }
+    Properties meta = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      meta.load(in);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to read " + file + ": " + e.getMessage());
+      return null;
+    }
+    return meta;
+  }
+
+  private void writeMeta(String key, Properties meta) {
+    File file = new File(dir, key + META_SUFFIX);
+    File tmp = new File(dir, key + META_SUFFIX + TMP_SUFFIX);
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      meta.store(out, null);
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to write " + file + ": " + e.getMessage());
+      return;
+    }
+    if (!tmp.renameTo(file)) {
+      Log.e(TAG, "Failed to rename " + tmp + " to " + file);
+    }
+  }
+
+  static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static long getLong(Properties meta, String key) {
+    try {
+      return Long.parseLong(meta.getProperty(key, "0"));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  // Size, number of files and latest modification time of a file or directory.
+  private static final class Stat {
+    long size;
+    long numFiles;
+    long lastModified;
+
+    static Stat of(File file) {
+      Stat stat = new Stat();
+      stat.add(file);
+      return stat;
+    }
+
+    private void add(File file) {
+      File[] children = file.listFiles();
+      if (children == null) {
+        size += file.length();
+        numFiles++;
+        lastModified = Math.max(lastModified, file.lastModified());
+        return;
+      }
+      for (File child : children) {
+        add(child);
+      }
+    }
+
+    boolean matches(Properties meta) {
+      return size == getLong(meta, KEY_SIZE)
+          && numFiles == getLong(meta, KEY_NUM_FILES)
+          && lastModified == getLong(meta, KEY_LAST_MODIFIED);
+    }
+
+    void put(Properties meta) {
+      meta.setProperty(KEY_SIZE, Long.toString(size));
+      meta.setProperty(KEY_NUM_FILES, Long.toString(numFiles));
+      meta.setProperty(KEY_LAST_MODIFIED, Long.toString(lastModified));
+    }
+  }
+
+  private final class Entry {
+    final String key;
+    // Includes the files derived from the entry.
+    long size;
+    final long lastAccess;
+
+    Entry(String key, Properties meta) {
+      this.key = key;
+      if (meta == null) {
+        size = Stat.of(new File(dir, key)).size;
+        lastAccess = 0;
+      } else {
+        size = getLong(meta, KEY_SIZE);
+        lastAccess = getLong(meta, KEY_LAST_ACCESS);
+      }
+    }
+  }
+}
@@ -20,20 +20,29 @@ public final class NativeEvaluation {
 
   private static final String LIBNAME = "mlperf_jni";
 
+  // Null until the library has been loaded or failed to.
+  private static Boolean loaded;
+
   private NativeEvaluation() {}
 
-  /** Load the Native Evaluation runtime C library. */
-  static boolean init() {
-    try {
-      System.loadLibrary(LIBNAME);
-      return true;
-    } catch (UnsatisfiedLinkError e) {
-      System.err.println("TensorFlowLite: failed to load native library: " + e.getMessage());
+  /** Load the Native Evaluation runtime C library, waiting for a pending {@link #preload}. */
+  static synchronized boolean init() {
+    if (loaded == null) {
+      try {
+        System.loadLibrary(LIBNAME);
+        loaded = true;
+      } catch (UnsatisfiedLinkError e) {
+        System.err.println("TensorFlowLite: failed to load native library: " + e.getMessage());
+        loaded = false;
+      }
     }
-    return false;
+    return loaded;
   }
 
-  static {
-    init();
+  /** Starts loading the library in the background so that its first use does not wait for it. */
+  static void preload() {
+    Thread thread = new Thread(NativeEvaluation::init, "MLPerf.NativePreload");
+    thread.setDaemon(true);
+    thread.start();
   }
 }
@@ -0,0 +1,398 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import android.os.Debug;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Samples the resources used by the process during a run.
+ *
+ * <p>The counters of the process and of each of its threads are read from procfs when the sampler
+ * starts, periodically while it runs and when it stops. Threads that exit during the run are
+ * accounted up to their last sample. Context switches are summed over the threads since the status
+ * of the process only counts its main thread.
+ */
+final class ResourceSampler {
+  static final File PROC_SELF = new File("/proc/self");
+  private static final String TAG = "ResourceSampler";
+
+  private final File procSelf;
+  private final long intervalMs;
+  private final double nsPerTick;
+  private final Object lock = new Object();
+  // The first and last samples of each thread by thread id, guarded by lock.
+  private final Map<String, ThreadSample> firstThreads = new HashMap<>();
+  private final Map<String, ThreadSample> lastThreads = new HashMap<>();
+  // Guarded by lock.
+  private ProcessSample first;
+  private long peakRssKb;
+  private long peakNativeHeapBytes;
+  private boolean stopping;
+  private Thread thread;
+
+  /**
+   * @param procSelf the procfs directory of the process.
+   * @param intervalMs the time between two samples during the run. Sampling takes a little CPU
+   *     time, so it should not be too short.
+   */
+  ResourceSampler(File procSelf, long intervalMs) {
+    this.procSelf = procSelf;
+    this.intervalMs = intervalMs;
+    long ticksPerSecond = Os.sysconf(OsConstants._SC_CLK_TCK);
+    nsPerTick = 1e9 / (ticksPerSecond > 0 ? ticksPerSecond : 100);
+  }
+
+  /** Takes the first sample and starts sampling on a separate thread. */
+  void start() {
+    synchronized (lock) {
+      first = sampleProcess();
+      peakRssKb = first.rssKb;
+      peakNativeHeapBytes = first.nativeHeapBytes;
+      sampleThreads(firstThreads);
+      lastThreads.putAll(firstThreads);
+      stopping = false;
+    }
+    thread = new Thread(this::run, "MLPerf.Resources");
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  /** Takes the last sample and returns the resources used since {@link #start}. */
+  Usage stop() {
+    synchronized (lock) {
+      stopping = true;
+      lock.notifyAll();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (lock) {
+      ProcessSample last = sampleProcess();
+      updatePeaks(last);
+      sampleThreads(lastThreads);
+      return new Usage(first, last, peakRssKb, peakNativeHeapBytes, firstThreads, lastThreads);
+    }
+  }
+
+  private void run() {
+    synchronized (lock) {
+      while (!stopping) {
+        try {
+          lock.wait(intervalMs);
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (!stopping) {
+          updatePeaks(sampleProcess());
+          sampleThreads(lastThreads);
+        }
+      }
+    }
+  }
+
+  private void updatePeaks(ProcessSample sample) {
+    peakRssKb = Math.max(peakRssKb, sample.rssKb);
+    peakNativeHeapBytes = Math.max(peakNativeHeapBytes, sample.nativeHeapBytes);
+  }
+
+  private ProcessSample sampleProcess() {
+    ProcessSample sample = new ProcessSample();
+    sample.timeNs = System.nanoTime();
+    sample.nativeHeapBytes = Debug.getNativeHeapAllocatedSize();
+    String[] stat = readStat(new File(procSelf, "stat"));
+    if (stat != null) {
+      sample.minorFaults = Long.parseLong(stat[7]);
+      sample.majorFaults = Long.parseLong(stat[9]);
+    }
+    Map<String, Long> status = readStatus(new File(procSelf, "status"));
+    sample.rssKb = getOrZero(status, "VmRSS");
+    sample.hwmKb = getOrZero(status, "VmHWM");
+    return sample;
+  }
+
+  // Adds or replaces the samples of the threads running now.
+  private void sampleThreads(Map<String, ThreadSample> samples) {
+    File[] tasks = new File(procSelf, "task").listFiles();
+    if (tasks == null) {
+      return;
+    }
+    for (File task : tasks) {
+      ThreadSample sample = sampleThread(task);
+      if (sample != null) {
+        samples.put(task.getName(), sample);
+      }
+    }
+  }
+
+  // Returns null if the thread exited while it was read.
+  private ThreadSample sampleThread(File task) {
+    String[] stat = readStat(new File(task, "stat"));
+    if (stat == null) {
+      return null;
+    }
+    ThreadSample sample = new ThreadSample();
+    sample.name = stat[stat.length - 1];
+    // schedstat is in ns but needs a kernel with schedstats, stat is in clock ticks.
+    long[] schedstat = readLongs(new File(task, "schedstat"));
+    if (schedstat != null && schedstat.length >= 2) {
+      sample.cpuNs = schedstat[0];
+      sample.waitNs = schedstat[1];
+    } else {
+      sample.cpuNs = (long) ((Long.parseLong(stat[11]) + Long.parseLong(stat[12])) * nsPerTick);
+    }
+    Map<String, Long> status = readStatus(new File(task, "status"));
+    sample.voluntarySwitches = getOrZero(status, "voluntary_ctxt_switches");
+    sample.involuntarySwitches = getOrZero(status, "nonvoluntary_ctxt_switches");
+    return sample;
+  }
+
+  /**
+   * Returns the fields of a stat file following the command name, so that field n of proc(5) is at
+   * index n - 3, and the command name last. Returns null if the file can't be read.
+   */
+  private static String[] readStat(File file) {
+    String line = readFirstLine(file);
+    if (line == null) {
+      return null;
+    }
+    // The command name is in parentheses and may contain spaces and parentheses itself.
+    int open = line.indexOf('(');
+    int close = line.lastIndexOf(')');
+    if (open < 0 || close < open || close + 2 > line.length()) {
+      return null;
+    }
+    String[] fields = line.substring(close + 2).split(" ");
+    if (fields.length < 13) {
+      return null;
+    }
+    String[] result = new String[fields.length + 1];
+    System.arraycopy(fields, 0, result, 0, fields.length);
+    result[fields.length] = line.substring(open + 1, close);
+    return result;
+  }
+
+  // Reads the "Name: value" lines of a status file. Values in kB are returned in kB.
+  private static Map<String, Long> readStatus(File file) {
+    Map<String, Long> values = new HashMap<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int colon = line.indexOf(':');
+        if (colon < 0) {
+          continue;
+        }
+        String[] value = line.substring(colon + 1).trim().split("\\s+");
+        try {
+          values.put(line.substring(0, colon), Long.parseLong(value[0]));
+        } catch (NumberFormatException e) {
+          // Not a number, like the name of the process.
+        }
+      }
+    } catch (IOException e) {
+      Log.d(TAG, "Failed to read " + file + ": " + e.getMessage());
+    }
+    return values;
+  }
+
+  private static long[] readLongs(File file) {
+    String line = readFirstLine(file);
+    if (line == null) {
+      return null;
+    }
+    String[] fields = line.trim().split("\\s+");
+    long[] values = new long[fields.length];
+    try {
+      for (int i = 0; i < fields.length; ++i) {
+        values[i] = Long.parseLong(fields[i]);
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    return values;
+  }
+
+  private static String readFirstLine(File file) {
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      return reader.readLine();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static long getOrZero(Map<String, Long> values, String key) {
+    Long value = values.get(key);
+    return value == null ? 0 : value;
+  }
+
+  private static final class ProcessSample {
+    long timeNs;
+    long minorFaults;
+    long majorFaults;
+    long rssKb;
+    long hwmKb;
+    long nativeHeapBytes;
+  }
+
+  private static final class ThreadSample {
+    String name;
+    long cpuNs;
+    long waitNs;
+    long voluntarySwitches;
+    long involuntarySwitches;
+  }
+
+  /** The resources used by the process between the start and the end of a sampler. */
+  static final class Usage {
+    private final long durationNs;
+    private final long cpuTimeNs;
+    private final long runQueueWaitNs;
+    private final long peakRssKb;
+    private final long minorFaults;
+    private final long majorFaults;
+    private final long voluntarySwitches;
+    private final long involuntarySwitches;
+    private final long nativeHeapGrowthBytes;
+    private final long peakNativeHeapGrowthBytes;
+    // CPU time in ns by thread name, threads of the same name are summed.
+    private final Map<String, Long> threadCpuNs = new HashMap<>();
+
+    private Usage(
+        ProcessSample first,
+        ProcessSample last,
+        long peakRssKb,
+        long peakNativeHeapBytes,
+        Map<String, ThreadSample> firstThreads,
+        Map<String, ThreadSample> lastThreads) {
+      durationNs = last.timeNs - first.timeNs;
+      // The high water mark is exact when the run raised it, sampling may miss short peaks.
+      this.peakRssKb = last.hwmKb > first.hwmKb ? last.hwmKb : peakRssKb;
+      minorFaults = last.minorFaults - first.minorFaults;
+      majorFaults = last.majorFaults - first.majorFaults;
+      nativeHeapGrowthBytes = last.nativeHeapBytes - first.nativeHeapBytes;
+      peakNativeHeapGrowthBytes = peakNativeHeapBytes - first.nativeHeapBytes;
+      long cpu = 0;
+      long wait = 0;
+      long voluntary = 0;
+      long involuntary = 0;
+      for (Map.Entry<String, ThreadSample> entry : lastThreads.entrySet()) {
+        ThreadSample end = entry.getValue();
+        ThreadSample start = firstThreads.get(entry.getKey());
+        long threadCpu = end.cpuNs - (start == null ? 0 : start.cpuNs);
+        cpu += threadCpu;
+        wait += end.waitNs - (start == null ? 0 : start.waitNs);
+        voluntary += end.voluntarySwitches - (start == null ? 0 : start.voluntarySwitches);
+        involuntary += end.involuntarySwitches - (start == null ? 0 : start.involuntarySwitches);
+        Long sum = threadCpuNs.get(end.name);
+        threadCpuNs.put(end.name, (sum == null ? 0 : sum) + threadCpu);
+      }
+      cpuTimeNs = cpu;
+      runQueueWaitNs = wait;
+      voluntarySwitches = voluntary;
+      involuntarySwitches = involuntary;
+    }
+
+    long getDurationNs() {
+      return durationNs;
+    }
+
+    // CPU time of all threads, in ns.
+    long getCpuTimeNs() {
+      return cpuTimeNs;
+    }
+
+    // Time threads were runnable but waiting for a CPU, in ns. 0 without schedstats.
+    long getRunQueueWaitNs() {
+      return runQueueWaitNs;
+    }
+
+    long getPeakRssKb() {
+      return peakRssKb;
+    }
+
+    long getMinorFaults() {
+      return minorFaults;
+    }
+
+    long getMajorFaults() {
+      return majorFaults;
+    }
+
+    long getVoluntarySwitches() {
+      return voluntarySwitches;
+    }
+
+    long getInvoluntarySwitches() {
+      return involuntarySwitches;
+    }
+
+    // Growth of the native heap from the start to the end, negative if it shrank.
+    long getNativeHeapGrowthBytes() {
+      return nativeHeapGrowthBytes;
+    }
+
+    long getPeakNativeHeapGrowthBytes() {
+      return peakNativeHeapGrowthBytes;
+    }
+
+    // CPU time in ns by thread name. Threads of the same name are summed.
+    Map<String, Long> getThreadCpuNs() {
+      return Collections.unmodifiableMap(threadCpuNs);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder =
+          new StringBuilder(
+              String.format(
+                  Locale.US,
+                  "cpu %.2f s (wait %.2f s) in %.2f s, peak rss %d kB, faults %d minor %d major,"
+                      + " switches %d voluntary %d involuntary, native heap %+d kB (peak %+d kB)",
+                  cpuTimeNs / 1e9,
+                  runQueueWaitNs / 1e9,
+                  durationNs / 1e9,
+                  peakRssKb,
+                  minorFaults,
+                  majorFaults,
+                  voluntarySwitches,
+                  involuntarySwitches,
+                  nativeHeapGrowthBytes / 1024,
+                  peakNativeHeapGrowthBytes / 1024));
+      List<Map.Entry<String, Long>> threads = new ArrayList<>(threadCpuNs.entrySet());
+      Collections.sort(threads, (a, b) -> Long.compare(b.getValue(), a.getValue()));
+      for (Map.Entry<String, Long> entry : threads) {
+        if (entry.getValue() > 0) {
+          builder.append(
+              String.format(Locale.US, ", %s %.2f s", entry.getKey(), entry.getValue() / 1e9));
+        }
+      }
+      return builder.toString();
+    }
+  }
+}
@@ -14,18 +14,63 @@ limitations under the License.
 ==============================================================================*/
 package org.mlperf.inference;
 
+import java.util.Locale;
+
 /** Object to hold result parameters for each model */
 // TODO : This class would be a good candidate for AutoValue: go/autovalue/builders.
 public class ResultHolder {
   private String model;
   private String runtime;
-  private String inferenceLatency;
-  private String accuracy;
+  private String backend;
+  private String delegate;
+  private int numThreads;
+  // The time the run finished, in ms since epoch.
+  private long timestampMs;
+  // Latencies in ns.
+  private int numSamples;
+  private long latencyP50Ns;
+  private long latencyP90Ns;
+  private long latencyP99Ns;
+  private long latencyMaxNs;
+  private double latencyMeanNs;
+  private double qps;
+  // The accuracy as a fraction, or NaN if it is not available.
+  private double accuracy;
+  // The accuracy formatted by the dataset, ex: 12.34% or 0.2500 mAP.
+  private String accuracyString;
+  // The highest temperature of the device in Celsius before and after the run, or NaN if unknown.
+  private double startTemperatureC;
+  private double endTemperatureC;
+  // Resources used by the process during the run, see ResourceSampler.Usage.
+  private long cpuTimeNs;
+  private long peakRssKb;
+  private long minorFaults;
+  private long majorFaults;
+  private long voluntarySwitches;
+  private long involuntarySwitches;
+  private long nativeHeapGrowthBytes;
+  // Results of LoadGen read from its logs, see LoadGenLog. Unknown values are empty or -1. When
+  // the length of the run was adapted, they only cover its first performance test.
+  private String logValidity;
+  private double logQps;
+  private long logMinLatencyNs;
+  private long logMeanLatencyNs;
+  private long logMaxLatencyNs;
+  private String earlyStopping;
+  private long earlyStoppingLatencyNs;
+  private int logErrorCount;
+  // Untimed inferences run to warm up the backends before the run, see ScenarioConfig.warmup.
+  private long warmupQueries;
+  private long warmupDurationNs;
+  // Confidence interval of the latency percentile, see ScenarioConfig.adaptive. -1 if unknown.
+  private long intervalEstimateNs;
+  private long intervalLowNs;
+  private long intervalHighNs;
+  private int performanceRounds;
 
   public ResultHolder(String model) {
     this.model = model;
-    this.inferenceLatency = "0";
-    this.accuracy = "0";
+    reset();
   }
 
   public void setModel(String model) {
@@ -36,12 +81,124 @@ public class ResultHolder {
     this.runtime = runtime;
   }
 
-  public void setInferenceLatency(String latency) {
-    this.inferenceLatency = latency;
+  public void setBackend(String backend) {
+    this.backend = backend;
+  }
+
+  public void setDelegate(String delegate) {
+    this.delegate = delegate;
+  }
+
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+  }
+
+  public void setTimestampMs(long timestampMs) {
+    this.timestampMs = timestampMs;
+  }
+
+  public void setLatencies(LatencyStats stats) {
+    numSamples = stats.getCount();
+    latencyP50Ns = stats.getPercentile(0.5);
+    latencyP90Ns = stats.getPercentile(0.9);
+    latencyP99Ns = stats.getPercentile(0.99);
+    latencyMaxNs = stats.getMax();
+    latencyMeanNs = stats.getMean();
+  }
+
+  public void setLatencies(
+      int numSamples, long p50Ns, long p90Ns, long p99Ns, long maxNs, double meanNs) {
+    this.numSamples = numSamples;
+    latencyP50Ns = p50Ns;
+    latencyP90Ns = p90Ns;
+    latencyP99Ns = p99Ns;
+    latencyMaxNs = maxNs;
+    latencyMeanNs = meanNs;
+  }
+
+  public void setQps(double qps) {
+    this.qps = qps;
   }
 
-  public void setAccuracy(String accuracy) {
+  public void setAccuracy(double accuracy, String accuracyString) {
     this.accuracy = accuracy;
+    this.accuracyString = accuracyString;
+  }
+
+  public void setTemperatures(double startC, double endC) {
+    startTemperatureC = startC;
+    endTemperatureC = endC;
+  }
+
+  void setResourceUsage(ResourceSampler.Usage usage) {
+    setResourceUsage(
+        usage.getCpuTimeNs(),
+        usage.getPeakRssKb(),
+        usage.getMinorFaults(),
+        usage.getMajorFaults(),
+        usage.getVoluntarySwitches(),
+        usage.getInvoluntarySwitches(),
+        usage.getNativeHeapGrowthBytes());
+  }
+
+  public void setResourceUsage(
+      long cpuTimeNs,
+      long peakRssKb,
+      long minorFaults,
+      long majorFaults,
+      long voluntarySwitches,
+      long involuntarySwitches,
+      long nativeHeapGrowthBytes) {
+    this.cpuTimeNs = cpuTimeNs;
+    this.peakRssKb = peakRssKb;
+    this.minorFaults = minorFaults;
+    this.majorFaults = majorFaults;
+    this.voluntarySwitches = voluntarySwitches;
+    this.involuntarySwitches = involuntarySwitches;
+    this.nativeHeapGrowthBytes = nativeHeapGrowthBytes;
+  }
+
+  void setLoadGenLog(LoadGenLog log) {
+    setLoadGenResults(
+        log.getValidity(),
+        log.getQps(),
+        log.getMinLatencyNs(),
+        log.getMeanLatencyNs(),
+        log.getMaxLatencyNs(),
+        log.getEarlyStopping(),
+        log.getEarlyStoppingLatencyNs(),
+        log.getErrorCount());
+  }
+
+  public void setLoadGenResults(
+      String validity,
+      double qps,
+      long minLatencyNs,
+      long meanLatencyNs,
+      long maxLatencyNs,
+      String earlyStopping,
+      long earlyStoppingLatencyNs,
+      int errorCount) {
+    logValidity = validity;
+    logQps = qps;
+    logMinLatencyNs = minLatencyNs;
+    logMeanLatencyNs = meanLatencyNs;
+    logMaxLatencyNs = maxLatencyNs;
+    this.earlyStopping = earlyStopping;
+    this.earlyStoppingLatencyNs = earlyStoppingLatencyNs;
+    logErrorCount = errorCount;
+  }
+
+  public void setWarmup(long queries, long durationNs) {
+    warmupQueries = queries;
+    warmupDurationNs = durationNs;
+  }
+
+  public void setLatencyInterval(long estimateNs, long lowNs, long highNs, int rounds) {
+    intervalEstimateNs = estimateNs;
+    intervalLowNs = lowNs;
+    intervalHighNs = highNs;
+    performanceRounds = rounds;
   }
 
   public String getModel() {
@@ -52,17 +209,195 @@ public class ResultHolder {
     return runtime;
   }
 
-  public String getInferenceLatency() {
-    return inferenceLatency;
+  public String getBackend() {
+    return backend;
+  }
+
+  public String getDelegate() {
+    return delegate;
+  }
+
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  public long getTimestampMs() {
+    return timestampMs;
+  }
+
+  public int getNumSamples() {
+    return numSamples;
+  }
+
+  public long getLatencyP50Ns() {
+    return latencyP50Ns;
   }
 
-  public String getAccuracy() {
+  public long getLatencyP90Ns() {
+    return latencyP90Ns;
+  }
+
+  public long getLatencyP99Ns() {
+    return latencyP99Ns;
+  }
+
+  public long getLatencyMaxNs() {
+    return latencyMaxNs;
+  }
+
+  public double getLatencyMeanNs() {
+    return latencyMeanNs;
+  }
+
+  public double getQps() {
+    return qps;
+  }
+
+  public double getAccuracy() {
     return accuracy;
   }
 
+  // The 90 percentile latency in ms is formatted with two decimal places.
+  public String getInferenceLatency() {
+    if (numSamples == 0) {
+      return "N/A";
+    }
+    return String.format(Locale.US, "%.2f ms", latencyP90Ns / 1e6);
+  }
+
+  public String getAccuracyString() {
+    return accuracyString;
+  }
+
+  public double getStartTemperatureC() {
+    return startTemperatureC;
+  }
+
+  public double getEndTemperatureC() {
+    return endTemperatureC;
+  }
+
+  public long getCpuTimeNs() {
+    return cpuTimeNs;
+  }
+
+  public long getPeakRssKb() {
+    return peakRssKb;
+  }
+
+  public long getMinorFaults() {
+    return minorFaults;
+  }
+
+  public long getMajorFaults() {
+    return majorFaults;
+  }
+
+  public long getVoluntarySwitches() {
+    return voluntarySwitches;
+  }
+
+  public long getInvoluntarySwitches() {
+    return involuntarySwitches;
+  }
+
+  public long getNativeHeapGrowthBytes() {
+    return nativeHeapGrowthBytes;
+  }
+
+  public String getLogValidity() {
+    return logValidity;
+  }
+
+  public double getLogQps() {
+    return logQps;
+  }
+
+  public long getLogMinLatencyNs() {
+    return logMinLatencyNs;
+  }
+
+  public long getLogMeanLatencyNs() {
+    return logMeanLatencyNs;
+  }
+
+  public long getLogMaxLatencyNs() {
+    return logMaxLatencyNs;
+  }
+
+  public String getEarlyStopping() {
+    return earlyStopping;
+  }
+
+  public long getEarlyStoppingLatencyNs() {
+    return earlyStoppingLatencyNs;
+  }
+
+  public int getLogErrorCount() {
+    return logErrorCount;
+  }
+
+  public long getWarmupQueries() {
+    return warmupQueries;
+  }
+
+  public long getWarmupDurationNs() {
+    return warmupDurationNs;
+  }
+
+  public long getIntervalEstimateNs() {
+    return intervalEstimateNs;
+  }
+
+  public long getIntervalLowNs() {
+    return intervalLowNs;
+  }
+
+  public long getIntervalHighNs() {
+    return intervalHighNs;
+  }
+
+  public int getPerformanceRounds() {
+    return performanceRounds;
+  }
+
   public void reset() {
     runtime = "";
-    inferenceLatency = "0";
-    accuracy = "0";
+    backend = "";
+    delegate = "";
+    numThreads = 0;
+    timestampMs = 0;
+    numSamples = 0;
+    latencyP50Ns = 0;
+    latencyP90Ns = 0;
+    latencyP99Ns = 0;
+    latencyMaxNs = 0;
+    latencyMeanNs = 0;
+    qps = 0;
+    accuracy = Double.NaN;
+    accuracyString = "N/A";
+    startTemperatureC = Double.NaN;
+    endTemperatureC = Double.NaN;
+    cpuTimeNs = 0;
+    peakRssKb = 0;
+    minorFaults = 0;
+    majorFaults = 0;
+    voluntarySwitches = 0;
+    involuntarySwitches = 0;
+    nativeHeapGrowthBytes = 0;
+    logValidity = "";
+    logQps = Double.NaN;
+    logMinLatencyNs = -1;
+    logMeanLatencyNs = -1;
+    logMaxLatencyNs = -1;
+    earlyStopping = "";
+    earlyStoppingLatencyNs = -1;
+    logErrorCount = 0;
+    warmupQueries = 0;
+    warmupDurationNs = 0;
+    intervalEstimateNs = -1;
+    intervalLowNs = -1;
+    intervalHighNs = -1;
+    performanceRounds = 0;
   }
 }
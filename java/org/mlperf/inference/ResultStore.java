@@ -0,0 +1,312 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only file of results.
+ *
+ * <p>Each record starts with its length and the fields used by queries: the timestamp, the model
+ * and the delegate. An index of these fields is built once when the file is first read, so queries
+ * only read the records they return. A record that was partially written, for example because the
+ * app was killed, is dropped on the next append.
+ *
+ * <p>Adding fields to the records bumps {@link #VERSION}. A file written by an older version is
+ * rewritten in the current format when first read, and the added fields keep their defaults. A file
+ * with an unknown format is moved aside rather than overwritten.
+ */
+final class ResultStore {
+  private static final String TAG = "ResultStore";
+  private static final int MAGIC = 0x4d4c5052; // "MLPR"
+  // 1: up to the accuracy string.
+  // 2: adds the temperatures, resource usage, LoadGen results, warm-up and latency interval.
+  private static final short VERSION = 2;
+  private static final int FILE_HEADER_SIZE = 6;
+
+  private final File file;
+  // Index of the records in the file, in the order they were appended. Null until loaded.
+  private List<IndexEntry> index;
+  // The end of the last complete record.
+  private long validLength;
+
+  ResultStore(File file) {
+    this.file = file;
+  }
+
+  /** Appends the result to the store. */
+  synchronized void append(ResultHolder result) throws IOException {
+    loadIndex();
+    byte[] record = writeRecord(result);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (validLength == 0) {
+        raf.setLength(0);
+        raf.writeInt(MAGIC);
+        raf.writeShort(VERSION);
+        validLength = FILE_HEADER_SIZE;
+      }
+      // Drops a partially written record.
+      raf.setLength(validLength);
+      raf.seek(validLength);
+      raf.writeInt(record.length);
+      raf.write(record);
+      raf.getFD().sync();
+    }
+    index.add(
+        new IndexEntry(
+            validLength, result.getTimestampMs(), result.getModel(), result.getDelegate()));
+    validLength += 4 + record.length;
+  }
+
+  /**
+   * Returns the results matching all the given conditions, in the order they were appended.
+   *
+   * @param model the model name, or null to match all models.
+   * @param delegate the delegate, or null to match all delegates.
+   * @param fromMs the earliest timestamp to match, inclusive.
+   * @param toMs the latest timestamp to match, exclusive.
+   */
+  synchronized List<ResultHolder> query(
+      @Nullable String model, @Nullable String delegate, long fromMs, long toMs)
+      throws IOException {
+    loadIndex();
+    List<ResultHolder> results = new ArrayList<>();
+    if (index.isEmpty()) {
+      return results;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      for (IndexEntry entry : index) {
+        if ((model != null && !model.equals(entry.model))
+            || (delegate != null && !delegate.equals(entry.delegate))
+            || entry.timestampMs < fromMs
+            || entry.timestampMs >= toMs) {
+          continue;
+        }
+        raf.seek(entry.offset);
+        byte[] record = new byte[raf.readInt()];
+        raf.readFully(record);
+        results.add(readRecord(record, VERSION));
+      }
+    }
+    return results;
+  }
+
+  private static byte[] writeRecord(ResultHolder result) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeLong(result.getTimestampMs());
+    out.writeUTF(result.getModel());
+    out.writeUTF(result.getDelegate());
+    out.writeUTF(result.getBackend());
+    out.writeUTF(result.getRuntime());
+    out.writeInt(result.getNumThreads());
+    out.writeInt(result.getNumSamples());
+    out.writeLong(result.getLatencyP50Ns());
+    out.writeLong(result.getLatencyP90Ns());
+    out.writeLong(result.getLatencyP99Ns());
+    out.writeLong(result.getLatencyMaxNs());
+    out.writeDouble(result.getLatencyMeanNs());
+    out.writeDouble(result.getQps());
+    out.writeDouble(result.getAccuracy());
+    out.writeUTF(result.getAccuracyString());
+    out.writeDouble(result.getStartTemperatureC());
+    out.writeDouble(result.getEndTemperatureC());
+    out.writeLong(result.getCpuTimeNs());
+    out.writeLong(result.getPeakRssKb());
+    out.writeLong(result.getMinorFaults());
+    out.writeLong(result.getMajorFaults());
+    out.writeLong(result.getVoluntarySwitches());
+    out.writeLong(result.getInvoluntarySwitches());
+    out.writeLong(result.getNativeHeapGrowthBytes());
+    out.writeUTF(result.getLogValidity());
+    out.writeDouble(result.getLogQps());
+    out.writeLong(result.getLogMinLatencyNs());
+    out.writeLong(result.getLogMeanLatencyNs());
+    out.writeLong(result.getLogMaxLatencyNs());
+    out.writeUTF(result.getEarlyStopping());
+    out.writeLong(result.getEarlyStoppingLatencyNs());
+    out.writeInt(result.getLogErrorCount());
+    out.writeLong(result.getWarmupQueries());
+    out.writeLong(result.getWarmupDurationNs());
+    out.writeLong(result.getIntervalEstimateNs());
+    out.writeLong(result.getIntervalLowNs());
+    out.writeLong(result.getIntervalHighNs());
+    out.writeInt(result.getPerformanceRounds());
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static ResultHolder readRecord(byte[] record, short version) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    long timestampMs = in.readLong();
+    ResultHolder result = new ResultHolder(in.readUTF());
+    result.setTimestampMs(timestampMs);
+    result.setDelegate(in.readUTF());
+    result.setBackend(in.readUTF());
+    result.setRuntime(in.readUTF());
+    result.setNumThreads(in.readInt());
+    result.setLatencies(
+        in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readDouble());
+    result.setQps(in.readDouble());
+    double accuracy = in.readDouble();
+    result.setAccuracy(accuracy, in.readUTF());
+    if (version < 2) {
+      return result;
+    }
+    result.setTemperatures(in.readDouble(), in.readDouble());
+    result.setResourceUsage(
+        in.readLong(),
+        in.readLong(),
+        in.readLong(),
+        in.readLong(),
+        in.readLong(),
+        in.readLong(),
+        in.readLong());
+    result.setLoadGenResults(
+        in.readUTF(),
+        in.readDouble(),
+        in.readLong(),
+        in.readLong(),
+        in.readLong(),
+        in.readUTF(),
+        in.readLong(),
+        in.readInt());
+    result.setWarmup(in.readLong(), in.readLong());
+    result.setLatencyInterval(in.readLong(), in.readLong(), in.readLong(), in.readInt());
+    return result;
+  }
+
+  // Reads the header of all records. The index stays null if the file can't be used, so that
+  // nothing is written to it.
+  private void loadIndex() throws IOException {
+    if (index != null) {
+      return;
+    }
+    List<IndexEntry> entries = new ArrayList<>();
+    validLength = 0;
+    if (file.exists()) {
+      // A file shorter than its header was being created when the app was killed, and holds no
+      // record.
+      short version = VERSION;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+        if (raf.length() >= FILE_HEADER_SIZE) {
+          version = raf.readInt() == MAGIC ? raf.readShort() : -1;
+          if (version >= 1 && version <= VERSION) {
+            validLength = readEntries(raf, entries);
+          }
+        }
+      }
+      if (version < 1 || version > VERSION) {
+        moveAside();
+        entries.clear();
+        validLength = 0;
+      } else if (version < VERSION) {
+        validLength = upgrade(version, entries);
+      }
+    }
+    index = entries;
+  }
+
+  // Adds the records following the file header to the entries, and returns the end of the last
+  // complete one.
+  private static long readEntries(RandomAccessFile raf, List<IndexEntry> entries)
+      throws IOException {
+    long length = raf.length();
+    long offset = FILE_HEADER_SIZE;
+    while (offset + 4 <= length) {
+      raf.seek(offset);
+      int recordLength = raf.readInt();
+      long end = offset + 4 + recordLength;
+      if (recordLength < 0 || end > length) {
+        break;
+      }
+      try {
+        entries.add(new IndexEntry(offset, raf.readLong(), raf.readUTF(), raf.readUTF()));
+      } catch (EOFException e) {
+        break;
+      }
+      offset = end;
+    }
+    return offset;
+  }
+
+  // Rewrites the indexed records of an older version in the current format, and returns the length
+  // of the new file.
+  private long upgrade(short version, List<IndexEntry> entries) throws IOException {
+    File upgraded = new File(file.getPath() + ".tmp");
+    List<IndexEntry> upgradedEntries = new ArrayList<>();
+    long offset = FILE_HEADER_SIZE;
+    try (RandomAccessFile in = new RandomAccessFile(file, "r");
+        RandomAccessFile out = new RandomAccessFile(upgraded, "rw")) {
+      out.setLength(0);
+      out.writeInt(MAGIC);
+      out.writeShort(VERSION);
+      for (IndexEntry entry : entries) {
+        in.seek(entry.offset);
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        record = writeRecord(readRecord(record, version));
+        out.writeInt(record.length);
+        out.write(record);
+        upgradedEntries.add(new IndexEntry(offset, entry.timestampMs, entry.model, entry.delegate));
+        offset += 4 + record.length;
+      }
+      out.getFD().sync();
+    }
+    if (!upgraded.renameTo(file)) {
+      upgraded.delete();
+      throw new IOException("Failed to upgrade " + file + " from version " + version);
+    }
+    Log.i(TAG, "Upgraded " + file + " from version " + version);
+    entries.clear();
+    entries.addAll(upgradedEntries);
+    return offset;
+  }
+
+  // Keeps a file with an unknown format, for example written by a newer version of the app, from
+  // being overwritten.
+  private void moveAside() throws IOException {
+    File aside = new File(file.getPath() + "." + System.currentTimeMillis() + ".unknown");
+    if (!file.renameTo(aside)) {
+      throw new IOException("Failed to move aside " + file + " with an unknown format");
+    }
+    Log.w(TAG, "Moved " + file + " with an unknown format to " + aside);
+  }
+
+  private static final class IndexEntry {
+    final long offset;
+    final long timestampMs;
+    final String model;
+    final String delegate;
+
+    IndexEntry(long offset, long timestampMs, String model, String delegate) {
+      this.offset = offset;
+      this.timestampMs = timestampMs;
+      this.model = model;
+      this.delegate = delegate;
+    }
+  }
+}
@@ -46,7 +46,7 @@ public class ResultsAdapter extends RecyclerView.Adapter<ResultsAdapter.ViewHold
     String modelStr = data.get(position).getModel();
     String runtimeStr = data.get(position).getRuntime();
     String infTimeStr = data.get(position).getInferenceLatency();
-    String accStr = data.get(position).getAccuracy();
+    String accStr = data.get(position).getAccuracyString();
 
     holder.modelTextView.setText(modelStr);
     holder.runtimeTextView.setText(runtimeStr);
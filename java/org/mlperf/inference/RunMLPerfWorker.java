@@ -15,18 +15,31 @@ limitations under the License.
 package org.mlperf.inference;
 
 import android.content.Context;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.PowerManager;
 import android.os.RemoteException;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import java.io.File;
-import java.util.IdentityHashMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
 import org.mlperf.proto.DatasetConfig;
 import org.mlperf.proto.ModelConfig;
+import org.mlperf.proto.ScenarioConfig;
 import org.mlperf.proto.TaskConfig;
 
 /**
@@ -34,6 +47,9 @@ import org.mlperf.proto.TaskConfig;
  *
  * <p>RunMLPerfWorker is designed to run a single model to avoid restarting a big work if
  * terminated.
+ *
+ * <p>While a model is running, the backend and dataset of the next queued model are prepared on a
+ * separate thread. Preparation steps never overlap with the timed LoadGen run.
  */
 public final class RunMLPerfWorker implements Handler.Callback {
   public static final int MSG_RUN = 1;
@@ -41,21 +57,65 @@ public final class RunMLPerfWorker implements Handler.Callback {
   public static final int REPLY_COMPLETE = 2;
   public static final int REPLY_CANCEL = 3;
   public static final int REPLY_ERROR = 4;
+  // Live statistics of the running model, replacing the previous ones.
+  public static final int REPLY_PROGRESS = 5;
+  // Delegate of the models whose runtime is tuned before running them, see AutoTuner.
+  public static final String AUTO_DELEGATE = "Auto";
   public static final String TAG = "RunMLPerfWorker";
+  private static final String RESULTS_FILE = "results.bin";
+  // How often the running statistics are reported, whichever comes first.
+  private static final int PROGRESS_EVERY_QUERIES = 100;
+  private static final int PROGRESS_INTERVAL_MS = 500;
+  // Runs start anyway if the device is still hot after this long.
+  private static final long COOLDOWN_TIMEOUT_MS = 5 * 60 * 1000;
+  // Long enough for sampling to not disturb the run.
+  private static final long RESOURCE_SAMPLE_INTERVAL_MS = 500;
+  // Tuned runtimes by device fingerprint and model.
+  private static final String AUTO_TUNE_PREFERENCES = "auto_tune";
 
-  private final IdentityHashMap<Message, String> waitingMessages;
+  // Queued messages in the order they will be handled.
+  private final LinkedHashMap<Message, String> waitingMessages;
   private final Handler handler;
   private final Context context;
+  // Keeps the results of all runs on the device.
+  private final ResultStore resultStore;
+  // Single thread building the driver of the next queued model.
+  private final ExecutorService preparer;
+  // Held while LoadGen runs. It is fair so a waiting run goes before the next preparation step.
+  private final ReentrantLock timedWindow = new ReentrantLock(/*fair=*/ true);
+  // The data whose driver is being prepared and its pending result.
+  private WorkerData preparedData;
+  private Future<MLPerfDriverWrapper> preparedDriver;
+  // Bounds the samples loaded by each run by the memory of the device.
+  private final MemoryBudget memoryBudget;
+  // The driver whose test is in progress, if any.
+  private MLPerfDriverWrapper runningDriver;
+  // Set by quit, guarded by this.
+  private boolean quitting = false;
+  // Delays the runs until the device has cooled down.
+  private final ThermalGovernor thermalGovernor;
+  // The thread waiting for the device to cool down, interrupted by quit. Guarded by this.
+  private Thread coolingDownThread;
 
   public RunMLPerfWorker(@NonNull Context context, @NonNull Looper looper) {
-    waitingMessages = new IdentityHashMap<>();
+    waitingMessages = new LinkedHashMap<>();
     handler = new Handler(looper, this);
+    preparer = Executors.newSingleThreadExecutor(r -> new Thread(r, "MLPerf.Prepare"));
     this.context = context;
+    resultStore = new ResultStore(new File(context.getFilesDir(), RESULTS_FILE));
+    memoryBudget = new MemoryBudget(context, this::onMemoryPressure);
+    thermalGovernor =
+        new ThermalGovernor(
+            ThermalGovernor.SYSFS_THERMAL,
+            (PowerManager) context.getSystemService(Context.POWER_SERVICE));
+    context.getApplicationContext().registerComponentCallbacks(memoryBudget);
   }
 
   @Override
   public boolean handleMessage(Message msg) {
-    waitingMessages.remove(msg);
+    synchronized (waitingMessages) {
+      waitingMessages.remove(msg);
+    }
     // Gets the data.
     WorkerData data = (WorkerData) msg.obj;
     Messenger messenger = msg.replyTo;
@@ -68,77 +128,189 @@ public final class RunMLPerfWorker implements Handler.Callback {
     String mode = "SubmissionRun";
     TaskConfig taskConfig = MLPerfTasks.getConfig(context).getTask(data.taskIdx);
     ModelConfig modelConfig = taskConfig.getModel(data.modelIdx);
-    DatasetConfig dataset = taskConfig.getDataset();
-    boolean useDummyDataSet =
-        !dataset.getPath().contains("@assets/")
-            && !new File(MLPerfTasks.getLocalPath(dataset.getPath())).isDirectory();
+    if (useDummyDataset(taskConfig.getDataset())) {
+      mode = "PerformanceOnly";
+    }
     String modelName = modelConfig.getName();
-    String runtime = computeRuntimeString(data.numThreads, data.delegate);
     replyWithUpdateMessage(
         messenger, "Running inference for \"" + modelName + "\"...", REPLY_UPDATE);
     replyWithUpdateMessage(messenger, " - backend: " + data.backend, REPLY_UPDATE);
-    replyWithUpdateMessage(messenger, " - runtime: " + runtime, REPLY_UPDATE);
-    try {
-      MLPerfDriverWrapper.Builder builder = new MLPerfDriverWrapper.Builder();
-      if (data.backend.equals("tflite")) {
-        builder.useTfliteBackend(
-            MLPerfTasks.getLocalPath(modelConfig.getSrc()), data.numThreads, data.delegate);
-      } else if (data.backend.equals("dummy_backend")) {
-        builder.useDummyBackend(MLPerfTasks.getLocalPath(modelConfig.getSrc()));
-      } else {
+    if (AUTO_DELEGATE.equals(data.delegate)) {
+      data = autoTune(messenger, data, taskConfig, modelConfig);
+      if (data == null) {
         replyWithUpdateMessage(
-            messenger, "The provided backend type is not supported", REPLY_ERROR);
+            messenger, "No runtime could run \"" + modelName + "\".", REPLY_ERROR);
         return false;
       }
-      if (useDummyDataSet) {
-        builder.useDummy(dataset.getType());
-        mode = "PerformanceOnly";
-      } else {
-        switch (dataset.getType()) {
-          case IMAGENET:
-            builder.useImagenet(
-                MLPerfTasks.getLocalPath(dataset.getPath()),
-                MLPerfTasks.getLocalPath(dataset.getGroundtruthSrc()),
-                modelConfig.getOffset(),
-                /*imageWidth=*/ 224,
-                /*imageHeight=*/ 224,
-                modelConfig.getScenario());
-            break;
-          case COCO:
-            builder.useCoco(
-                MLPerfTasks.getLocalPath(dataset.getPath()),
-                MLPerfTasks.getLocalPath(dataset.getGroundtruthSrc()),
-                modelConfig.getOffset(),
-                /*numClasses=*/ 91,
-                /*imageWidth=*/ 300,
-                /*imageHeight=*/ 300);
-            break;
-          case SQUAD:
-            builder.useSquad(
-                MLPerfTasks.getLocalPath(dataset.getPath()),
-                MLPerfTasks.getLocalPath(dataset.getGroundtruthSrc()));
-            break;
-          case ADE20K:
-            builder.useAde20k(
-                // The current dataset don't have ground truth images.
-                MLPerfTasks.getLocalPath(dataset.getPath()),
-                dataset.getGroundtruthSrc(),
-                /*numClasses=*/ 31,
-                /*imageWidth=*/ 512,
-                /*imageHeight=*/ 512);
-            break;
+    }
+    String runtime = computeRuntimeString(data.numThreads, data.delegate);
+    replyWithUpdateMessage(messenger, " - runtime: " + runtime, REPLY_UPDATE);
+    // The driver is closed once done to free its dataset and backends.
+    try (MLPerfDriverWrapper driverWrapper = takePreparedDriver(data)) {
+      prepareNext(data);
+      driverWrapper.setProgressListener(
+          (completed, p50Ns, p90Ns, qps, elapsedNs) ->
+              replyWithUpdateMessage(
+                  messenger,
+                  String.format(
+                      Locale.US,
+                      " - %d samples in %.1f s, %.2f qps, latency p50 %.2f ms, p90 %.2f ms",
+                      completed,
+                      elapsedNs / 1e9,
+                      qps,
+                      p50Ns / 1e6,
+                      p90Ns / 1e6),
+                  REPLY_PROGRESS),
+          PROGRESS_EVERY_QUERIES,
+          PROGRESS_INTERVAL_MS);
+      ScenarioConfig scenario = ScenarioConfigs.forModel(taskConfig, modelConfig);
+      double startTemperatureC;
+      double endTemperatureC;
+      ResourceSampler.Usage usage;
+      timedWindow.lock();
+      try {
+        // Cooling down also holds the window, so preparing the next model doesn't heat the device.
+        coolDown(messenger, data.cooldownThresholdC);
+        startTemperatureC = thermalGovernor.readTemperature();
+        // The available memory may have changed since the driver was prepared.
+        driverWrapper.setMemoryBudget(memoryBudget.getBudgetBytes());
+        setRunningDriver(driverWrapper);
+        ResourceSampler sampler =
+            new ResourceSampler(ResourceSampler.PROC_SELF, RESOURCE_SAMPLE_INTERVAL_MS);
+        sampler.start();
+        try {
+          driverWrapper.runMLPerf(
+              mode,
+              scenario,
+              taskConfig.getMinQueryCount(),
+              taskConfig.getMinDurationMs(),
+              data.outputFolder);
+        } finally {
+          usage = sampler.stop();
+        }
+        endTemperatureC = thermalGovernor.readTemperature();
+      } finally {
+        setRunningDriver(null);
+        timedWindow.unlock();
+      }
+      LatencyStats stats = driverWrapper.getLatencyStats();
+      // Measured by the driver over the performance test only, without the accuracy test, the
+      // warm-up and the loading of the samples.
+      double qps = driverWrapper.getPerformanceQps();
+      Log.i(TAG, "Latencies of \"" + modelName + "\": " + stats);
+      Log.i(
+          TAG,
+          "Warm-up of \""
+              + modelName
+              + "\": "
+              + driverWrapper.getWarmupQueries()
+              + " inferences in "
+              + driverWrapper.getWarmupDurationNs() / 1000000
+              + " ms"
+              + (driverWrapper.isWarmupSteady() ? "" : ", not steady"));
+      Log.i(TAG, "Resources of \"" + modelName + "\": " + usage);
+      long[] intervalNs = driverWrapper.getLatencyIntervalNs();
+      int rounds = driverWrapper.getPerformanceRounds();
+      if (driverWrapper.isCancelled()) {
+        // Partial results are reported but not stored with the complete ones.
+        String partial =
+            String.format(
+                Locale.US,
+                " after %d samples, %.2f qps, latency p90 %.2f ms.",
+                stats.getCount(),
+                qps,
+                stats.getPercentile(0.9) / 1e6);
+        if (isQuitting()) {
+          replyWithUpdateMessage(
+              messenger, "Canceled \"" + modelName + "\"" + partial, REPLY_CANCEL);
+        } else {
+          replyWithUpdateMessage(
+              messenger, "\"" + modelName + "\" exceeded its time budget" + partial, REPLY_ERROR);
         }
+        return false;
       }
-      MLPerfDriverWrapper driverWrapper = builder.build();
-      driverWrapper.runMLPerf(
-          mode,
-          modelConfig.getScenario(),
-          taskConfig.getMinQueryCount(),
-          taskConfig.getMinDurationMs(),
-          data.outputFolder);
       replyWithUpdateMessage(messenger, "Finished running \"" + modelName + "\".", REPLY_UPDATE);
-      replyWithCompleteMessage(
-          messenger, modelName, runtime, driverWrapper.getLatency(), driverWrapper.getAccuracy());
+      if (!Double.isNaN(startTemperatureC)) {
+        replyWithUpdateMessage(
+            messenger,
+            String.format(
+                Locale.US,
+                " - temperature: %.1f \u00b0C to %.1f \u00b0C",
+                startTemperatureC,
+                endTemperatureC),
+            REPLY_UPDATE);
+      }
+      replyWithUpdateMessage(
+          messenger,
+          String.format(
+              Locale.US,
+              " - resources: cpu %.1f s, peak RSS %d MB, %d major faults, %d involuntary switches",
+              usage.getCpuTimeNs() / 1e9,
+              usage.getPeakRssKb() / 1024,
+              usage.getMajorFaults(),
+              usage.getInvoluntarySwitches()),
+          REPLY_UPDATE);
+      if (rounds > 0 && intervalNs[0] > 0) {
+        String interval =
+            String.format(
+                Locale.US,
+                " - p%d %d%% CI: %.2f to %.2f ms (+/-%.1f%%), %d tests",
+                Math.round(scenario.getAdaptive().getPercentile() * 100),
+                Math.round(scenario.getAdaptive().getConfidence() * 100),
+                intervalNs[1] / 1e6,
+                intervalNs[2] / 1e6,
+                (intervalNs[2] - intervalNs[1]) * 50.0 / intervalNs[0],
+                rounds);
+        Log.i(TAG, "Latency interval of \"" + modelName + "\":" + interval);
+        replyWithUpdateMessage(messenger, interval, REPLY_UPDATE);
+      }
+      LoadGenLog loadGenLog = null;
+      try {
+        loadGenLog = LoadGenLog.read(new File(data.outputFolder));
+        Log.i(TAG, "LoadGen results of \"" + modelName + "\": " + loadGenLog);
+        if (!loadGenLog.getValidity().isEmpty()) {
+          replyWithUpdateMessage(
+              messenger,
+              String.format(
+                  Locale.US,
+                  " - LoadGen: %s, %.2f qps, %d errors",
+                  loadGenLog.getValidity(),
+                  loadGenLog.getQps(),
+                  loadGenLog.getErrorCount()),
+              REPLY_UPDATE);
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to read the LoadGen logs of \"" + modelName + "\": " + e.getMessage());
+      }
+      ResultHolder result = new ResultHolder(modelName);
+      result.setRuntime(runtime);
+      result.setBackend(data.backend);
+      result.setDelegate(data.delegate);
+      result.setNumThreads(data.numThreads);
+      result.setTimestampMs(System.currentTimeMillis());
+      result.setLatencies(stats);
+      // LoadGen reports the throughput of the performance test in its logs, the one measured by
+      // the driver is only used when they are missing.
+      if (loadGenLog != null && !Double.isNaN(loadGenLog.getQps())) {
+        qps = loadGenLog.getQps();
+      }
+      result.setQps(qps);
+      result.setAccuracy(driverWrapper.getAccuracyValue(), driverWrapper.getAccuracy());
+      result.setTemperatures(startTemperatureC, endTemperatureC);
+      result.setResourceUsage(usage);
+      result.setWarmup(driverWrapper.getWarmupQueries(), driverWrapper.getWarmupDurationNs());
+      if (rounds > 0) {
+        result.setLatencyInterval(intervalNs[0], intervalNs[1], intervalNs[2], rounds);
+      }
+      if (loadGenLog != null) {
+        result.setLoadGenLog(loadGenLog);
+      }
+      try {
+        resultStore.append(result);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to store the result of \"" + modelName + "\": " + e.getMessage());
+      }
+      replyWithCompleteMessage(messenger, result);
     } catch (Exception e) {
       replyWithUpdateMessage(
           messenger,
@@ -149,12 +321,300 @@ public final class RunMLPerfWorker implements Handler.Callback {
     return true;
   }
 
+  // Returns the driver for data, either prepared in advance or built now.
+  private MLPerfDriverWrapper takePreparedDriver(WorkerData data) throws Exception {
+    Future<MLPerfDriverWrapper> future = null;
+    synchronized (this) {
+      if (preparedData == data) {
+        future = preparedDriver;
+        preparedData = null;
+        preparedDriver = null;
+      }
+    }
+    if (future == null) {
+      discardPrepared();
+      return buildDriver(data);
+    }
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  // Starts preparing the driver of the next queued message while the one of running runs.
+  private synchronized void prepareNext(WorkerData running) {
+    if (preparer.isShutdown()) {
+      return;
+    }
+    WorkerData next = null;
+    synchronized (waitingMessages) {
+      Iterator<Message> it = waitingMessages.keySet().iterator();
+      if (it.hasNext()) {
+        next = (WorkerData) it.next().obj;
+      }
+    }
+    // Tuned models are built once their runtime is known.
+    if (next == null || next == preparedData || AUTO_DELEGATE.equals(next.delegate)) {
+      return;
+    }
+    discardPrepared();
+    // The backend of the running driver is only returned to the cache once it is closed, so the
+    // next driver is built then to reuse it instead of loading the model again.
+    if (sharesBackend(running, next)) {
+      return;
+    }
+    final WorkerData data = next;
+    preparedData = data;
+    preparedDriver = preparer.submit(() -> buildDriver(data));
+  }
+
+  // Whether the drivers of a and b use the same TFLite backend, see
+  // MLPerfDriverWrapper.Builder.useBackendCache.
+  private boolean sharesBackend(WorkerData a, WorkerData b) {
+    if (!a.backend.equals("tflite")
+        || !b.backend.equals("tflite")
+        || a.numThreads != b.numThreads
+        || !a.delegate.equals(b.delegate)) {
+      return false;
+    }
+    ModelConfig modelA = MLPerfTasks.getConfig(context).getTask(a.taskIdx).getModel(a.modelIdx);
+    ModelConfig modelB = MLPerfTasks.getConfig(context).getTask(b.taskIdx).getModel(b.modelIdx);
+    return modelA.getSrc().equals(modelB.getSrc())
+        && modelA.getBatchSize() == modelB.getBatchSize();
+  }
+
+  // Closes the prepared driver, if any. The close is queued on the preparation thread so it
+  // also covers a preparation that is still in progress.
+  private synchronized void discardPrepared() {
+    if (preparedDriver == null) {
+      return;
+    }
+    final Future<MLPerfDriverWrapper> future = preparedDriver;
+    preparedData = null;
+    preparedDriver = null;
+    preparer.execute(
+        () -> {
+          try {
+            future.get().close();
+          } catch (Exception e) {
+            Log.w(TAG, "Discarded preparation failed: " + e.getMessage());
+          }
+        });
+  }
+
+  // Waits for the device to cool down to thresholdC, unless it is not positive. Quitting stops the
+  // wait.
+  private void coolDown(Messenger messenger, double thresholdC) {
+    if (thresholdC <= 0 || thermalGovernor.isCool(thresholdC)) {
+      return;
+    }
+    synchronized (this) {
+      if (quitting) {
+        return;
+      }
+      coolingDownThread = Thread.currentThread();
+    }
+    replyWithUpdateMessage(
+        messenger,
+        String.format(
+            Locale.US,
+            " - cooling down from %.1f \u00b0C to %.1f \u00b0C...",
+            thermalGovernor.readTemperature(),
+            thresholdC),
+        REPLY_UPDATE);
+    try {
+      if (!thermalGovernor.waitForCooldown(thresholdC, COOLDOWN_TIMEOUT_MS)) {
+        replyWithUpdateMessage(
+            messenger,
+            String.format(
+                Locale.US,
+                " - still at %.1f \u00b0C after %d s, running anyway.",
+                thermalGovernor.readTemperature(),
+                COOLDOWN_TIMEOUT_MS / 1000),
+            REPLY_UPDATE);
+      }
+    } catch (InterruptedException e) {
+      // Interrupted by quit, the run is then cancelled as soon as it starts.
+    } finally {
+      synchronized (this) {
+        coolingDownThread = null;
+        // Clears an interrupt that came after the wait.
+        Thread.interrupted();
+      }
+    }
+  }
+
+  // Returns data with the fastest runtime of the model on this device, or null if none can run it.
+  // numThreads of data is used by the accelerators for the ops they don't support.
+  private WorkerData autoTune(
+      Messenger messenger, WorkerData data, TaskConfig taskConfig, ModelConfig modelConfig) {
+    List<String> accelerators = new ArrayList<>();
+    accelerators.add(context.getString(R.string.delegate_gpu));
+    accelerators.add(context.getString(R.string.delegate_gpu_f16));
+    List<String> devices = MLPerfDriverWrapper.listDevicesForNNAPI();
+    if (devices.isEmpty()) {
+      accelerators.add(context.getString(R.string.delegate_nnapi));
+    } else {
+      for (String device : devices) {
+        accelerators.add("NNAPI-" + device);
+      }
+    }
+    List<AutoTuner.Candidate> candidates =
+        AutoTuner.getCandidates(
+            Runtime.getRuntime().availableProcessors(),
+            context.getString(R.string.delegate_none),
+            accelerators,
+            data.numThreads);
+    // Probes are only limited by their number of queries, so they neither warm up nor extend their
+    // performance test.
+    ScenarioConfig scenario =
+        ScenarioConfigs.forModel(taskConfig, modelConfig)
+            .toBuilder()
+            .setMinDurationMs(0)
+            .clearWarmup()
+            .clearAdaptive()
+            .build();
+    File probeFolder = new File(data.outputFolder, "auto_tune");
+    probeFolder.mkdirs();
+    AutoTuner tuner =
+        new AutoTuner(
+            context.getSharedPreferences(AUTO_TUNE_PREFERENCES, Context.MODE_PRIVATE),
+            Build.FINGERPRINT,
+            (candidate, numQueries) ->
+                probe(
+                    new WorkerData(
+                        data.taskIdx,
+                        data.modelIdx,
+                        data.backend,
+                        candidate.numThreads,
+                        candidate.delegate,
+                        probeFolder.getAbsolutePath(),
+                        data.cooldownThresholdC),
+                    scenario,
+                    numQueries));
+    replyWithUpdateMessage(
+        messenger, " - tuning among " + candidates.size() + " runtimes...", REPLY_UPDATE);
+    AutoTuner.Candidate winner = tuner.tune(data.backend + "/" + modelConfig.getName(), candidates);
+    if (winner == null) {
+      return null;
+    }
+    return new WorkerData(
+        data.taskIdx,
+        data.modelIdx,
+        data.backend,
+        winner.numThreads,
+        winner.delegate,
+        data.outputFolder,
+        data.cooldownThresholdC);
+  }
+
+  // Runs a short performance test and returns its speed: the queries per second in the Offline
+  // scenario and the inverse of the 90th percentile latency otherwise.
+  private double probe(WorkerData data, ScenarioConfig scenario, int numQueries) throws Exception {
+    if (isQuitting()) {
+      throw new IllegalStateException("The worker is quitting");
+    }
+    try (MLPerfDriverWrapper driver = buildDriver(data)) {
+      timedWindow.lock();
+      try {
+        setRunningDriver(driver);
+        driver.runMLPerf(
+            "PerformanceOnly", scenario, numQueries, /*minDurationMs=*/ 0, data.outputFolder);
+      } finally {
+        setRunningDriver(null);
+        timedWindow.unlock();
+      }
+      if (driver.isCancelled()) {
+        throw new IllegalStateException("The probe was cancelled");
+      }
+      if (scenario.getScenario() == ScenarioConfig.Scenario.OFFLINE) {
+        return driver.getPerformanceQps();
+      }
+      return 1e9 / Math.max(1, driver.getLatencyStats().getPercentile(0.9));
+    }
+  }
+
+  // A driver starting after quit is cancelled right away.
+  private synchronized void setRunningDriver(MLPerfDriverWrapper driver) {
+    runningDriver = driver;
+    if (quitting && driver != null) {
+      driver.cancel();
+    }
+  }
+
+  private synchronized boolean isQuitting() {
+    return quitting;
+  }
+
+  // Frees the prepared driver and lowers the budget of the running one. A test that already loaded
+  // its samples keeps them, so the lower budget only applies from the next test.
+  private synchronized void onMemoryPressure(long budgetBytes) {
+    discardPrepared();
+    MLPerfDriverWrapper.setBackendCacheBudget(memoryBudget.getBackendCacheBytes());
+    if (runningDriver != null) {
+      runningDriver.setMemoryBudget(budgetBytes);
+    }
+  }
+
+  // Builds the backend and the dataset. Each step waits until no LoadGen run is in progress.
+  private MLPerfDriverWrapper buildDriver(WorkerData data) {
+    TaskConfig taskConfig = MLPerfTasks.getConfig(context).getTask(data.taskIdx);
+    ModelConfig modelConfig = taskConfig.getModel(data.modelIdx);
+    DatasetConfig dataset = taskConfig.getDataset();
+    ScenarioConfig scenario = ScenarioConfigs.forModel(taskConfig, modelConfig);
+    try (MLPerfDriverWrapper.Builder builder = new MLPerfDriverWrapper.Builder()) {
+      builder.setMemoryBudget(memoryBudget.getBudgetBytes());
+      // Idle backends of the previous runs are kept within the memory left by the samples.
+      MLPerfDriverWrapper.setBackendCacheBudget(memoryBudget.getBackendCacheBytes());
+      builder.useBackendCache(true);
+      runOutsideTimedWindow(
+          () ->
+              DriverBuilders.useBackends(
+                  builder,
+                  modelConfig,
+                  scenario,
+                  data.backend,
+                  data.numThreads,
+                  data.delegate,
+                  MLPerfTasks::getLocalPath));
+      runOutsideTimedWindow(
+          () ->
+              DriverBuilders.useDataset(
+                  builder,
+                  dataset,
+                  modelConfig,
+                  useDummyDataset(dataset),
+                  MLPerfTasks::getLocalPath));
+      return builder.build();
+    }
+  }
+
+  private void runOutsideTimedWindow(Runnable step) {
+    timedWindow.lock();
+    try {
+      step.run();
+    } finally {
+      timedWindow.unlock();
+    }
+  }
+
+  private static boolean useDummyDataset(DatasetConfig dataset) {
+    return !dataset.getPath().contains("@assets/")
+        && !new File(MLPerfTasks.getLocalPath(dataset.getPath())).isDirectory();
+  }
+
   // Same as Handler.sendMessage but keeping track of the message pool.
   public boolean sendMessage(Message msg) {
     WorkerData data = (WorkerData) msg.obj;
     String modelName =
         MLPerfTasks.getConfig(context).getTask(data.taskIdx).getModel(data.modelIdx).getName();
-    waitingMessages.put(msg, modelName);
+    synchronized (waitingMessages) {
+      waitingMessages.put(msg, modelName);
+    }
     return handler.sendMessage(msg);
   }
 
@@ -165,17 +625,37 @@ public final class RunMLPerfWorker implements Handler.Callback {
 
   // Clears the message pool.
   public void removeMessages() {
-    for (Map.Entry<Message, String> entry : waitingMessages.entrySet()) {
-      Message reply = Message.obtain();
-      reply.what = REPLY_CANCEL;
-      reply.obj = "Canceled worker for \"" + entry.getValue() + "\".";
-      try {
-        entry.getKey().replyTo.send(reply);
-      } catch (RemoteException e) {
-        Log.e(TAG, "Failed to send message " + e.getMessage());
+    synchronized (waitingMessages) {
+      for (Map.Entry<Message, String> entry : waitingMessages.entrySet()) {
+        Message reply = Message.obtain();
+        reply.what = REPLY_CANCEL;
+        reply.obj = "Canceled worker for \"" + entry.getValue() + "\".";
+        try {
+          entry.getKey().replyTo.send(reply);
+        } catch (RemoteException e) {
+          Log.e(TAG, "Failed to send message " + e.getMessage());
+        }
       }
+      waitingMessages.clear();
+    }
+    discardPrepared();
+  }
+
+  // Cancels the running model and stops the preparation thread. The running model reports its
+  // partial results. The worker should not be used afterward.
+  public synchronized void quit() {
+    quitting = true;
+    if (runningDriver != null) {
+      runningDriver.cancel();
+    }
+    if (coolingDownThread != null) {
+      coolingDownThread.interrupt();
     }
-    waitingMessages.clear();
+    context.getApplicationContext().unregisterComponentCallbacks(memoryBudget);
+    discardPrepared();
+    // Drivers closed from now on delete their backends.
+    MLPerfDriverWrapper.setBackendCacheBudget(0);
+    preparer.shutdown();
   }
 
   private static void replyWithUpdateMessage(Messenger messenger, String update, int type) {
@@ -189,14 +669,9 @@ public final class RunMLPerfWorker implements Handler.Callback {
     }
   }
 
-  private static void replyWithCompleteMessage(
-      Messenger messenger, String model, String runtime, String latency, String accuracy) {
+  private static void replyWithCompleteMessage(Messenger messenger, ResultHolder result) {
     Message reply = Message.obtain();
     reply.what = REPLY_COMPLETE;
-    ResultHolder result = new ResultHolder(model);
-    result.setRuntime(runtime);
-    result.setInferenceLatency(latency);
-    result.setAccuracy(accuracy);
     reply.obj = result;
     try {
       messenger.send(reply);
@@ -228,13 +703,15 @@ public final class RunMLPerfWorker implements Handler.Callback {
         String backend,
         int numThreads,
         String delegate,
-        String outputFolder) {
+        String outputFolder,
+        double cooldownThresholdC) {
       this.taskIdx = taskId;
       this.modelIdx = modelIdx;
       this.backend = backend;
       this.numThreads = numThreads;
       this.delegate = delegate;
       this.outputFolder = outputFolder;
+      this.cooldownThresholdC = cooldownThresholdC;
     }
 
     protected int taskIdx;
@@ -243,5 +720,6 @@ public final class RunMLPerfWorker implements Handler.Callback {
     protected String backend;
     protected String delegate;
     protected String outputFolder;
+    protected double cooldownThresholdC;
   }
 }
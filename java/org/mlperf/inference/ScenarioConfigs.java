@@ -0,0 +1,48 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.mlperf.inference;
+
+import org.mlperf.proto.ModelConfig;
+import org.mlperf.proto.ScenarioConfig;
+import org.mlperf.proto.TaskConfig;
+
+/** Resolves the LoadGen scenario of the models, shared by the app and the headless runner. */
+final class ScenarioConfigs {
+  // The scenario selected by the deprecated ModelConfig.scenario string.
+  private static final String MOBILENET_OFFLINE_SCENARIO = "mobilenet-offline";
+  private static final ScenarioConfig MOBILENET_OFFLINE =
+      ScenarioConfig.newBuilder()
+          .setScenario(ScenarioConfig.Scenario.OFFLINE)
+          .setPerformanceSampleCount(5000)
+          .setMinDurationMs(5000)
+          .setOfflineExpectedQps(200)
+          .build();
+
+  // Make this class not instantiable.
+  private ScenarioConfigs() {}
+
+  // Returns the scenario of the model, which defaults to the one of its task.
+  @SuppressWarnings("deprecation")
+  static ScenarioConfig forModel(TaskConfig task, ModelConfig model) {
+    if (model.hasScenarioConfig()) {
+      return model.getScenarioConfig();
+    }
+    if (MOBILENET_OFFLINE_SCENARIO.equals(model.getScenario())) {
+      return MOBILENET_OFFLINE;
+    }
+    return task.getScenarioConfig();
+  }
+}
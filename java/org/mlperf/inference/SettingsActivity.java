@@ -150,7 +150,7 @@ public class SettingsActivity extends AppCompatActivity {
           stringBuilder.append('\n');
         }
         String text = stringBuilder.toString();
-        if (MLPerfTasks.loadCustomConfig(text)) {
+        if (MLPerfTasks.loadCustomConfig(context, text)) {
           SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
           SharedPreferences.Editor editor = preferences.edit();
           // Store the file content instead of the file path because the app only has read access
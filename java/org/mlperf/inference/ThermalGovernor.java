@@ -0,0 +1,145 @@
+/* Copyright 2020 The MLPerf Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.mlperf.inference;
+
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Reads the temperature of the device and waits for it to cool down between runs, so that models
+ * run later in a sweep are not throttled by the heat of the previous ones.
+ *
+ * <p>The temperature is the highest of the thermal zones under a sysfs directory, which is {@link
+ * #SYSFS_THERMAL} on devices and a fake tree in tests. On Android 10 and later, the thermal status
+ * of {@link PowerManager} must also show no throttling. The app is compiled against API 28, so the
+ * status is read through reflection.
+ */
+public final class ThermalGovernor {
+  public static final File SYSFS_THERMAL = new File("/sys/class/thermal");
+  // PowerManager.THERMAL_STATUS_MODERATE, from API 29.
+  private static final int THERMAL_STATUS_MODERATE = 2;
+  private static final String TAG = "ThermalGovernor";
+  private static final int API_THERMAL_STATUS = 29;
+  private static final String ZONE_PREFIX = "thermal_zone";
+  private static final long POLL_INTERVAL_MS = 1000;
+  // Zones reporting values out of this range in Celsius are not real sensors.
+  private static final double MIN_VALID_C = -40;
+  private static final double MAX_VALID_C = 150;
+
+  private final File thermalRoot;
+  @Nullable private final PowerManager powerManager;
+  // PowerManager.getCurrentThermalStatus, null if it is not available.
+  @Nullable private final Method getThermalStatus;
+
+  /**
+   * @param thermalRoot the directory holding the thermal_zone* directories.
+   * @param powerManager gives the thermal status, null to only use the thermal zones.
+   */
+  public ThermalGovernor(File thermalRoot, @Nullable PowerManager powerManager) {
+    this.thermalRoot = thermalRoot;
+    this.powerManager = powerManager;
+    Method method = null;
+    if (powerManager != null && Build.VERSION.SDK_INT >= API_THERMAL_STATUS) {
+      try {
+        method = PowerManager.class.getMethod("getCurrentThermalStatus");
+      } catch (NoSuchMethodException e) {
+        Log.w(TAG, "The thermal status is not available: " + e.getMessage());
+      }
+    }
+    getThermalStatus = method;
+  }
+
+  /** Returns the highest temperature of the zones in Celsius, or NaN if none is readable. */
+  public double readTemperature() {
+    File[] zones = thermalRoot.listFiles();
+    double max = Double.NaN;
+    if (zones == null) {
+      return max;
+    }
+    for (File zone : zones) {
+      if (!zone.getName().startsWith(ZONE_PREFIX)) {
+        continue;
+      }
+      double celsius = readZone(new File(zone, "temp"));
+      if (celsius >= MIN_VALID_C && celsius <= MAX_VALID_C && !(celsius <= max)) {
+        max = celsius;
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Returns the thermal status of PowerManager, from 0 for none to 6 for shutdown, or -1 if it is
+   * not available.
+   */
+  public int readThermalStatus() {
+    if (getThermalStatus == null) {
+      return -1;
+    }
+    try {
+      return (Integer) getThermalStatus.invoke(powerManager);
+    } catch (ReflectiveOperationException e) {
+      return -1;
+    }
+  }
+
+  /** Returns true if the temperature is at most thresholdC and the device is not throttled. */
+  public boolean isCool(double thresholdC) {
+    double celsius = readTemperature();
+    // A light status is only a warning, the performance is not limited yet.
+    return !(celsius > thresholdC) && readThermalStatus() < THERMAL_STATUS_MODERATE;
+  }
+
+  /**
+   * Waits until {@link #isCool} or until timeoutMs has passed.
+   *
+   * @return whether the device cooled down.
+   */
+  public boolean waitForCooldown(double thresholdC, long timeoutMs) throws InterruptedException {
+    long deadlineMs = SystemClock.elapsedRealtime() + timeoutMs;
+    while (!isCool(thresholdC)) {
+      long remainingMs = deadlineMs - SystemClock.elapsedRealtime();
+      if (remainingMs <= 0) {
+        return false;
+      }
+      Thread.sleep(Math.min(POLL_INTERVAL_MS, remainingMs));
+    }
+    return true;
+  }
+
+  // Returns the temperature of a zone in Celsius, or NaN if it can't be read. Some zones fail to
+  // read while their sensor is off.
+  private static double readZone(File temp) {
+    try (BufferedReader reader = new BufferedReader(new FileReader(temp))) {
+      String line = reader.readLine();
+      if (line == null) {
+        return Double.NaN;
+      }
+      long value = Long.parseLong(line.trim());
+      // Zones report millidegrees, except a few old drivers reporting degrees.
+      return Math.abs(value) >= 1000 ? value / 1000.0 : value;
+    } catch (IOException | NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+}
@@ -13,34 +13,92 @@ See the License for the specific language governing permissions and
 limitations under the License.
 ==============================================================================*/
 #include <jni.h>
+#include <malloc.h>
+#include <sys/stat.h>
 
+#include <algorithm>
+#include <cstdint>
 #include <memory>
 #include <string>
+#include <utility>
 
+#include "cpp/backend_cache.h"
 #include "cpp/backends/dummy_backend.h"
 #include "cpp/backends/tflite.h"
 #include "tensorflow/lite/nnapi/nnapi_implementation.h"
 
+using mlperf::mobile::BackendCache;
+using mlperf::mobile::CachedBackend;
+
+namespace {
+
+// The memory allocated on the native heap.
+int64_t NativeHeapBytes() { return mallinfo().uordblks; }
+
+// The size of a file, or 0 if it can't be read.
+int64_t FileBytes(const std::string& path) {
+  struct stat file_stat;
+  return stat(path.c_str(), &file_stat) == 0 ? file_stat.st_size : 0;
+}
+
+}  // namespace
+
 #ifdef __cplusplus
 extern "C" {
 #endif  // __cplusplus
 
 JNIEXPORT jlong JNICALL Java_org_mlperf_inference_MLPerfDriverWrapper_tflite(
     JNIEnv* env, jclass clazz, jstring jmodel_file_path, jint num_threads,
-    jstring jdelegate) {
+    jstring jdelegate, jint batch_size, jboolean cached) {
   // Convert parameters to C++.
   std::string model_file_path =
       env->GetStringUTFChars(jmodel_file_path, nullptr);
   std::string delegate = env->GetStringUTFChars(jdelegate, nullptr);
 
+  // Reuse an idle backend of an earlier run if there is one.
+  std::string key;
+  if (cached) {
+    key = BackendCache::Key(model_file_path, num_threads, delegate,
+                            batch_size);
+  }
+  if (!key.empty()) {
+    int64_t size_bytes = 0;
+    std::unique_ptr<mlperf::mobile::Backend> backend =
+        BackendCache::Get().Take(key, &size_bytes);
+    if (backend) {
+      LOG(INFO) << "Reusing backend " << key;
+      return reinterpret_cast<jlong>(new CachedBackend(
+          &BackendCache::Get(), key, std::move(backend), size_bytes));
+    }
+  }
+
   // Create a new TfliteBackend object.
+  const int64_t heap_bytes = NativeHeapBytes();
   std::unique_ptr<mlperf::mobile::TfliteBackend> backend_ptr(
-      new mlperf::mobile::TfliteBackend(model_file_path, num_threads));
+      new mlperf::mobile::TfliteBackend(model_file_path, num_threads,
+                                        batch_size));
   if (backend_ptr->ApplyDelegate(delegate) != 0) {
     env->ThrowNew(env->FindClass("java/lang/Exception"),
                   "failed to apply delegate");
+    return 0;
   }
-  return reinterpret_cast<jlong>(backend_ptr.release());
+  if (key.empty()) {
+    return reinterpret_cast<jlong>(backend_ptr.release());
+  }
+  // The model is mapped rather than allocated. The heap growth is an estimate
+  // since other threads may allocate meanwhile, and it misses the memory of
+  // delegates allocated outside of the heap.
+  const int64_t size_bytes =
+      FileBytes(model_file_path) +
+      std::max<int64_t>(0, NativeHeapBytes() - heap_bytes);
+  return reinterpret_cast<jlong>(new CachedBackend(
+      &BackendCache::Get(), key, std::move(backend_ptr), size_bytes));
+}
+
+JNIEXPORT void JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeSetBackendCacheBudget(
+    JNIEnv* env, jclass clazz, jlong bytes) {
+  BackendCache::Get().SetBudget(bytes);
 }
 
 JNIEXPORT jlong JNICALL
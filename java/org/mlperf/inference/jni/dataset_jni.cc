@@ -43,19 +43,18 @@ extern "C" {
 
 JNIEXPORT jlong JNICALL Java_org_mlperf_inference_MLPerfDriverWrapper_imagenet(
     JNIEnv* env, jclass clazz, jlong backend_handle, jstring jimage_dir,
-    jstring jgroundtruth_file, jint offset, jint image_width, jint image_height,
-    jstring jscenario) {
+    jstring jgroundtruth_file, jint offset, jint image_width,
+    jint image_height) {
   // Convert parameters to C++.
   Backend* backend = convertLongToBackend(env, backend_handle);
   std::string image_dir = env->GetStringUTFChars(jimage_dir, nullptr);
   std::string gt_file = env->GetStringUTFChars(jgroundtruth_file, nullptr);
-  std::string scenario = env->GetStringUTFChars(jscenario, nullptr);
 
   // Create a new Imagenet object.
   std::unique_ptr<mlperf::mobile::Imagenet> imagenet_ptr(
       new mlperf::mobile::Imagenet(
           backend->GetInputFormat(), backend->GetOutputFormat(), image_dir,
-          gt_file, offset, image_width, image_height, scenario));
+          gt_file, offset, image_width, image_height));
   return reinterpret_cast<jlong>(imagenet_ptr.release());
 }
 
@@ -120,6 +119,22 @@ Java_org_mlperf_inference_MLPerfDriverWrapper_dummyDataset(JNIEnv* env,
   return reinterpret_cast<jlong>(dummy_dataset_ptr.release());
 }
 
+JNIEXPORT void JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeSetDatasetNumThreads(
+    JNIEnv* env, jclass clazz, jlong handle, jint num_threads) {
+  if (handle != 0) {
+    reinterpret_cast<Dataset*>(handle)->SetNumThreads(num_threads);
+  }
+}
+
+JNIEXPORT void JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeSetDatasetMemoryBudget(
+    JNIEnv* env, jclass clazz, jlong handle, jlong bytes) {
+  if (handle != 0) {
+    reinterpret_cast<Dataset*>(handle)->SetMemoryBudget(bytes);
+  }
+}
+
 JNIEXPORT void JNICALL
 Java_org_mlperf_inference_MLPerfDriverWrapper_nativeDeleteDataset(
     JNIEnv* env, jclass clazz, jlong handle) {
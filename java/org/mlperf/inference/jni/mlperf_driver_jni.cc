@@ -13,18 +13,27 @@ See the License for the specific language governing permissions and
 limitations under the License.
 ==============================================================================*/
 #include <jni.h>
+#include <pthread.h>
+#include <stdint.h>
 
 #include <memory>
 #include <string>
+#include <vector>
 
 #include "cpp/backend.h"
 #include "cpp/dataset.h"
 #include "cpp/mlperf_driver.h"
+#include "cpp/proto/mlperf_task.pb.h"
+#include "cpp/telemetry.h"
+#include "cpp/utils.h"
 #include "tensorflow/lite/java/src/main/native/jni_utils.h"
 
 using mlperf::mobile::Backend;
 using mlperf::mobile::Dataset;
 using mlperf::mobile::MlperfDriver;
+using mlperf::mobile::PercentileInterval;
+using mlperf::mobile::ScenarioConfig;
+using mlperf::mobile::Telemetry;
 
 MlperfDriver* convertLongToMlperfDriver(JNIEnv* env, jlong handle) {
   if (handle == 0) {
@@ -36,39 +45,146 @@ MlperfDriver* convertLongToMlperfDriver(JNIEnv* env, jlong handle) {
   return reinterpret_cast<MlperfDriver*>(handle);
 }
 
+namespace {
+pthread_key_t detach_key;
+pthread_once_t detach_key_once = PTHREAD_ONCE_INIT;
+
+void DetachThread(void* vm) {
+  static_cast<JavaVM*>(vm)->DetachCurrentThread();
+}
+
+void CreateDetachKey() { pthread_key_create(&detach_key, DetachThread); }
+
+// Returns the JNIEnv of the current native thread, attaching it to the VM the
+// first time. The thread is detached when it exits.
+JNIEnv* AttachCurrentThread(JavaVM* vm) {
+  JNIEnv* env = nullptr;
+  if (vm->GetEnv(reinterpret_cast<void**>(&env), JNI_VERSION_1_6) == JNI_OK) {
+    return env;
+  }
+#ifdef __ANDROID__
+  if (vm->AttachCurrentThread(&env, nullptr) != JNI_OK) {
+#else
+  if (vm->AttachCurrentThread(reinterpret_cast<void**>(&env), nullptr) !=
+      JNI_OK) {
+#endif  // __ANDROID__
+    return nullptr;
+  }
+  pthread_once(&detach_key_once, CreateDetachKey);
+  pthread_setspecific(detach_key, vm);
+  return env;
+}
+}  // namespace
+
 #ifdef __cplusplus
 extern "C" {
 #endif  // __cplusplus
 
 JNIEXPORT jlong JNICALL
-Java_org_mlperf_inference_MLPerfDriverWrapper_nativeInit(JNIEnv* env,
-                                                         jclass clazz,
-                                                         jlong dataset_handle,
-                                                         jlong backend_handle) {
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeInit(
+    JNIEnv* env, jclass clazz, jlong dataset_handle, jlong backend_handle,
+    jlongArray jinstance_handles) {
   if (dataset_handle == 0 || backend_handle == 0) {
+    // The handles are owned here even when they are rejected.
+    delete reinterpret_cast<Dataset*>(dataset_handle);
+    delete reinterpret_cast<Backend*>(backend_handle);
+    jsize num_instances = env->GetArrayLength(jinstance_handles);
+    std::vector<jlong> instance_handles(num_instances);
+    env->GetLongArrayRegion(jinstance_handles, 0, num_instances,
+                            instance_handles.data());
+    for (jlong handle : instance_handles) {
+      delete reinterpret_cast<Backend*>(handle);
+    }
     tflite::jni::ThrowException(env, kIllegalArgumentException,
                                 "Internal error: Invalid handle.");
+    return 0;
   }
   Dataset* dataset = reinterpret_cast<Dataset*>(dataset_handle);
   Backend* backend = reinterpret_cast<Backend*>(backend_handle);
   // create a new MlperfDriver
   std::unique_ptr<MlperfDriver> driver_ptr(new MlperfDriver(
       std::unique_ptr<Dataset>(dataset), std::unique_ptr<Backend>(backend)));
+  // The driver takes the ownership of all instances, even if one is rejected.
+  jsize num_instances = env->GetArrayLength(jinstance_handles);
+  std::vector<jlong> instance_handles(num_instances);
+  env->GetLongArrayRegion(jinstance_handles, 0, num_instances,
+                          instance_handles.data());
+  bool all_added = true;
+  for (jlong handle : instance_handles) {
+    std::unique_ptr<Backend> instance(reinterpret_cast<Backend*>(handle));
+    if (all_added && !driver_ptr->AddInstance(std::move(instance))) {
+      all_added = false;
+    }
+  }
+  if (!all_added) {
+    tflite::jni::ThrowException(
+        env, kIllegalArgumentException,
+        "All instances must have the same inputs and outputs.");
+    return 0;
+  }
   return reinterpret_cast<jlong>(driver_ptr.release());
 }
 
 JNIEXPORT void JNICALL Java_org_mlperf_inference_MLPerfDriverWrapper_nativeRun(
     JNIEnv* env, jclass clazz, jlong driver_handle, jstring jmode,
-    jstring jscenario, jint min_query_count, jint min_duration,
-    jstring joutput_dir) {
+    jbyteArray jscenario_config, jint min_query_count, jint min_duration,
+    jstring joutput_dir, jobject jlistener, jint report_every,
+    jint report_interval_ms) {
   // Convert parameters to C++.
   std::string mode = env->GetStringUTFChars(jmode, nullptr);
-  std::string scenario = env->GetStringUTFChars(jscenario, nullptr);
   std::string output_dir = env->GetStringUTFChars(joutput_dir, nullptr);
-  // Start the test.
-  convertLongToMlperfDriver(env, driver_handle)
-      ->RunMLPerfTest(mode, scenario, min_query_count, min_duration,
-                      output_dir);
+  ScenarioConfig scenario;
+  jbyte* scenario_bytes = env->GetByteArrayElements(jscenario_config, nullptr);
+  bool parsed = scenario.ParseFromArray(
+      scenario_bytes, env->GetArrayLength(jscenario_config));
+  env->ReleaseByteArrayElements(jscenario_config, scenario_bytes, JNI_ABORT);
+  if (!parsed) {
+    tflite::jni::ThrowException(env, kIllegalArgumentException,
+                                "Failed to parse the scenario config.");
+    return;
+  }
+  MlperfDriver* driver = convertLongToMlperfDriver(env, driver_handle);
+  if (driver == nullptr) {
+    return;
+  }
+  if (jlistener == nullptr) {
+    driver->RunMLPerfTest(mode, scenario, min_query_count, min_duration,
+                          output_dir);
+    return;
+  }
+
+  // The statistics are reported to the listener from the telemetry thread, the
+  // threads running the samples never call into Java.
+  JavaVM* vm = nullptr;
+  env->GetJavaVM(&vm);
+  jobject listener = env->NewGlobalRef(jlistener);
+  jmethodID on_progress = env->GetMethodID(env->GetObjectClass(jlistener),
+                                           "onProgress", "(JJJDJ)V");
+  if (on_progress == nullptr) {
+    env->DeleteGlobalRef(listener);
+    return;
+  }
+  Telemetry telemetry(
+      report_every, report_interval_ms,
+      [vm, listener, on_progress](const Telemetry::Stats& stats) {
+        JNIEnv* thread_env = AttachCurrentThread(vm);
+        if (thread_env == nullptr) {
+          return;
+        }
+        thread_env->CallVoidMethod(listener, on_progress, stats.completed,
+                                   stats.p50_ns, stats.p90_ns, stats.qps,
+                                   stats.elapsed_ns);
+        // Listeners must not break the run.
+        if (thread_env->ExceptionCheck()) {
+          thread_env->ExceptionDescribe();
+          thread_env->ExceptionClear();
+        }
+      });
+  driver->SetTelemetry(&telemetry);
+  driver->RunMLPerfTest(mode, scenario, min_query_count, min_duration,
+                        output_dir);
+  driver->SetTelemetry(nullptr);
+  env->DeleteGlobalRef(listener);
 }
 
 JNIEXPORT jstring JNICALL
@@ -79,6 +195,41 @@ Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetLatency(
   return env->NewStringUTF(latency.c_str());
 }
 
+JNIEXPORT jlongArray JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetLatencies(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  MlperfDriver* driver = convertLongToMlperfDriver(env, driver_handle);
+  if (driver == nullptr) {
+    return nullptr;
+  }
+  static_assert(sizeof(jlong) == sizeof(int64_t), "jlong must be 64 bits");
+  const std::vector<int64_t>& latencies = driver->GetLatencies();
+  jlongArray result = env->NewLongArray(latencies.size());
+  if (result == nullptr) {
+    return nullptr;
+  }
+  env->SetLongArrayRegion(result, 0, latencies.size(),
+                          reinterpret_cast<const jlong*>(latencies.data()));
+  return result;
+}
+
+JNIEXPORT jobject JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetLatencyBuffer(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  MlperfDriver* driver = convertLongToMlperfDriver(env, driver_handle);
+  if (driver == nullptr) {
+    return nullptr;
+  }
+  const std::vector<int64_t>& latencies = driver->GetLatencies();
+  if (latencies.empty()) {
+    return nullptr;
+  }
+  // The buffer points to the memory of the driver, so no copy is made.
+  return env->NewDirectByteBuffer(
+      const_cast<int64_t*>(latencies.data()),
+      latencies.size() * sizeof(int64_t));
+}
+
 JNIEXPORT jstring JNICALL
 Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetAccuracy(
     JNIEnv* env, jclass clazz, jlong helper_handle) {
@@ -87,6 +238,82 @@ Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetAccuracy(
   return env->NewStringUTF(accuracy.c_str());
 }
 
+JNIEXPORT jfloat JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetAccuracyValue(
+    JNIEnv* env, jclass clazz, jlong helper_handle) {
+  return convertLongToMlperfDriver(env, helper_handle)->ComputeAccuracy();
+}
+
+JNIEXPORT void JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeSetMemoryBudget(
+    JNIEnv* env, jclass clazz, jlong driver_handle, jlong bytes) {
+  convertLongToMlperfDriver(env, driver_handle)->SetMemoryBudget(bytes);
+}
+
+JNIEXPORT void JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeCancel(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  convertLongToMlperfDriver(env, driver_handle)->Cancel();
+}
+
+JNIEXPORT jboolean JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeCancelled(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  return convertLongToMlperfDriver(env, driver_handle)->Cancelled();
+}
+
+JNIEXPORT jlong JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetWarmupQueries(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  return convertLongToMlperfDriver(env, driver_handle)->WarmupQueries();
+}
+
+JNIEXPORT jlong JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetWarmupDurationNs(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  return convertLongToMlperfDriver(env, driver_handle)->WarmupDurationNs();
+}
+
+JNIEXPORT jboolean JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeWarmupSteady(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  return convertLongToMlperfDriver(env, driver_handle)->WarmupSteady();
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetLatencyInterval(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  const PercentileInterval& interval =
+      convertLongToMlperfDriver(env, driver_handle)->LatencyInterval();
+  const jlong values[] = {interval.estimate_ns, interval.low_ns,
+                          interval.high_ns};
+  jlongArray result = env->NewLongArray(3);
+  if (result == nullptr) {
+    return nullptr;
+  }
+  env->SetLongArrayRegion(result, 0, 3, values);
+  return result;
+}
+
+JNIEXPORT jint JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetPerformanceRounds(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  return convertLongToMlperfDriver(env, driver_handle)->PerformanceRounds();
+}
+
+JNIEXPORT jlong JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetPerformanceSamples(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  return convertLongToMlperfDriver(env, driver_handle)->PerformanceSamples();
+}
+
+JNIEXPORT jlong JNICALL
+Java_org_mlperf_inference_MLPerfDriverWrapper_nativeGetPerformanceDurationNs(
+    JNIEnv* env, jclass clazz, jlong driver_handle) {
+  return convertLongToMlperfDriver(env, driver_handle)
+      ->PerformanceDurationNs();
+}
+
 JNIEXPORT void JNICALL
 Java_org_mlperf_inference_MLPerfDriverWrapper_nativeDelete(
     JNIEnv* env, jclass clazz, jlong driver_handle) {